@@ -0,0 +1,135 @@
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * AllocationBudget checks that the tick of the simulation does not allocate memory once the stage is running.
+ * The history of the ticks that the game keeps to go back in time is captured after every tick and is gone back in
+ * now and then, as in the game, so it is measured with the ticks.
+ * It runs a number of ticks with changing input on every stage without a window, measures the bytes allocated
+ * by the thread during the ticks, and exits with status 1 if a stage allocates more than the budget.
+ * Ticks that move to another stage or reset the run create a new map, so they are not measured.
+ * Usage: java AllocationBudget [ticks per stage] [budget in bytes per stage]
+ */
+public class AllocationBudget {
+
+    // Default number of measured ticks on every stage
+    static final int DEFAULT_TICKS = 100_000;
+    // Default number of bytes that a stage may allocate during the measured ticks
+    private static final long DEFAULT_BUDGET = 0;
+    // Ticks that are run on every stage before any stage is measured. The JIT compiler allocates memory on the
+    // thread when it replaces the compiled code of a method, so the measurement starts after the code settles
+    private static final int WARMUP_TICKS = 100_000;
+    // Number of ticks that the same input is kept for
+    private static final int INPUT_PERIOD = 12;
+    // Every this many ticks, the run goes back by REWIND_TICKS ticks
+    private static final int REWIND_PERIOD = 500;
+    private static final int REWIND_TICKS = 30;
+
+    // Seed of the input sequence, changed by nextInput()
+    private static int seed = 12345;
+
+    /**
+     * Runs the measurement.
+     * @param args Optional number of ticks per stage and budget in bytes per stage.
+     */
+    public static void main(String[] args){
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TICKS;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_BUDGET;
+        if(!isSupported()){
+            System.out.println("Measuring the allocated memory is not supported by this JVM");
+            System.exit(2);
+        }
+        long[] allocated = measureStages(Stage.createStages(), ticks);
+        boolean isOverBudget = false;
+        for(int stageIndex = 0; stageIndex < allocated.length; stageIndex ++){
+            boolean isStageOverBudget = allocated[stageIndex] > budget;
+            isOverBudget |= isStageOverBudget;
+            System.out.printf("Stage %d: %d bytes in %d ticks (%.3f bytes/tick)%s%n", stageIndex + 1,
+                    allocated[stageIndex], ticks, (double) allocated[stageIndex] / ticks,
+                    isStageOverBudget ? " OVER BUDGET" : "");
+        }
+        if(isOverBudget){
+            System.out.println("FAILED: the budget is " + budget + " bytes per stage");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    /**
+     * Checks if the JVM can measure the memory allocated by a thread.
+     * @return true if the measurement is supported.
+     */
+    static boolean isSupported(){
+        return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * Runs ticks on every stage and measures the memory allocated by them. A round of ticks on every stage warms up
+     * the code of the tick and of the measurement first.
+     * @param stages Stages of the run.
+     * @param ticks Number of measured ticks on every stage.
+     * @return The number of bytes allocated on every stage during the ticks that stayed on the stage.
+     */
+    static long[] measureStages(ArrayList<Stage> stages, int ticks){
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        for(int stageIndex = 0; stageIndex < stages.size(); stageIndex ++){
+            measure(threads, stages, stageIndex, WARMUP_TICKS);
+        }
+        long[] allocated = new long[stages.size()];
+        for(int stageIndex = 0; stageIndex < stages.size(); stageIndex ++){
+            allocated[stageIndex] = measure(threads, stages, stageIndex, ticks);
+        }
+        return allocated;
+    }
+
+    /**
+     * Runs ticks on a stage and measures the memory allocated by them.
+     * @param threads The bean that reports the memory allocated by the current thread.
+     * @param stages Stages of the run.
+     * @param stageIndex Index of the stage that is measured.
+     * @param ticks Number of ticks.
+     * @return The number of bytes allocated during the ticks that stayed on the stage.
+     */
+    private static long measure(ThreadMXBean threads, ArrayList<Stage> stages,
+                                int stageIndex, int ticks){
+        Simulation simulation = new Simulation(stages, stageIndex);
+        RewindBuffer rewind = new RewindBuffer(RewindBuffer.DEFAULT_CAPACITY);
+        long allocated = 0;
+        for(int i = 0; i < ticks; i ++){
+            long before = threads.getCurrentThreadAllocatedBytes();
+            int events = simulation.tick(nextInput(i));
+            rewind.capture(simulation);
+            if(i % REWIND_PERIOD == REWIND_PERIOD - 1){
+                rewind.rewind(simulation, REWIND_TICKS);
+            }
+            long after = threads.getCurrentThreadAllocatedBytes();
+            // Leaving the stage is not a part of the steady state, the stage is started again instead
+            if((events & (Simulation.EVENT_STAGE_PASSED | Simulation.EVENT_FINISHED)) != 0){
+                simulation = new Simulation(stages, stageIndex);
+                continue;
+            }
+            allocated += after - before;
+        }
+        return allocated;
+    }
+
+    /**
+     * Returns the input of a tick. The input is random and kept for a few ticks, like keys held by a player,
+     * and the restart button is clicked now and then. The reset button is never clicked.
+     * @param i Number of the tick.
+     * @return The input bitmask of the tick.
+     */
+    private static int nextInput(int i){
+        if(i % INPUT_PERIOD == 0){
+            // Linear congruential generator, it does not allocate anything
+            seed = seed * 1103515245 + 12345;
+        }
+        int input = (seed >>> 16) & (Simulation.INPUT_LEFT | Simulation.INPUT_RIGHT | Simulation.INPUT_UP);
+        if(i % 997 == 0){
+            input |= Simulation.INPUT_RESTART;
+        }
+        return input;
+    }
+}
@@ -0,0 +1,85 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * BackgroundLayer is the part of a stage that does not change while the stage is played:
+ * the obstacles, the pipes, the button floor, the spikes and the gravity strips.
+ * Every chunk of the level has its own layer. It is rendered once into an image, and every frame draws the images
+ * of the visible chunks in a single call each.
+ * The layer remembers the colors and the level that it was rendered from, so it can tell when it is outdated.
+ */
+public class BackgroundLayer {
+
+    // Vertical boundaries of the area that the layers cover, the game area above the time counter area
+    public static final double Y_BOTTOM = 120;
+    public static final double Y_TOP = Screen.HEIGHT;
+    public static final double HEIGHT = Y_TOP - Y_BOTTOM;
+
+    // Horizontal boundaries of the area that the layer covers in the coordinates of the level
+    private double xLeft;
+    private double width;
+    // The rendered layer
+    private BufferedImage image;
+    // Colors of the stage that the layer was rendered with
+    private Color color;
+    private Color gravityStripColor;
+    // Signature of the level rectangles that the layer was rendered from
+    private int levelSignature;
+
+    /**
+     * Constructor of the class. Creates an empty white layer, the caller renders the level to it.
+     * @param stage The stage that the layer is rendered for.
+     * @param levelSignature Signature of the level rectangles that the layer is rendered from.
+     * @param xLeft Left boundary of the area that the layer covers.
+     * @param width Width of the area that the layer covers.
+     */
+    public BackgroundLayer(Stage stage, int levelSignature, double xLeft, double width){
+        this.xLeft = xLeft;
+        this.width = width;
+        this.color = stage.getColor();
+        this.gravityStripColor = stage.getGravityStripColor();
+        this.levelSignature = levelSignature;
+        this.image = Screen.createOpaqueImage(width, HEIGHT);
+        Graphics2D graphics = createGraphics();
+        graphics.setColor(Color.WHITE);
+        Screen.filledRectangle(graphics, xLeft + width / 2, Y_BOTTOM + HEIGHT / 2, width / 2, HEIGHT / 2);
+        graphics.dispose();
+    }
+
+    /**
+     * Creates the graphics of the layer, it uses the coordinates of the level.
+     * @return The graphics of the layer. It must be disposed after drawing.
+     */
+    public Graphics2D createGraphics(){
+        return Screen.createGraphics(image, xLeft, Y_TOP);
+    }
+
+    /**
+     * Checks if the layer can still be used for the stage.
+     * @param stage The stage that will be drawn.
+     * @param levelSignature Signature of the level rectangles that will be drawn.
+     * @return true if the layer was rendered with the same colors and the same level, false otherwise.
+     */
+    public boolean isValidFor(Stage stage, int levelSignature){
+        return this.levelSignature == levelSignature &&
+               Objects.equals(color, stage.getColor()) &&
+               Objects.equals(gravityStripColor, stage.getGravityStripColor());
+    }
+
+    /**
+     * Draws the layer to the screen. This also clears the area that the layer covers.
+     * @param cameraX The x coordinate of the level that is drawn at the left edge of the screen.
+     */
+    public void draw(double cameraX){
+        Screen.drawImage(image, xLeft - cameraX, Y_TOP, width, HEIGHT);
+    }
+
+    /**
+     * Returns the memory that the image of the layer uses.
+     * @return The size of the image in bytes.
+     */
+    public long getByteSize(){
+        return (long) image.getWidth() * image.getHeight() * Integer.BYTES;
+    }
+}
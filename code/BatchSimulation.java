@@ -0,0 +1,507 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * BatchSimulation advances many independent players on the same stage at once, for example the bots of a training
+ * run or the random inputs of a fuzzer. A Simulation needs its own Map and Player for every run, because the map
+ * owns the state of the door and the button. Here the state of every player, including its own door and button,
+ * is kept in primitive arrays indexed by the player, and the geometry of the level is compiled once and shared.
+ * <p>
+ * A tick gives the same result for every player as Simulation.tick gives for a single run on the stage.
+ * It is done in two passes over the players: the first pass moves every player horizontally with arithmetic only,
+ * so the JIT compiler can vectorize it, and the second pass does the collision tests of every player.
+ * The players can be divided into lanes that are simulated on different cores, every lane has its own collision
+ * grids and buffers since a grid query is not thread safe.
+ * A player that reaches the exit stops and keeps the tick it finished in. The reset input is ignored,
+ * since a batch only plays one stage.
+ */
+public class BatchSimulation {
+
+    // Number of input bitmasks, every combination of the INPUT_ constants
+    private static final int INPUT_COUNT = 32;
+    // The table of the door heights stops after this many ticks, a door whose height is not a multiple of 2
+    // would otherwise never stop opening
+    private static final int MAX_DOOR_STEPS = 10_000;
+
+    private Stage stage;
+    private double velocityX;
+    private double jumpVelocity;
+    private double gravity;
+    // Gravity of the different areas of the level and the number of button presses that open the door
+    private GravityField gravityField;
+    private int buttonPresses;
+    private int[] spawn;
+    // Horizontal direction (-1, 0 or 1) and the jump of every input bitmask, from the rules of the stage
+    private double[] moveX = new double[INPUT_COUNT];
+    private boolean[] isJumpPressed = new boolean[INPUT_COUNT];
+
+    // Compiled obstacles of the whole level, the door is the last one. Its bounds in the arrays are the closed door
+    private LevelGeometry solids;
+    private int doorIndex;
+    private LevelGeometry spikes;
+    // Bounds of the door after it opened for a number of ticks, doorBottom and doorTop are indexed by that number
+    private double[] doorBottom;
+    private double[] doorTop;
+    private boolean[] isDoorVisible;
+    // Trigger areas of the button and the exit, the same as in Map
+    private double buttonLeft;
+    private double buttonRight;
+    private double buttonBottom;
+    private double buttonTop;
+    private double exitLeft;
+    private double exitRight;
+    private double exitBottom;
+    private double exitTop;
+
+    // Collision grids and query buffers of every lane
+    private CollisionGrid[] obstacleGrids;
+    private CollisionGrid[] spikeGrids;
+    private int[][] candidates;
+    private int lanes;
+
+    // State of every player
+    private int count;
+    private double[] x;
+    private double[] y;
+    private double[] nextX;
+    private double[] nextY;
+    private double[] previousX;
+    private double[] previousY;
+    private double[] velocityY;
+    // Number of ticks that the door of the player has been opening
+    private int[] doorStep;
+    private int[] buttonPressNum;
+    private boolean[] isButtonPressing;
+    private int[] deathNumber;
+    // Tick that the player reached the exit in, -1 if it did not finish
+    private int[] finishTick;
+    // Number of ticks simulated
+    private int tickCount = 0;
+
+    /**
+     * Constructor of the class. Every player starts at the spawn point of the level.
+     * @param stage The stage that the players play.
+     * @param count Number of players.
+     * @param lanes Number of parts that the players are divided into to be simulated in parallel, 1 for a single
+     *              thread.
+     */
+    public BatchSimulation(Stage stage, int count, int lanes){
+        this.stage = stage;
+        this.velocityX = stage.getVelocityX();
+        this.jumpVelocity = stage.getVelocityY();
+        this.gravity = stage.getGravity();
+        this.gravityField = stage.getRules().getGravityField();
+        this.buttonPresses = stage.getRules().getButtonPresses();
+        this.count = count;
+        this.lanes = Math.max(1, Math.min(lanes, count));
+        Level level = stage.getLevel();
+        spawn = level.getSpawn();
+        for(int input = 0; input < INPUT_COUNT; input ++){
+            char direction = stage.getRules().getHorizontalDirection(input);
+            moveX[input] = direction == 'L' ? -1 : direction == 'R' ? 1 : 0;
+            isJumpPressed[input] = stage.getRules().getVerticalDirection(input) == 'U';
+        }
+
+        // The player of a Map only sees the chunks around it, a batch has players everywhere, so all chunks are
+        // merged. The rectangles are ordered by their IDs like in Map, so the tests run in the same order
+        Player player = new Player(spawn[0], spawn[1]);
+        double marginX = player.getWidth() / 2;
+        double marginY = player.getHeight() / 2;
+        int[][] obstacles = new int[level.getObstacleCount()][];
+        int[][] spikeAreas = new int[level.getSpikeCount()][];
+        for(int index = 0; index < level.getChunkCount(); index ++){
+            LevelChunk chunk = level.getChunk(index);
+            for(int i = 0; i < chunk.getObstacles().length; i ++){
+                obstacles[chunk.getObstacleIds()[i]] = chunk.getObstacles()[i];
+            }
+            for(int i = 0; i < chunk.getSpikes().length; i ++){
+                spikeAreas[chunk.getSpikeIds()[i]] = chunk.getSpikes()[i];
+            }
+        }
+        int[][] solidRectangles = Arrays.copyOf(obstacles, obstacles.length + 1);
+        doorIndex = obstacles.length;
+        solidRectangles[doorIndex] = level.getDoor();
+        solids = new LevelGeometry(solidRectangles, marginX, marginY);
+        spikes = new LevelGeometry(spikeAreas, marginX, marginY);
+        obstacleGrids = new CollisionGrid[this.lanes];
+        spikeGrids = new CollisionGrid[this.lanes];
+        candidates = new int[this.lanes][Math.max(solids.getCount(), spikes.getCount())];
+        for(int lane = 0; lane < this.lanes; lane ++){
+            obstacleGrids[lane] = new CollisionGrid(solids, Map.GRID_CELL_SIZE);
+            spikeGrids[lane] = new CollisionGrid(spikes, Map.GRID_CELL_SIZE);
+        }
+
+        // The door goes down by 2 in every tick while it has a height, like in Map.doorCheck
+        int[] door = level.getDoor().clone();
+        LevelGeometry doorGeometry = new LevelGeometry(new int[][]{door}, marginX, marginY);
+        double[] bottoms = new double[16];
+        double[] tops = new double[16];
+        boolean[] visible = new boolean[16];
+        int steps = 0;
+        while(true){
+            if(steps == bottoms.length){
+                bottoms = Arrays.copyOf(bottoms, 2 * steps);
+                tops = Arrays.copyOf(tops, 2 * steps);
+                visible = Arrays.copyOf(visible, 2 * steps);
+            }
+            bottoms[steps] = doorGeometry.getBottom()[0];
+            tops[steps] = doorGeometry.getTop()[0];
+            visible[steps] = doorGeometry.getHalfHeight()[0] > 0;
+            steps ++;
+            if(!visible[steps - 1] || steps == MAX_DOOR_STEPS){
+                break;
+            }
+            door[3] -= 2;
+            doorGeometry.setRectangle(0, door);
+        }
+        doorBottom = Arrays.copyOf(bottoms, steps);
+        doorTop = Arrays.copyOf(tops, steps);
+        isDoorVisible = Arrays.copyOf(visible, steps);
+
+        LevelGeometry triggers = new LevelGeometry(new int[][]{level.getButton(), level.getExitPipe()[1]},
+                marginX, marginY);
+        buttonLeft = triggers.getLeft()[0];
+        buttonRight = triggers.getRight()[0];
+        buttonBottom = triggers.getYCenter()[0] - triggers.getHalfHeight()[0] + marginY;
+        buttonTop = triggers.getTop()[0];
+        exitLeft = triggers.getLeft()[1];
+        exitRight = triggers.getRight()[1];
+        exitBottom = triggers.getYCenter()[1] - triggers.getHalfHeight()[1] + marginY;
+        exitTop = triggers.getTop()[1];
+
+        x = new double[count];
+        y = new double[count];
+        nextX = new double[count];
+        nextY = new double[count];
+        previousX = new double[count];
+        previousY = new double[count];
+        velocityY = new double[count];
+        doorStep = new int[count];
+        buttonPressNum = new int[count];
+        isButtonPressing = new boolean[count];
+        deathNumber = new int[count];
+        finishTick = new int[count];
+        Arrays.fill(finishTick, -1);
+        for(int i = 0; i < count; i ++){
+            respawn(i);
+        }
+    }
+
+    /**
+     * Advances every player that has not finished by one tick.
+     * @param inputs Bitmask of the Simulation.INPUT_ constants of every player.
+     * @return The number of players that reached the exit in this tick.
+     */
+    public int tick(byte[] inputs){
+        tickCount ++;
+        if(lanes == 1){
+            return tick(inputs, 0, 0, count);
+        }
+        // Every lane simulates a contiguous range of the players
+        return IntStream.range(0, lanes).parallel()
+                .map(lane -> tick(inputs, lane, (int) ((long) count * lane / lanes),
+                        (int) ((long) count * (lane + 1) / lanes)))
+                .sum();
+    }
+
+    /**
+     * Advances a range of the players by one tick.
+     * @param inputs Bitmask of the Simulation.INPUT_ constants of every player.
+     * @param lane The lane whose grids and buffers are used.
+     * @param from Index of the first player.
+     * @param to Index after the last player.
+     * @return The number of players that reached the exit in this tick.
+     */
+    private int tick(byte[] inputs, int lane, int from, int to){
+        // First pass: the horizontal movement, it only has arithmetic and table lookups
+        for(int i = from; i < to; i ++){
+            previousX[i] = x[i];
+            previousY[i] = y[i];
+            nextX[i] = x[i] + moveX[inputs[i] & (INPUT_COUNT - 1)] * velocityX;
+        }
+        // Second pass: the vertical movement and the collisions, in the same order as Simulation.tick
+        CollisionGrid obstacleGrid = obstacleGrids[lane];
+        CollisionGrid spikeGrid = spikeGrids[lane];
+        int[] buffer = candidates[lane];
+        int finished = 0;
+        for(int i = from; i < to; i ++){
+            if(finishTick[i] >= 0){
+                // A finished player does not move, the first pass is undone
+                nextX[i] = x[i];
+                continue;
+            }
+            int input = inputs[i];
+            updateY(i, isJumpPressed[input & (INPUT_COUNT - 1)], obstacleGrid, buffer);
+            move(i, obstacleGrid, buffer);
+            if(isInSpike(x[i], y[i], spikeGrid, buffer)){
+                deathNumber[i] ++;
+                respawn(i);
+            }
+            if((input & Simulation.INPUT_RESTART) != 0){
+                deathNumber[i] ++;
+                respawn(i);
+            }
+            // Button and door, as in Map.pressButton and Map.doorCheck
+            if(buttonLeft < x[i] && x[i] < buttonRight && buttonBottom <= y[i] && y[i] < buttonTop){
+                if(!isButtonPressing[i]){
+                    buttonPressNum[i] ++;
+                }
+                isButtonPressing[i] = true;
+            }
+            else{
+                isButtonPressing[i] = false;
+            }
+            boolean isDoorOpen = buttonPressNum[i] >= buttonPresses;
+            if(isDoorOpen && isDoorVisible[doorStep[i]] && doorStep[i] < doorTop.length - 1){
+                doorStep[i] ++;
+            }
+            if(exitLeft < x[i] && x[i] < exitRight && exitBottom <= y[i] && y[i] < exitTop){
+                finishTick[i] = tickCount;
+                finished ++;
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Finds the next y coordinate of a player, as in Map.updateYCoordinate.
+     * @param i Index of the player.
+     * @param isJumping Indicates whether the player jumps, by the jump key or by itself.
+     * @param grid Obstacle grid of the lane.
+     * @param buffer Query buffer of the lane.
+     */
+    private void updateY(int i, boolean isJumping, CollisionGrid grid, int[] buffer){
+        if(isJumping && isOnSurface(x[i], y[i], true, grid, buffer) && velocityY[i] <= 0){
+            velocityY[i] = jumpVelocity;
+        }
+        // The gravity stops on the ground where it points downwards and at the ceiling where it points upwards
+        float factor = gravityField.getFactor(nextX[i], y[i]);
+        if(factor > 0){
+            if(!isOnSurface(nextX[i], y[i] + velocityY[i], true, grid, buffer)){
+                velocityY[i] += factor * gravity;
+            }
+        }
+        else if(factor < 0){
+            if(!isOnSurface(nextX[i], y[i] + velocityY[i], false, grid, buffer)){
+                velocityY[i] += factor * gravity;
+            }
+        }
+        nextY[i] = y[i] + velocityY[i];
+    }
+
+    /**
+     * Checks if a point is on the top or under the bottom of an obstacle, the door is not a surface.
+     * @param px The x coordinate of the player.
+     * @param py The y coordinate of the player.
+     * @param isGround true to check the tops of the obstacles, false to check their bottoms.
+     * @param grid Obstacle grid of the lane.
+     * @param buffer Query buffer of the lane.
+     * @return true if the player touches a surface.
+     */
+    private boolean isOnSurface(double px, double py, boolean isGround, CollisionGrid grid, int[] buffer){
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] surface = isGround ? solids.getTop() : solids.getBottom();
+        int found = grid.query(px, py, px, py, buffer);
+        for(int k = 0; k < found; k ++){
+            int r = buffer[k];
+            if(r != doorIndex && left[r] < px && px < right[r] && py == surface[r]){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a player towards its next coordinates with the swept collisions of Map.movePlayer, the collisions are
+     * found by the same Map.entryTime. The door is tested with the bounds of the player's own door.
+     * @param i Index of the player.
+     * @param grid Obstacle grid of the lane.
+     * @param buffer Query buffer of the lane.
+     */
+    private void move(int i, CollisionGrid grid, int[] buffer){
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] bottom = solids.getBottom();
+        double[] top = solids.getTop();
+        int step = doorStep[i];
+        double px = x[i];
+        double py = y[i];
+        double dx = nextX[i] - px;
+        double dy = nextY[i] - py;
+        for(int s = 0; s < Map.MAX_COLLISION_STEPS && (dx != 0 || dy != 0); s ++){
+            int hit = -1;
+            double collisionTime = 1;
+            int found = grid.query(Math.min(px, px + dx), Math.min(py, py + dy),
+                    Math.max(px, px + dx), Math.max(py, py + dy), buffer);
+            for(int k = 0; k < found; k ++){
+                int r = buffer[k];
+                double rBottom = bottom[r];
+                double rTop = top[r];
+                if(r == doorIndex){
+                    if(!isDoorVisible[step]){
+                        continue;
+                    }
+                    rBottom = doorBottom[step];
+                    rTop = doorTop[step];
+                }
+                double entry = Map.entryTime(left[r], right[r], rBottom, rTop, px, py, dx, dy);
+                if(entry < collisionTime){
+                    hit = r;
+                    collisionTime = entry;
+                }
+            }
+            if(hit < 0){
+                px += dx;
+                py += dy;
+                break;
+            }
+            double hitBottom = hit == doorIndex ? doorBottom[step] : bottom[hit];
+            double hitTop = hit == doorIndex ? doorTop[step] : top[hit];
+            if(Map.isVerticalEntry(left[hit], right[hit], hitBottom, hitTop, px, py, dx, dy)){
+                px += dx * collisionTime;
+                py = dy > 0 ? hitBottom : hitTop;
+                dx *= 1 - collisionTime;
+                dy = 0;
+                velocityY[i] = 0;
+            }
+            else{
+                px = dx > 0 ? left[hit] : right[hit];
+                py += dy * collisionTime;
+                dx = 0;
+                dy *= 1 - collisionTime;
+            }
+        }
+        x[i] = px;
+        y[i] = py;
+        nextX[i] = px;
+        nextY[i] = py;
+    }
+
+    /**
+     * Checks if a point is inside a spike area.
+     * @param px The x coordinate of the player.
+     * @param py The y coordinate of the player.
+     * @param grid Spike grid of the lane.
+     * @param buffer Query buffer of the lane.
+     * @return true if the player hits a spike.
+     */
+    private boolean isInSpike(double px, double py, CollisionGrid grid, int[] buffer){
+        double[] left = spikes.getLeft();
+        double[] right = spikes.getRight();
+        double[] bottom = spikes.getBottom();
+        double[] top = spikes.getTop();
+        int found = grid.query(px, py, px, py, buffer);
+        for(int k = 0; k < found; k ++){
+            int r = buffer[k];
+            if(left[r] < px && px < right[r] && bottom[r] < py && py < top[r]){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Respawns a player at the spawn point with a closed door, as in Map.respawnPlayer.
+     * @param i Index of the player.
+     */
+    private void respawn(int i){
+        x[i] = spawn[0];
+        y[i] = spawn[1];
+        nextX[i] = x[i];
+        nextY[i] = y[i];
+        previousX[i] = x[i];
+        previousY[i] = y[i];
+        velocityY[i] = 0;
+        buttonPressNum[i] = 0;
+        doorStep[i] = 0;
+    }
+
+    /**
+     * Returns the stage of the batch.
+     * @return The stage that the players play.
+     */
+    public Stage getStage(){
+        return stage;
+    }
+
+    /**
+     * Returns the number of players.
+     * @return The number of players.
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Returns the number of ticks simulated.
+     * @return The tick count.
+     */
+    public int getTickCount(){
+        return tickCount;
+    }
+
+    /**
+     * Returns the x coordinates of the players. The array is the state of the batch, so it must not be modified.
+     * @return The x coordinate of every player.
+     */
+    public double[] getX(){
+        return x;
+    }
+
+    /**
+     * Returns the y coordinates of the players. The array is the state of the batch, so it must not be modified.
+     * @return The y coordinate of every player.
+     */
+    public double[] getY(){
+        return y;
+    }
+
+    /**
+     * Returns the velocities of the players in y direction. The array must not be modified.
+     * @return The y velocity of every player.
+     */
+    public double[] getVelocityY(){
+        return velocityY;
+    }
+
+    /**
+     * Returns the x coordinates of the players before the last tick, used to interpolate them.
+     * @return The previous x coordinate of every player.
+     */
+    public double[] getPreviousX(){
+        return previousX;
+    }
+
+    /**
+     * Returns the y coordinates of the players before the last tick, used to interpolate them.
+     * @return The previous y coordinate of every player.
+     */
+    public double[] getPreviousY(){
+        return previousY;
+    }
+
+    /**
+     * Returns the button presses of the players since they spawned. The array must not be modified.
+     * @return The number of button presses of every player.
+     */
+    public int[] getButtonPressNum(){
+        return buttonPressNum;
+    }
+
+    /**
+     * Returns the death numbers of the players. The array must not be modified.
+     * @return The number of spike hits and restarts of every player.
+     */
+    public int[] getDeathNumber(){
+        return deathNumber;
+    }
+
+    /**
+     * Returns the ticks that the players reached the exit in. The array must not be modified.
+     * @return The finishing tick of every player, -1 for the players that did not finish.
+     */
+    public int[] getFinishTick(){
+        return finishTick;
+    }
+}
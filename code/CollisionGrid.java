@@ -0,0 +1,147 @@
+/**
+ * CollisionGrid is a static uniform grid that indexes rectangles by the cells they overlap.
+ * It is built once for a map, after that a query only looks at the rectangles in the cells that overlap
+ * the queried area instead of scanning every rectangle of the map.
+ * The rectangles are taken from a LevelGeometry, whose bounds are already enlarged by the half size of the player,
+ * so a collision of the player with a rectangle becomes a query of the player's center point.
+ */
+public class CollisionGrid {
+
+    // Size of a square cell
+    private double cellSize;
+    // Coordinates of the left-down corner of the grid
+    private double originX;
+    private double originY;
+    // Number of cells in x and y directions
+    private int columns;
+    private int rows;
+    // Rectangles in a cell c are stored in cellItems[cellStart[c]] ... cellItems[cellStart[c + 1] - 1]
+    private int[] cellStart;
+    private int[] cellItems;
+    // A rectangle may be in more than one cell, visitStamp prevents it from being reported twice in a query
+    private int[] visitStamp;
+    private int stamp = 0;
+
+    /**
+     * Constructor of the class. Builds the grid.
+     * @param geometry Compiled rectangles. The index of a rectangle in the geometry is the value that is
+     *                 reported by the queries.
+     * @param cellSize Size of a cell of the grid.
+     */
+    public CollisionGrid(LevelGeometry geometry, double cellSize){
+        this.cellSize = cellSize;
+        int count = geometry.getCount();
+        double[] left = geometry.getLeft();
+        double[] right = geometry.getRight();
+        double[] bottom = geometry.getBottom();
+        double[] top = geometry.getTop();
+        this.visitStamp = new int[count];
+
+        // The grid covers the bounds of all rectangles
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i ++){
+            minX = Math.min(minX, left[i]);
+            minY = Math.min(minY, bottom[i]);
+            maxX = Math.max(maxX, right[i]);
+            maxY = Math.max(maxY, top[i]);
+        }
+        if(count == 0){
+            minX = minY = maxX = maxY = 0;
+        }
+        this.originX = minX;
+        this.originY = minY;
+        this.columns = (int) ((maxX - minX) / cellSize) + 1;
+        this.rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        // First pass counts the rectangles in every cell, second pass fills the cells
+        int[] counts = new int[columns * rows + 1];
+        for(int i = 0; i < count; i ++){
+            for(int row = row(bottom[i]); row <= row(top[i]); row ++){
+                for(int column = column(left[i]); column <= column(right[i]); column ++){
+                    counts[row * columns + column] ++;
+                }
+            }
+        }
+        cellStart = new int[columns * rows + 1];
+        for(int cell = 0; cell < columns * rows; cell ++){
+            cellStart[cell + 1] = cellStart[cell] + counts[cell];
+        }
+        cellItems = new int[cellStart[columns * rows]];
+        int[] filled = new int[columns * rows];
+        for(int i = 0; i < count; i ++){
+            for(int row = row(bottom[i]); row <= row(top[i]); row ++){
+                for(int column = column(left[i]); column <= column(right[i]); column ++){
+                    int cell = row * columns + column;
+                    cellItems[cellStart[cell] + filled[cell]] = i;
+                    filled[cell] ++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the column of the cell that contains the given x coordinate, clamped to the grid.
+     * @param x The x coordinate.
+     * @return The column index.
+     */
+    private int column(double x){
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - originX) / cellSize)));
+    }
+
+    /**
+     * Finds the row of the cell that contains the given y coordinate, clamped to the grid.
+     * @param y The y coordinate.
+     * @return The row index.
+     */
+    private int row(double y){
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) / cellSize)));
+    }
+
+    /**
+     * Finds the rectangles whose cells overlap the given area. The caller must still test the rectangles,
+     * since a rectangle can share a cell with the area without touching it.
+     * @param minX Left boundary of the area.
+     * @param minY Lower boundary of the area.
+     * @param maxX Right boundary of the area.
+     * @param maxY Upper boundary of the area.
+     * @param result Array that the indices of the rectangles are written to, in increasing order.
+     *               It must be able to hold every rectangle of the grid.
+     * @return The number of rectangles written to result.
+     */
+    public int query(double minX, double minY, double maxX, double maxY, int[] result){
+        // Areas completely outside of the grid cannot overlap any rectangle
+        if(maxX < originX || maxY < originY ||
+           minX > originX + columns * cellSize || minY > originY + rows * cellSize){
+            return 0;
+        }
+        stamp ++;
+        int count = 0;
+        int column1 = column(minX);
+        int column2 = column(maxX);
+        int row1 = row(minY);
+        int row2 = row(maxY);
+        for(int row = row1; row <= row2; row ++){
+            for(int column = column1; column <= column2; column ++){
+                int cell = row * columns + column;
+                for(int k = cellStart[cell]; k < cellStart[cell + 1]; k ++){
+                    int item = cellItems[k];
+                    if(visitStamp[item] != stamp){
+                        visitStamp[item] = stamp;
+                        // Insertion sort keeps the result in the order of the rectangles, there are only a few of them
+                        int position = count;
+                        while(position > 0 && result[position - 1] > item){
+                            result[position] = result[position - 1];
+                            position --;
+                        }
+                        result[position] = item;
+                        count ++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
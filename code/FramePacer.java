@@ -0,0 +1,139 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FramePacer decides when the next frame starts and how much detail the frames can afford.
+ * It measures the work of every frame and sleeps only for the rest of the frame budget. A park can overshoot by the
+ * timer slack of the system, so the thread parks only until shortly before the deadline and spins for the rest,
+ * yielding the core in every round. The spin is bounded by that short rest, so it costs little CPU time.
+ * <p>
+ * A watchdog compares the work of the frames with the budget. If most of the budget is used for a while, the
+ * detail is lowered by one level, and if the frames stay well below the budget for a longer while, it is raised
+ * again. Every level cuts work that is paid in every frame: below the full detail, the frames that would show
+ * the same picture as the last one are not drawn at all. The ticks of the simulation run on their own thread and
+ * keep their schedule at every level.
+ */
+public class FramePacer {
+
+    // Levels of detail
+    // Every frame is drawn, and the player is interpolated between its ticks
+    public static final int DETAIL_FULL = 0;
+    // The player is drawn at the position of the newest tick, so only the frames with a new tick are drawn and the
+    // others are skipped, which saves the drawing and the showing of most frames when the display is faster than
+    // the ticks
+    public static final int DETAIL_REDUCED = 1;
+    // Also, every second frame of the display is skipped, so a frame has twice the budget
+    public static final int DETAIL_MINIMAL = 2;
+
+    // The parks end this long before the deadline, and the rest of the wait is spun
+    private static final long SPIN_NANOS = 500_000L;
+    // A frame whose work takes more than this fraction of the budget is overloaded
+    private static final double OVERLOAD_FRACTION = 0.9;
+    // A frame whose work takes less than this fraction of the budget of the higher level has room
+    private static final double RECOVER_FRACTION = 0.4;
+    // Number of frames in a row that lower or raise the detail. Recovering takes longer,
+    // so the detail does not go up and down all the time
+    private static final int OVERLOAD_FRAMES = 30;
+    private static final int RECOVER_FRAMES = 180;
+
+    // Budget of a frame at the refresh rate of the display in nanoseconds
+    private long frameNanos;
+    // System.nanoTime that the next frame starts at
+    private long nextFrameTime;
+    private int detail = DETAIL_FULL;
+    // Number of the frames in a row that were overloaded, and that had room
+    private int overloadedFrames = 0;
+    private int recoveredFrames = 0;
+
+    /**
+     * Constructor of the class. The first frame starts now.
+     * @param frameNanos Budget of a frame at the refresh rate of the display in nanoseconds.
+     */
+    public FramePacer(long frameNanos){
+        this.frameNanos = frameNanos;
+        this.nextFrameTime = System.nanoTime();
+    }
+
+    /**
+     * Ends a frame that was drawn. The work of the frame is given to the watchdog, and the thread waits until the
+     * next frame. If the frame took longer than its budget, the next frame starts at once.
+     * @param frameStart System.nanoTime that the frame started at.
+     */
+    public void endFrame(long frameStart){
+        watch(System.nanoTime() - frameStart);
+        waitForNextFrame();
+    }
+
+    /**
+     * Ends a frame that was skipped without drawing. The watchdog only judges the frames that were drawn, so a
+     * skipped frame does not count as a frame with room, and the thread waits until the next frame.
+     */
+    public void skipFrame(){
+        waitForNextFrame();
+    }
+
+    /**
+     * Waits until the next frame starts.
+     */
+    private void waitForNextFrame(){
+        long now = System.nanoTime();
+        nextFrameTime += getFrameNanos();
+        if(nextFrameTime <= now){
+            // The late frame is not made up for, the next frame has its whole budget
+            nextFrameTime = now;
+            return;
+        }
+        // parkNanos can return early, so it is called again until the spinning part of the wait is reached
+        long remaining;
+        while((remaining = nextFrameTime - System.nanoTime()) > SPIN_NANOS){
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        // The spin lasts at most SPIN_NANOS, and yielding lets the tick thread run on the core in the meantime
+        while(nextFrameTime - System.nanoTime() > 0){
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Lowers or raises the detail according to the work of the last frames.
+     * @param workNanos The work of the frame in nanoseconds, without the waiting.
+     */
+    private void watch(long workNanos){
+        if(workNanos > getFrameNanos() * OVERLOAD_FRACTION){
+            overloadedFrames ++;
+            recoveredFrames = 0;
+        }
+        // The work has to fit into the budget of the higher level, which is smaller at the minimal detail
+        else if(workNanos < frameNanos * RECOVER_FRACTION){
+            recoveredFrames ++;
+            overloadedFrames = 0;
+        }
+        else{
+            overloadedFrames = 0;
+            recoveredFrames = 0;
+        }
+        if(overloadedFrames >= OVERLOAD_FRAMES && detail < DETAIL_MINIMAL){
+            detail ++;
+            overloadedFrames = 0;
+        }
+        else if(recoveredFrames >= RECOVER_FRAMES && detail > DETAIL_FULL){
+            detail --;
+            recoveredFrames = 0;
+        }
+    }
+
+    /**
+     * Returns the budget of a frame at the current detail.
+     * @return The budget in nanoseconds.
+     */
+    public long getFrameNanos(){
+        return detail == DETAIL_MINIMAL ? 2 * frameNanos : frameNanos;
+    }
+
+    /**
+     * Returns the current level of detail.
+     * @return One of the DETAIL_ constants.
+     */
+    public int getDetail(){
+        return detail;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * FrameSnapshot is a copy of everything that a frame draws from the state of a run: the player, the door, the
+ * button and the values of the time counter area. The simulation thread of the game fills a snapshot after every
+ * tick and publishes it through a TripleBuffer, and the render thread draws the newest one, so drawing never reads
+ * the state that the simulation is changing. The snapshots are reused, filling one does not allocate memory.
+ * The map of a snapshot is only used for the parts of the map that never change.
+ */
+public class FrameSnapshot {
+
+    // Event bit that is set in the snapshot after the last tick of a replay, next to the Simulation.EVENT_ bits
+    public static final int EVENT_REPLAY_OVER = 32;
+
+    // Number of the snapshot, every published snapshot has a larger number than the previous one
+    private long sequence;
+    // System.nanoTime that the tick of the snapshot stands for, and the real time of a tick in nanoseconds
+    private long time;
+    private double tickNanos;
+    // Bitmask of the Simulation.EVENT_ constants of the tick, and EVENT_REPLAY_OVER
+    private int events;
+    // The map that is drawn, and the map that the simulation continues on after the tick
+    private Map map;
+    private Map nextMap;
+    // The player
+    private double x;
+    private double y;
+    private double previousX;
+    private double previousY;
+    private char facingDirection;
+    // The door and the button
+    private int doorTop;
+    private boolean isButtonPressing;
+    // The time counter area
+    private long timerTicks;
+    private int deathNumber;
+    private int timeScaleIndex;
+
+    /**
+     * Copies the state of a map and its run into the snapshot.
+     * @param sequence Number of the snapshot.
+     * @param time System.nanoTime that the tick stands for.
+     * @param tickNanos Real time of a tick in nanoseconds at the current time scale.
+     * @param events Bitmask of the events of the tick.
+     * @param map The map that is drawn, the map that the tick started on.
+     * @param simulation The simulation of the run.
+     * @param timeScaleIndex Index of the time scale of the game.
+     */
+    public void capture(long sequence, long time, double tickNanos, int events, Map map, Simulation simulation,
+                        int timeScaleIndex){
+        this.sequence = sequence;
+        this.time = time;
+        this.tickNanos = tickNanos;
+        this.events = events;
+        this.map = map;
+        this.nextMap = simulation.getMap();
+        Player player = map.getPlayer();
+        x = player.getX();
+        y = player.getY();
+        previousX = player.getInterpolatedX(0);
+        previousY = player.getInterpolatedY(0);
+        facingDirection = player.getFacingDirection();
+        doorTop = map.getDoorTop();
+        isButtonPressing = map.getIsButtonPressing();
+        timerTicks = simulation.getTimerTicks();
+        deathNumber = simulation.getDeathNumber();
+        this.timeScaleIndex = timeScaleIndex;
+    }
+
+    /**
+     * Draws the map of the snapshot.
+     * @param alpha The fraction of the next tick that has passed, used to interpolate the player.
+     */
+    public void drawMap(double alpha){
+        map.draw(previousX + (x - previousX) * alpha, previousY + (y - previousY) * alpha, facingDirection, doorTop,
+                isButtonPressing);
+    }
+
+    /**
+     * Finds the fraction of the next tick that has passed.
+     * @param now The current System.nanoTime.
+     * @return A value from 0 to 1, 1 if the next tick is late.
+     */
+    public double getAlpha(long now){
+        return Math.max(0, Math.min(1, (now - time) / tickNanos));
+    }
+
+    /**
+     * Returns the number of the snapshot.
+     * @return The number, larger than the number of every snapshot published before it.
+     */
+    public long getSequence(){
+        return sequence;
+    }
+
+    /**
+     * Returns the events of the tick of the snapshot.
+     * @return Bitmask of the Simulation.EVENT_ constants and EVENT_REPLAY_OVER.
+     */
+    public int getEvents(){
+        return events;
+    }
+
+    /**
+     * Returns the map that the snapshot draws.
+     * @return The map that the tick started on.
+     */
+    public Map getMap(){
+        return map;
+    }
+
+    /**
+     * Returns the map that the simulation continues on after the tick.
+     * @return The map of the next tick, another map than getMap() if the stage changed.
+     */
+    public Map getNextMap(){
+        return nextMap;
+    }
+
+    /**
+     * Returns the time of the run when the snapshot was taken.
+     * @return The number of ticks that the timer counted.
+     */
+    public long getTimerTicks(){
+        return timerTicks;
+    }
+
+    /**
+     * Returns the number of deaths when the snapshot was taken.
+     * @return The number of deaths of the run.
+     */
+    public int getDeathNumber(){
+        return deathNumber;
+    }
+
+    /**
+     * Returns the time scale when the snapshot was taken.
+     * @return Index of the time scale of the game.
+     */
+    public int getTimeScaleIndex(){
+        return timeScaleIndex;
+    }
+}
@@ -0,0 +1,272 @@
+import com.sun.management.ThreadMXBean;
+import java.awt.*;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * FrameStats measures where the time of a frame goes. The game loop marks the end of every phase of a frame
+ * (reading the input, the ticks, drawing the time counter area, drawing the map and showing the frame), and the
+ * duration of the phase is added to a histogram of the phase. The allocated bytes and the collision candidates of
+ * every tick are also kept in histograms. The histograms have a fixed size, so recording never allocates memory.
+ * The ticks and the input are recorded by the simulation thread of the game and the other phases by its render
+ * thread, every histogram is only written by one of them.
+ * <p>
+ * The statistics are disabled until the overlay is opened with F3 or the program is started with
+ * -DframeStats=file. While disabled, every mark only checks a flag. Once they are enabled, the histograms are
+ * written to a file when the program exits, frame-stats.txt by default.
+ */
+public class FrameStats {
+
+    // Phases of a frame
+    public static final int PHASE_INPUT = 0;
+    public static final int PHASE_TICK = 1;
+    public static final int PHASE_HUD = 2;
+    public static final int PHASE_MAP = 3;
+    public static final int PHASE_SHOW = 4;
+    // The whole frame without waiting for the next frame
+    public static final int PHASE_FRAME = 5;
+    private static final String[] PHASE_NAMES = {"input", "tick", "hud", "map", "show", "frame"};
+    // File that the statistics are written to if the property does not name one
+    private static final String DEFAULT_DUMP_FILE = "frame-stats.txt";
+    // The texts of the overlay are rebuilt at most this often, so the overlay does not measure itself
+    private static final long OVERLAY_REFRESH_NANOS = 250_000_000L;
+    private static final Font OVERLAY_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 170);
+    private static final Color OVERLAY_TEXT = new Color(120, 255, 120);
+
+    /**
+     * A histogram of non-negative values with a fixed number of buckets. Values below 16 have their own buckets,
+     * larger values are grouped into 16 buckets for every power of two, so a percentile is within 1/16 of the
+     * real value.
+     */
+    private static class Histogram {
+        private static final int SUB_BUCKETS = 16;
+        private long[] counts = new long[SUB_BUCKETS * 61];
+        private long count;
+        private long sum;
+        private long max;
+
+        private void record(long value){
+            value = Math.max(0, value);
+            counts[index(value)] ++;
+            count ++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        private static int index(long value){
+            if(value < SUB_BUCKETS){
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 3) * SUB_BUCKETS + (int) ((value >>> (exponent - 4)) & (SUB_BUCKETS - 1));
+        }
+
+        // The smallest value of a bucket
+        private static long lowest(int index){
+            if(index < SUB_BUCKETS){
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + 3;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 4);
+        }
+
+        private long percentile(double percent){
+            if(count == 0){
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percent / 100);
+            long seen = 0;
+            for(int i = 0; i < counts.length; i ++){
+                seen += counts[i];
+                if(seen >= Math.max(1, rank)){
+                    return Math.min(lowest(i), max);
+                }
+            }
+            return max;
+        }
+
+        private double mean(){
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+
+    private Histogram[] phases = new Histogram[PHASE_NAMES.length];
+    private Histogram tickBytes = new Histogram();
+    private Histogram tickCandidates = new Histogram();
+    // Read by both the simulation and the render thread of the game
+    private volatile boolean isEnabled = false;
+    private volatile boolean isOverlayVisible = false;
+    private String dumpFile;
+    private boolean isDumpScheduled = false;
+    // Bean that reports the memory allocated by the game thread, null if the JVM does not support it
+    private ThreadMXBean threads;
+    // Values before the current tick
+    private long tickStart;
+    private long tickStartBytes;
+    private long tickStartCandidates;
+    // Texts of the overlay and the time they were built at
+    private String[] overlayLines = new String[0];
+    private long overlayTime;
+
+    /**
+     * Constructor of the class. The statistics are enabled at once if the frameStats property names a file.
+     */
+    public FrameStats(){
+        for(int i = 0; i < phases.length; i ++){
+            phases[i] = new Histogram();
+        }
+        dumpFile = System.getProperty("frameStats");
+        if(dumpFile != null){
+            setEnabled(true);
+        }
+        else{
+            dumpFile = DEFAULT_DUMP_FILE;
+        }
+    }
+
+    /**
+     * Enables or disables the recording. The first time the statistics are enabled, the program is set to
+     * write them to the dump file when it exits.
+     * @param isEnabled true to record the phases.
+     */
+    public void setEnabled(boolean isEnabled){
+        this.isEnabled = isEnabled;
+        if(isEnabled && threads == null){
+            ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if(bean.isThreadAllocatedMemorySupported()){
+                bean.setThreadAllocatedMemoryEnabled(true);
+                threads = bean;
+            }
+        }
+        if(isEnabled && !isDumpScheduled){
+            isDumpScheduled = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::dump));
+        }
+    }
+
+    /**
+     * Indicates whether the phases are recorded.
+     * @return true if the statistics are enabled.
+     */
+    public boolean isEnabled(){
+        return isEnabled;
+    }
+
+    /**
+     * Shows or hides the overlay. Showing the overlay enables the statistics.
+     */
+    public void toggleOverlay(){
+        isOverlayVisible = !isOverlayVisible;
+        if(isOverlayVisible){
+            setEnabled(true);
+        }
+    }
+
+    /**
+     * Records the end of a phase.
+     * @param phase One of the PHASE_ constants.
+     * @param start The time the phase started at, returned by the previous mark or System.nanoTime().
+     * @return The current time, the start of the next phase. 0 if the statistics are disabled.
+     */
+    public long mark(int phase, long start){
+        if(!isEnabled){
+            return 0;
+        }
+        long now = System.nanoTime();
+        phases[phase].record(now - start);
+        return now;
+    }
+
+    /**
+     * Marks the beginning of a tick.
+     * @param map The map that the tick starts on.
+     */
+    public void beginTick(Map map){
+        if(!isEnabled){
+            return;
+        }
+        tickStartBytes = threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+        tickStartCandidates = map.getCollisionCandidates();
+        tickStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a tick and records its duration, its allocated bytes and its collision candidates.
+     * @param map The map that the tick started on.
+     */
+    public void endTick(Map map){
+        if(!isEnabled){
+            return;
+        }
+        phases[PHASE_TICK].record(System.nanoTime() - tickStart);
+        if(threads != null){
+            tickBytes.record(threads.getCurrentThreadAllocatedBytes() - tickStartBytes);
+        }
+        tickCandidates.record(map.getCollisionCandidates() - tickStartCandidates);
+    }
+
+    /**
+     * Draws the overlay over the map if it is visible.
+     */
+    public void drawOverlay(){
+        if(!isOverlayVisible){
+            return;
+        }
+        long now = System.nanoTime();
+        if(now - overlayTime > OVERLAY_REFRESH_NANOS){
+            overlayTime = now;
+            overlayLines = lines();
+        }
+        double lineHeight = 14;
+        double height = overlayLines.length * lineHeight + 8;
+        StdDraw.setPenColor(OVERLAY_BACKGROUND);
+        StdDraw.filledRectangle(165, Screen.HEIGHT - height / 2, 165, height / 2);
+        StdDraw.setFont(OVERLAY_FONT);
+        StdDraw.setPenColor(OVERLAY_TEXT);
+        for(int i = 0; i < overlayLines.length; i ++){
+            StdDraw.textLeft(6, Screen.HEIGHT - 10 - i * lineHeight, overlayLines[i]);
+        }
+        StdDraw.setFont();
+    }
+
+    /**
+     * Builds the lines of the overlay and of the dump.
+     * @return A header line and a line for every histogram, the times are in microseconds.
+     */
+    private String[] lines(){
+        String[] lines = new String[phases.length + 3];
+        lines[0] = String.format(Locale.ROOT, "%-10s %8s %8s %8s %8s", "phase us", "p50", "p99", "max", "count");
+        for(int i = 0; i < phases.length; i ++){
+            Histogram histogram = phases[i];
+            lines[i + 1] = String.format(Locale.ROOT, "%-10s %8.1f %8.1f %8.1f %8d", PHASE_NAMES[i],
+                    histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3, histogram.max / 1e3,
+                    histogram.count);
+        }
+        lines[phases.length + 1] = String.format(Locale.ROOT, "%-10s %8d %8d %8d %8s", "tick bytes",
+                tickBytes.percentile(50), tickBytes.percentile(99), tickBytes.max,
+                threads == null ? "n/a" : String.valueOf(tickBytes.count));
+        lines[phases.length + 2] = String.format(Locale.ROOT, "%-10s %8d %8d %8d %8d", "candidates",
+                tickCandidates.percentile(50), tickCandidates.percentile(99), tickCandidates.max,
+                tickCandidates.count);
+        return lines;
+    }
+
+    /**
+     * Writes the statistics to the dump file.
+     */
+    private synchronized void dump(){
+        try(FileWriter writer = new FileWriter(dumpFile)){
+            for(String line : lines()){
+                writer.write(line + System.lineSeparator());
+            }
+            writer.write(String.format(Locale.ROOT, "mean frame %.1f us, mean tick %.1f us, mean tick bytes %.1f%n",
+                    phases[PHASE_FRAME].mean() / 1e3, phases[PHASE_TICK].mean() / 1e3, tickBytes.mean()));
+        }
+        catch(IOException e){
+            System.err.println("The frame statistics could not be written to " + dumpFile + ": " + e.getMessage());
+        }
+    }
+}
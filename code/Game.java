@@ -1,6 +1,6 @@
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Handles the interactions with the user.
@@ -10,296 +10,621 @@ import java.util.ArrayList;
 
 public class Game {
 
-    // stageIndex indicates the current stage of the game
-    private int stageIndex = 0;
-    // An ArrayList that stores all stages
-    private ArrayList<Stage> stages;
-    // deathNumber tracks the total number of spike hits and restarts
-    private int deathNumber = 0;
-    // Elapsed time in the game
-    private double gameTime;
-    // Determines the duration between two frames, values lower than 40 caused screen flickering on my PC
-    private int pauseDuration = 42;
+    // Number of physics ticks per second by default. The velocities and the gravity values of the stages
+    // are given per tick, and they were tuned when the game advanced one tick in roughly 42 ms
+    public static final double DEFAULT_TICK_RATE = 24;
+    // The most ticks that can be simulated before a frame is drawn. If the game falls behind more than that,
+    // the rest of the delay is dropped instead of freezing the screen while catching up
+    private static final int MAX_TICKS_PER_FRAME = 5;
+    // A frame that takes longer than this (for example while the window is moved) is treated as this long
+    private static final long MAX_FRAME_NANOS = 250_000_000L;
+    // Refresh rate used when the refresh rate of the display is unknown
+    private static final int DEFAULT_REFRESH_RATE = 60;
+    // Time scales that the player can choose for practicing, from slow motion to fast forward
+    private static final double[] TIME_SCALES = {0.25, 0.5, 1, 2, 4};
+    // Index of the normal speed in TIME_SCALES
+    private static final int NORMAL_TIME_SCALE_INDEX = 2;
+    // Texts of the time scales shown in the time counter area, null for the normal speed
+    private static final String[] SPEED_TEXTS = new String[TIME_SCALES.length];
+    static{
+        for(int i = 0; i < TIME_SCALES.length; i ++){
+            SPEED_TEXTS[i] = i == NORMAL_TIME_SCALE_INDEX ? null : "Speed: x" + TIME_SCALES[i];
+        }
+    }
+    // Fonts of the banners
+    private static final Font RESET_BANNER_FONT = new Font("sans serif", Font.PLAIN, 50);
+    private static final Font STAGE_BANNER_FONT = new Font("sans serif", Font.PLAIN, 30);
+    // Time that the banners and the last frame of a replay are shown for, unless the user skips them
+    private static final long BANNER_MILLIS = 2000;
+    // Time that the paused simulation thread sleeps between two reads of the input
+    private static final long PAUSED_WAIT_NANOS = 5_000_000L;
+
+    // Timings of the phases of the frames, shared by all runs so that a dump covers the whole session
+    private static final FrameStats stats = new FrameStats();
+    // History of the ticks of the stage that is played, shared by all runs since it starts again with every map
+    private static final RewindBuffer rewind = new RewindBuffer(RewindBuffer.DEFAULT_CAPACITY);
+
+    // The simulation of the run, the game loop feeds the user input to it and draws its state
+    private Simulation simulation;
+    // The time counter area, it only draws the values that changed
+    private Hud hud = new Hud();
+    // Number of physics ticks per second
+    private double tickRate = DEFAULT_TICK_RATE;
+    // Index of the current time scale in TIME_SCALES
+    private int timeScaleIndex = NORMAL_TIME_SCALE_INDEX;
+    // Movement keys that are held down, as INPUT_ bits
+    private int heldKeys = 0;
+    // Movement keys that were pressed since the last tick. A key that is pressed and released between two ticks
+    // still moves the player for one tick
+    private int pressedKeys = 0;
+    // Restart and reset clicks that are waiting for the next tick. A click is kept until a tick consumes it,
+    // so a click is not lost in a frame without any tick
+    private int pendingClicks = 0;
+    // Whether the run is a practice run, only a practice run can go back in time, since it also takes back the time
+    // of the timer and the finishing time of a scored run must not be lowered
+    private boolean isPractice = false;
+    // Whether the rewind key is held, the run goes back in time instead of advancing then
+    private boolean isRewinding = false;
     // Time dependent variables to show the time as m : s : ms
     private int milliseconds;
     private int seconds;
     private int minutes;
-    // Stores the beginning time of the game
-    private double startTime;
-    // Stores the last reset time
-    private double resetTime = 0;
-    // Indicates game reset status
-    private boolean resetGame = false;
-    // A flag to ignore constant presses to the restart button
-    private boolean isClickingRestart = false;
-    // Another flag to ignore constant presses, this time for the reset button
-    private boolean isClickingReset = false;
-    // Another flag to prevent the user from triggering the buttons by hovering the cursor
-    // while the mouse is being pressed
-    private boolean isEmptyPressing = true;
+    // Replay that the ticks of the run are recorded to, null if the run is not recorded
+    private Replay recording;
+    // Replay that the inputs of the ticks are taken from instead of the user, null if the user is playing
+    private Replay playback;
+    // Index of the next tick of the run in the replay
+    private int replayTick = 0;
+    // Banners that are shown between the stages, the ticks stop while one is shown
+    private TransitionScheduler transitions = new TransitionScheduler();
+    // Snapshots of the run that the simulation thread publishes and the render thread draws
+    private TripleBuffer<FrameSnapshot> snapshots = new TripleBuffer<>(FrameSnapshot::new);
+    // Number of the last published snapshot, only used by the simulation thread
+    private long snapshotSequence = 0;
+    // The snapshot that the render thread draws in the current frame
+    private FrameSnapshot shownSnapshot;
+    // Set by the simulation thread after a tick that needs a banner, the ticks stop until the banner ends
+    private volatile boolean isPaused = false;
+    // Set by the simulation thread when a key or a click should skip the banner that is shown
+    private volatile boolean isSkipRequested = false;
+    // Set when the run is over, both threads stop then
+    private volatile boolean isOver = false;
+    // The thread that runs the ticks, null before the game is started
+    private volatile Thread simulationThread;
+    // The exception that stopped the simulation thread, thrown again by the render thread
+    private volatile RuntimeException simulationFailure;
 
     /**
      * Constructor of the game class.
-     * @param stages An ArrayList that stores the Stage objects.
+     * @param simulation The simulation of the run that will be played.
      */
-    public Game(ArrayList<Stage> stages){
+    public Game(Simulation simulation){
 
-        this.stages = stages;
+        this.simulation = simulation;
     }
 
     /**
      * Starts and runs the game.
-     * @param map Current map object of the game.
+     * The ticks run on a simulation thread and the frames are drawn on the calling thread, so a slow frame does
+     * not delay the ticks and a slow tick does not delay the frames. After every tick the simulation thread
+     * publishes a snapshot of the run through a triple buffer, and every frame draws the newest snapshot,
+     * interpolating the player by the time that passed since its tick. Neither thread waits for the other.
+     * The banners are shown by a transition scheduler while the loop keeps running, so they can be skipped with
+     * any key or click, and the map of the next stage is prepared while the banner is shown.
+     * The method returns when the last stage is completed or when the player hits the reset button.
      */
-    public void play(Map map){
+    public void play(){
+        // The first snapshot is published before the simulation thread starts, so every frame has a snapshot
+        publish(System.nanoTime(), 1e9 / tickRate / TIME_SCALES[timeScaleIndex], 0, simulation.getMap());
+        simulationThread = new Thread(this::simulate, "simulation");
+        simulationThread.setDaemon(true);
+        simulationThread.start();
+
+        // The frames are paced to the refresh rate of the display, and their detail is lowered if they are slow
+        FramePacer pacer = new FramePacer(1_000_000_000L / refreshRate());
+        long previousTime = System.nanoTime();
+        long lastSequence = 0;
+        // Whether the screen shows the map of the newest snapshot, false before the first frame and after a banner
+        boolean isSnapshotShown = false;
         // A main while loop ensures the continuity of the game
-        // while loop breaks only when the stage is completed or the player hits reset button
-        while(true){
-            // currentTime marks the exact time that the frame is processing
-            double currentTime = System.currentTimeMillis();
-            // Time counter is calculated by subtracting the beginning time from the current time
-            // resetTime is used to go back to the time counter value at the beginning of the current stage
-            // This happens when the player restarts the current stage
-            gameTime = resetTime + currentTime - startTime;
-            // Converting raw data in milliseconds to more useful m : s : ms format
-            milliseconds = ((int) gameTime % 1000) / 10;
-            seconds = (int)(gameTime % 60000) / 1000;
-            minutes = (int) gameTime / 60000;
-
-            // Taking the user input
-            handleInput(map);
-            // Updating the coordinates of the player, performing collisions if they exist
-            map.movePlayer();
-            // Incrementing the death counter if movePlayer detects that the player hit a spike
-            if(map.getIsSpikeHit()){
-                deathNumber ++;
+        // while loop breaks only when the level is completed or the player hits reset button
+        while(!isOver){
+            long currentTime = System.nanoTime();
+            long elapsed = Math.min(currentTime - previousTime, MAX_FRAME_NANOS);
+            previousTime = currentTime;
+            if(simulationFailure != null){
+                throw new IllegalStateException("the simulation thread failed", simulationFailure);
             }
-            // Clearing the canvas
-            StdDraw.clear(StdDraw.WHITE);
-            StdDraw.setPenColor(new Color(56, 93, 172)); // Color of the area
-            StdDraw.filledRectangle(400, 60, 400, 60); // Drawing timer area
-            StdDraw.setPenColor(StdDraw.WHITE);
-            StdDraw.text(250,85,"Help");
-            StdDraw.rectangle(250,85,40,15); // Help button
-            StdDraw.text(550,85,"Restart");
-            StdDraw.rectangle(550,85,40,15); // Restart button
-            StdDraw.text(400,20,"RESET THE GAME");
-            StdDraw.rectangle(400,20,80,15); // Reset button
-            StdDraw.text(700, 75, "Deaths: " + deathNumber);//deathCounter
-            StdDraw.text(700, 50, "Stage: " + (getCurrentStage().getStageNumber() + 1));//stageNumber
-            // Using string format to show the timer in desired format
-            StdDraw.text(100, 50, String.format("%02d : %02d : %02d",minutes,seconds,milliseconds));//timerText
-            StdDraw.text(100,75, "Level: 1");
-            // If the help button is not pressed for the current stage, the clue is shown
-            if(!getCurrentStage().isHelpDisplaying()){
-                StdDraw.text(400, 85, "Clue:");
-                StdDraw.text(400, 55, getCurrentStage().getClue());//clueText
-            }
-            // If the help button is pressed for the current stage, the help message will be displayed
-            else{
-                StdDraw.text(400, 85, "Help:");
-                StdDraw.text(400, 55, getCurrentStage().getHelp());//helpText
+            // The flight recorder event of the frame is only created while a recording is running
+            GameEvents.Frame frameEvent = GameEvents.FRAME.isEnabled() ? new GameEvents.Frame() : null;
+            if(frameEvent != null){
+                frameEvent.begin();
             }
 
-            // Detecting if the player is hovering the cursor while constantly pressing the mouse
-            isEmptyClicked();
-
-            // If the player presses the restart button, and flags verify that it is a valid press,
-            // the game restarts. When restarting, death number is incremented and the player is respawned to
-            // its initial position
-            if(isRestartClicked() && !isClickingRestart && !isEmptyPressing){
-                isClickingRestart = true;
-                deathNumber ++;
-                getCurrentStage().setHelpDisplaying(false);
-                startTime = System.currentTimeMillis();
-                map.restartStage();
-            }
+            // Taking the newest snapshot, the events of a tick are handled the first time its snapshot is seen
+            FrameSnapshot snapshot = snapshots.getFront();
+            shownSnapshot = snapshot;
+            boolean isNew = snapshot.getSequence() != lastSequence;
+            int ticks = (int) (snapshot.getSequence() - lastSequence);
+            lastSequence = snapshot.getSequence();
 
-            // If the player presses the reset button, and flags verify that it is a valid press,
-            // The game resets. When resetting, a new Game object is created
-            isResetClicked();
-            if(resetGame && !isClickingReset && !isEmptyPressing){
-                stageIndex = 0;
-                for(Stage stage : stages){
-                    stage.setHelpDisplaying(false);
+            // A key or a click skips the banner that is shown
+            if(transitions.isActive()){
+                if(isSkipRequested){
+                    isSkipRequested = false;
+                    transitions.skip();
+                }
+                transitions.update(elapsed);
+                if(isOver){
+                    break;
                 }
-                map.draw();
-                // Before resetting, "RESETTING THE GAME..." banner is shown for 2 seconds
-                StdDraw.setPenColor(StdDraw.GREEN);
-                StdDraw.filledRectangle(400, 340, 400,75);
-                StdDraw.setFont(new Font("sans serif", Font.PLAIN, 50));
-                StdDraw.setPenColor(StdDraw.WHITE);
-                StdDraw.text(400,340,"RESETTING THE GAME...");
-                StdDraw.show();
-                StdDraw.pause(2000);
-                break;
             }
-
-            // If the player presses the help button, and flags verify that it is a valid press,
-            // isHelpClicked variable in stage class becomes true, and help message is displayed instead of clue
-            if(!getCurrentStage().isHelpDisplaying()){
-                if(isHelpClicked() && !isEmptyPressing){
-                    getCurrentStage().setHelpDisplaying(true);
+            else if(isNew){
+                int events = snapshot.getEvents();
+                // If the player presses the reset button, the game resets
+                // Before resetting, "RESETTING THE GAME..." banner is shown for 2 seconds,
+                // while the first stage of the new run is prepared
+                if((events & Simulation.EVENT_RESET) != 0){
+                    isSkipRequested = false;
+                    transitions.schedule(BANNER_MILLIS, true, this::drawResetBanner,
+                            snapshot.getNextMap()::warmUp, () -> isOver = true);
+                }
+                // Checking if the player reached exit
+                else if((events & Simulation.EVENT_STAGE_PASSED) != 0){
+                    // If the last stage is completed, while loop breaks and the end game screen appears
+                    if((events & Simulation.EVENT_FINISHED) != 0){
+                        updateTimer(snapshot.getTimerTicks());
+                        drawFrame(snapshot, 1);
+                        break;
+                    }
+                    // Before moving into the next stage, "You passed the stage But is the level over?!" banner
+                    // is displayed for two seconds, while the map of the next stage is prepared
+                    isSkipRequested = false;
+                    transitions.schedule(BANNER_MILLIS, true, this::drawStageBanner,
+                            snapshot.getNextMap()::warmUp, this::endStageBanner);
+                }
+                // When the replay is over, its last tick stays on the screen for a moment
+                else if((events & FrameSnapshot.EVENT_REPLAY_OVER) != 0){
+                    isSkipRequested = false;
+                    transitions.schedule(BANNER_MILLIS, true, () -> drawFrame(shownSnapshot, 1), null,
+                            () -> isOver = true);
                 }
             }
+            updateTimer(snapshot.getTimerTicks());
 
-            // Calling the draw method from Map class, drawing the components of the map
-            map.draw();
-
-            // Checking if the player reached exit by calling changeState method from map
-            if(map.changeStage()){
-                // If the player reaches exit,
-                // resetTime will be incremented by the time spent for the completed stage
-                resetTime += System.currentTimeMillis() - startTime;
-                // stageIndex will be incremented
-                stageIndex ++;
-                // Before moving into the next stage, "You passed the stage But is the level over?!" banner
-                // is displayed for two seconds
-                isEmptyPressing = true;
-                if(stageIndex < stages.size()){
-                    StdDraw.setPenColor(StdDraw.GREEN);
-                    StdDraw.filledRectangle(400, 275, 400,75);
-                    StdDraw.setFont(new Font("sans serif", Font.PLAIN, 30));
-                    StdDraw.setPenColor(StdDraw.WHITE);
-                    StdDraw.text(400,300,"You passed the stage");
-                    StdDraw.text(400,250,"But is the level over?!");
-                    StdDraw.show();
-                    StdDraw.pause(2000);
-                }
-                // While loop breaks, and the code continues from the next stage with a new map object
-                break;
+            // Below the full detail, the player is not interpolated, so a frame without a new tick would show the
+            // same picture as the last one, and it is neither drawn nor shown
+            boolean isInterpolated = pacer.getDetail() == FramePacer.DETAIL_FULL;
+            if(!isInterpolated && !isNew && isSnapshotShown && !transitions.isActive()){
+                pacer.skipFrame();
+                continue;
+            }
+
+            // Drawing the time counter area and the components of the map,
+            // the player is interpolated by the time that passed since the tick of the snapshot
+            if(transitions.isActive()){
+                transitions.draw();
+                isSnapshotShown = false;
+            }
+            else{
+                drawFrame(snapshot, isInterpolated ? snapshot.getAlpha(System.nanoTime()) : 1);
+                isSnapshotShown = true;
             }
-            // Making the animation by showing the contents of the canvas and then pausing for a certain time
+            stats.drawOverlay();
+            long showStart = stats.isEnabled() ? System.nanoTime() : 0;
             StdDraw.show();
-            StdDraw.pause(pauseDuration);
+            stats.mark(FrameStats.PHASE_SHOW, showStart);
+            stats.mark(FrameStats.PHASE_FRAME, currentTime);
+            if(frameEvent != null){
+                frameEvent.end();
+                frameEvent.ticks = ticks;
+                frameEvent.stage = snapshot.getMap().getStage().getStageNumber() + 1;
+                frameEvent.detail = pacer.getDetail();
+                frameEvent.commit();
+            }
+
+            // Waiting for the rest of the budget of the frame
+            pacer.endFrame(currentTime);
         }
+        stop();
     }
 
     /**
-     * Handles player input and interactions (keyboard and mouse).
-     * @param map The Map object of the game.
+     * Ends the run and waits until the simulation thread has stopped after its current tick, so the recorded
+     * replay holds whole ticks and can be read by the calling thread afterwards. The frames stop at the next frame.
+     * Can be called from any thread, also more than once.
      */
-    private void handleInput(Map map){
-        // If left key is pressed, a "left-facing elephant" will be displayed
-        if(StdDraw.isKeyPressed(KeyEvent.VK_LEFT)){
-            map.getPlayer().setFacingDirection('L');
-            // If the player is currently at stage 2 ("not always straight forward"), it will move right
-            // instead of moving left
-            if(KeyEvent.VK_LEFT == map.getStage().getKeyCodes()[0]){
-                map.updateXCoordinate('R');
-            }
-            else if(KeyEvent.VK_LEFT == map.getStage().getKeyCodes()[1]){
-                map.updateXCoordinate('L');
-            }
+    public void stop(){
+        isOver = true;
+        Thread thread = simulationThread;
+        if(thread == null || thread == Thread.currentThread()){
+            return;
         }
-        // In the original game, I observed that left arrow key has a priority over right arrow key
-        // which means if the player presses right and left keys simultaneously, the game ignores the right key press.
-        // So I decided to implement this mechanism to my code
-        // Right key presses are handled only if the left key is not pressed
-        // When the right key is pressed, a "right-facing elephant" will be displayed
-        else if(StdDraw.isKeyPressed(KeyEvent.VK_RIGHT)){
-            map.getPlayer().setFacingDirection('R');
-            if(KeyEvent.VK_RIGHT == map.getStage().getKeyCodes()[0]){
-                map.updateXCoordinate('R');
-            }
-            // If the player is currently at stage 2 ("not always straight forward"), it will move left
-            // instead of moving right
-            else if(KeyEvent.VK_RIGHT == map.getStage().getKeyCodes()[1]){
-                map.updateXCoordinate('L');
-            }
-        }
-        // If the up arrow key is pressed, the player will jump if it is touching the ground
-        // In stage 3 ("a bit bouncy here"), the up key is disabled since the player jumps consistently
-        if(StdDraw.isKeyPressed(map.getStage().getKeyCodes()[2])){
-            map.updateYCoordinate('U');
+        try{
+            thread.join();
         }
-        else{
-            map.updateYCoordinate('N');
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * This method checks if the player pressed the mouse when the cursor is on the reset button.
+     * Runs the ticks of the run until the run is over, on the simulation thread.
+     * Physics advances in fixed ticks using an accumulator of elapsed System.nanoTime, and the thread sleeps
+     * until the next tick is due. Every tick takes the input events that arrived before the moment of real time
+     * that the end of the tick stands for, and publishes a snapshot of the run after it.
      */
-    private void isResetClicked(){
-        if(StdDraw.isMousePressed()){
-            resetGame = 320 <= StdDraw.mouseX() && StdDraw.mouseX() <= 480 &&
-                    5 <= StdDraw.mouseY() && StdDraw.mouseY() <= 35;
+    private void simulate(){
+        try{
+            long previousTime = System.nanoTime();
+            // Game time that has passed but has not been simulated yet
+            double accumulator = 0;
+            boolean wasPaused = false;
+            while(!isOver){
+                long currentTime = System.nanoTime();
+                long elapsed = Math.min(currentTime - previousTime, MAX_FRAME_NANOS);
+                previousTime = currentTime;
+                double tickNanos = 1e9 / tickRate;
+                double timeScale = TIME_SCALES[timeScaleIndex];
+
+                // The ticks stop while a banner is shown, the keys are still followed
+                if(isPaused){
+                    if(handleInput(currentTime)){
+                        isSkipRequested = true;
+                    }
+                    wasPaused = true;
+                    LockSupport.parkNanos(PAUSED_WAIT_NANOS);
+                    continue;
+                }
+                if(wasPaused){
+                    // The presses and the clicks of the banner are dropped, and the new map is shown at once
+                    wasPaused = false;
+                    pressedKeys = 0;
+                    pendingClicks = 0;
+                    accumulator = 0;
+                    publish(currentTime, tickNanos / timeScale, 0, simulation.getMap());
+                }
+                accumulator += elapsed * timeScale;
+
+                int ticks = 0;
+                while(accumulator >= tickNanos && ticks < MAX_TICKS_PER_FRAME){
+                    long tickTime = currentTime - (long) ((accumulator - tickNanos) / timeScale);
+                    handleInput(tickTime);
+                    // While the rewind key is held in a practice run, every tick takes the run one tick back. A replay
+                    // can only be played again if every tick advances the run, so the recorded and replayed runs
+                    // never rewind
+                    if(isRewinding && isPractice && playback == null && recording == null){
+                        pressedKeys = 0;
+                        rewind.rewind(simulation, 1);
+                        accumulator -= tickNanos;
+                        ticks ++;
+                        publish(tickTime, tickNanos / timeScale, 0, simulation.getMap());
+                        continue;
+                    }
+                    int tickInput = heldKeys | pressedKeys | pendingClicks;
+                    pressedKeys = 0;
+                    pendingClicks = 0;
+                    // The map is kept before the tick, since the simulation moves to a new map when a stage is
+                    // passed, and the banner shows the last tick of the passed stage
+                    Map map = simulation.getMap();
+                    if(playback != null){
+                        // A replay ignores the keys and the buttons of the user, and ends after its last tick
+                        if(replayTick == playback.getTickCount()){
+                            isPaused = true;
+                            publish(tickTime, tickNanos / timeScale, FrameSnapshot.EVENT_REPLAY_OVER, map);
+                            break;
+                        }
+                        tickInput = playback.getInput(replayTick);
+                    }
+                    else if(recording != null){
+                        recording.record(simulation, tickInput);
+                    }
+                    replayTick ++;
+                    // The stage and the deaths before the tick are kept for the events, since a reset clears them
+                    int stageBefore = simulation.getStageIndex();
+                    int deathsBefore = simulation.getDeathNumber();
+                    stats.beginTick(map);
+                    int events = simulation.tick(tickInput);
+                    stats.endTick(map);
+                    recordEvents(events, stageBefore, deathsBefore);
+                    if(recording != null){
+                        recording.recordResult(simulation);
+                    }
+                    else if(isPractice && playback == null){
+                        rewind.capture(simulation);
+                    }
+                    accumulator -= tickNanos;
+                    ticks ++;
+                    if((events & Simulation.EVENT_RESTART) != 0){
+                        // When restarting, the help message of the stage is hidden again
+                        map.getStage().setHelpDisplaying(false);
+                    }
+                    if((events & Simulation.EVENT_RESET) != 0){
+                        for(Stage stage : simulation.getStages()){
+                            stage.setHelpDisplaying(false);
+                        }
+                    }
+                    // The ticks stop for the banner when the run resets or the stage changes,
+                    // the thread is paused before the snapshot is published so the banner can resume it
+                    if((events & (Simulation.EVENT_RESET | Simulation.EVENT_STAGE_PASSED)) != 0){
+                        isPaused = true;
+                        accumulator = 0;
+                    }
+                    publish(tickTime, tickNanos / timeScale, events, map);
+                    if(isPaused){
+                        break;
+                    }
+                }
+                // If the game could not catch up, the rest of the delay is dropped
+                if(ticks == MAX_TICKS_PER_FRAME && accumulator > tickNanos){
+                    accumulator = tickNanos;
+                }
+                // The rest of the events change the time scale and the buttons that do not need a tick
+                long inputStart = stats.isEnabled() ? System.nanoTime() : 0;
+                handleInput(currentTime);
+                stats.mark(FrameStats.PHASE_INPUT, inputStart);
+
+                // Sleeping until the next tick is due
+                if(!isPaused && accumulator < tickNanos){
+                    LockSupport.parkNanos((long) ((tickNanos - accumulator) / TIME_SCALES[timeScaleIndex]));
+                }
+            }
         }
-        else{
-            isClickingReset = false;
-            resetGame = false;
+        catch(RuntimeException e){
+            simulationFailure = e;
         }
     }
 
     /**
-     * This method checks if the player pressed the mouse when the cursor is on the restart button.
-     * @return true if the restart button is pressed, false if it is not.
+     * Publishes a snapshot of the run to the render thread. Called by the simulation thread.
+     * @param time System.nanoTime that the tick of the snapshot stands for.
+     * @param tickNanos Real time of a tick in nanoseconds at the current time scale.
+     * @param events Bitmask of the events of the tick.
+     * @param map The map that is drawn.
      */
-    private boolean isRestartClicked(){
-        if(StdDraw.isMousePressed()){
-            return 510 <= StdDraw.mouseX() && StdDraw.mouseX() <= 590 &&
-                   70 <= StdDraw.mouseY() && StdDraw.mouseY() <= 100;
+    private void publish(long time, double tickNanos, int events, Map map){
+        snapshotSequence ++;
+        snapshots.getBack().capture(snapshotSequence, time, tickNanos, events, map, simulation, timeScaleIndex);
+        snapshots.publish();
+    }
+
+    /**
+     * Emits the flight recorder events of the restarts, the resets and the stage transitions of a tick.
+     * @param events Bitmask of the Simulation.EVENT_ constants of the tick.
+     * @param stageBefore Index of the stage before the tick.
+     * @param deathsBefore Number of deaths before the tick.
+     */
+    private void recordEvents(int events, int stageBefore, int deathsBefore){
+        if((events & Simulation.EVENT_RESTART) != 0 && GameEvents.RESTART.isEnabled()){
+            GameEvents.Restart event = new GameEvents.Restart();
+            event.stage = stageBefore + 1;
+            event.deaths = simulation.getDeathNumber();
+            event.commit();
+        }
+        if((events & Simulation.EVENT_RESET) != 0 && GameEvents.RESET.isEnabled()){
+            GameEvents.Reset event = new GameEvents.Reset();
+            event.stage = stageBefore + 1;
+            event.deaths = deathsBefore;
+            event.commit();
+        }
+        if((events & Simulation.EVENT_STAGE_PASSED) != 0 && GameEvents.STAGE_TRANSITION.isEnabled()){
+            GameEvents.StageTransition event = new GameEvents.StageTransition();
+            event.fromStage = stageBefore + 1;
+            event.toStage = simulation.isFinished() ? 0 : simulation.getStageIndex() + 1;
+            event.deaths = simulation.getDeathNumber();
+            event.timerTicks = simulation.getTimerTicks();
+            event.commit();
         }
-        isClickingRestart = false;
-        return false;
     }
 
     /**
-     * This method checks if the player pressed the mouse when the cursor is on the help button
-     * @return true if the help button is pressed, false if it is not.
+     * Finds the refresh rate of the display, frames are drawn at this rate.
+     * @return The refresh rate of the default screen, or 60 if it is unknown.
      */
-    private boolean isHelpClicked(){
-        if(StdDraw.isMousePressed()){
-            return 210 <= StdDraw.mouseX() && StdDraw.mouseX() <= 290 &&
-               70 <= StdDraw.mouseY() && StdDraw.mouseY() <= 100;
+    private static int refreshRate(){
+        try{
+            int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+            if(refreshRate != DisplayMode.REFRESH_RATE_UNKNOWN){
+                return refreshRate;
             }
-        return false;
+        }
+        catch(HeadlessException e){
+            // There is no screen, the default rate is used
+        }
+        return DEFAULT_REFRESH_RATE;
     }
 
     /**
-     * This method checks if the player is hovering the cursor around screen while pressing the mouse.
-     * If the player is doing so, none of the three buttons will be activated.
+     * Converts the time counter of the simulation to the m : s : ms format.
+     * @param timerTicks Number of ticks counted by the time counter.
      */
-    private void isEmptyClicked(){
-        if(StdDraw.isMousePressed()){
-            // Checks if the cursor is on one of the three buttons. If not, isEmptyPressing flag will become true
-            if((!(320 <= StdDraw.mouseX() && StdDraw.mouseX() <= 480 &&
-                    5 <= StdDraw.mouseY() && StdDraw.mouseY() <= 35) &&
-                    !(510 <= StdDraw.mouseX() && StdDraw.mouseX() <= 590 &&
-                            70 <= StdDraw.mouseY() && StdDraw.mouseY() <= 100) &&
-                    !(210 <= StdDraw.mouseX() && StdDraw.mouseX() <= 290 &&
-                            70 <= StdDraw.mouseY() && StdDraw.mouseY() <= 100)) && !isEmptyPressing){
-                isEmptyPressing = true;
+    private void updateTimer(long timerTicks){
+        // Elapsed time in the game in milliseconds, found from the number of ticks
+        long gameTime = (long) (timerTicks * 1000 / tickRate);
+        milliseconds = (int) (gameTime % 1000) / 10;
+        seconds = (int) (gameTime % 60000) / 1000;
+        minutes = (int) (gameTime / 60000);
+    }
+
+    /**
+     * Draws the time counter area and the map of a snapshot. Drawing only reads the snapshot and the parts of the
+     * map that never change.
+     * @param snapshot The snapshot that will be drawn.
+     * @param alpha The fraction of the tick that has passed since the last tick, used to interpolate the player.
+     */
+    private void drawFrame(FrameSnapshot snapshot, double alpha){
+        // The canvas is not cleared, the time counter area and the background layer of the map cover all of it
+        long start = stats.isEnabled() ? System.nanoTime() : 0;
+        hud.update(minutes, seconds, milliseconds, snapshot.getDeathNumber(), snapshot.getMap().getStage(),
+                SPEED_TEXTS[snapshot.getTimeScaleIndex()]);
+        hud.draw();
+        start = stats.mark(FrameStats.PHASE_HUD, start);
+        // Calling the draw method from Map class, drawing the components of the map
+        snapshot.drawMap(alpha);
+        stats.mark(FrameStats.PHASE_MAP, start);
+    }
+
+    /**
+     * Draws the last frame of a run with the "RESETTING THE GAME..." banner over it.
+     */
+    private void drawResetBanner(){
+        drawFrame(shownSnapshot, 1);
+        StdDraw.setPenColor(StdDraw.GREEN);
+        StdDraw.filledRectangle(400, 340, 400,75);
+        StdDraw.setFont(RESET_BANNER_FONT);
+        StdDraw.setPenColor(StdDraw.WHITE);
+        StdDraw.text(400,340,"RESETTING THE GAME...");
+        StdDraw.setFont();
+    }
+
+    /**
+     * Draws the last frame of a stage with the "You passed the stage But is the level over?!" banner over it.
+     */
+    private void drawStageBanner(){
+        drawFrame(shownSnapshot, 1);
+        StdDraw.setPenColor(StdDraw.GREEN);
+        StdDraw.filledRectangle(400, 275, 400,75);
+        StdDraw.setFont(STAGE_BANNER_FONT);
+        StdDraw.setPenColor(StdDraw.WHITE);
+        StdDraw.text(400,300,"You passed the stage");
+        StdDraw.text(400,250,"But is the level over?!");
+        StdDraw.setFont();
+    }
+
+    /**
+     * Starts the next stage after its banner.
+     */
+    private void endStageBanner(){
+        // The simulation thread drops the clicks and the presses of the banner and continues
+        isPaused = false;
+        // The next stage starts with a new clue and stage number, the whole area is drawn again
+        hud.invalidate();
+    }
+
+    /**
+     * Handles the keyboard and mouse events that arrived until the given time, in the order they arrived.
+     * The movement keys are collected for the next tick, the other keys and the buttons take effect at once.
+     * While a banner is shown, the clicks do not trigger the buttons.
+     * @param until A System.nanoTime value, the events that arrived later are left for the next call.
+     * @return true if a key or a mouse button was pressed.
+     */
+    private boolean handleInput(long until){
+        boolean isPressed = false;
+        InputQueue.Event event;
+        while((event = InputQueue.poll(until)) != null){
+            if(event.getType() == InputQueue.KEY_PRESSED){
+                isPressed = true;
+                int key = movementInput(event.getKeyCode());
+                heldKeys |= key;
+                pressedKeys |= key;
+                // "-" slows the game down and "=" speeds it up for practicing, "0" goes back to the normal speed
+                if(event.getKeyCode() == KeyEvent.VK_MINUS){
+                    timeScaleIndex = Math.max(timeScaleIndex - 1, 0);
+                }
+                else if(event.getKeyCode() == KeyEvent.VK_EQUALS){
+                    timeScaleIndex = Math.min(timeScaleIndex + 1, TIME_SCALES.length - 1);
+                }
+                else if(event.getKeyCode() == KeyEvent.VK_0){
+                    timeScaleIndex = NORMAL_TIME_SCALE_INDEX;
+                }
+                // F3 shows or hides the overlay of the frame statistics
+                else if(event.getKeyCode() == KeyEvent.VK_F3){
+                    stats.toggleOverlay();
+                }
+                // Holding R goes back in time in a practice run, to practice a part of the stage again
+                else if(event.getKeyCode() == KeyEvent.VK_R){
+                    isRewinding = true;
+                }
+            }
+            else if(event.getType() == InputQueue.KEY_RELEASED){
+                heldKeys &= ~movementInput(event.getKeyCode());
+                if(event.getKeyCode() == KeyEvent.VK_R){
+                    isRewinding = false;
+                }
+            }
+            // A button is only triggered by a press on it, so moving the cursor onto a button
+            // while the mouse is pressed does not trigger it
+            else if(event.getType() == InputQueue.MOUSE_PRESSED){
+                isPressed = true;
+                if(!isPaused){
+                    handleClick(event.getX(), event.getY());
+                }
             }
         }
-        else{
-            isEmptyPressing = false;
+        return isPressed;
+    }
+
+    /**
+     * Finds the simulation input of a movement key.
+     * @param keyCode Key code of the key, as in KeyEvent.
+     * @return The INPUT_ bit of the key, 0 if the key does not move the player.
+     */
+    private static int movementInput(int keyCode){
+        switch(keyCode){
+            case KeyEvent.VK_LEFT:
+                return Simulation.INPUT_LEFT;
+            case KeyEvent.VK_RIGHT:
+                return Simulation.INPUT_RIGHT;
+            case KeyEvent.VK_UP:
+                return Simulation.INPUT_UP;
+            default:
+                return 0;
         }
     }
 
     /**
-     * Sets the starting time of the game.
-     * @param startTime The starting time of the game.
+     * Triggers the button under a mouse press, if there is one.
+     * @param x x coordinate of the press.
+     * @param y y coordinate of the press.
+     */
+    private void handleClick(double x, double y){
+        // The restart and reset buttons are handled by the simulation in the next tick
+        if(510 <= x && x <= 590 && 70 <= y && y <= 100){
+            pendingClicks |= Simulation.INPUT_RESTART;
+        }
+        else if(320 <= x && x <= 480 && 5 <= y && y <= 35){
+            pendingClicks |= Simulation.INPUT_RESET;
+        }
+        // The help button shows the help message of the stage instead of the clue
+        else if(210 <= x && x <= 290 && 70 <= y && y <= 100){
+            simulation.getMap().getStage().setHelpDisplaying(true);
+        }
+    }
+
+    /**
+     * Records the input of every tick of the run, so the run can be played again later.
+     * @param recording An empty replay on the level of the simulation.
+     */
+    public void setRecording(Replay recording){
+        this.recording = recording;
+    }
+
+    /**
+     * Plays a recorded run instead of taking the input from the user. The time scale keys still work,
+     * so a replay can be watched in slow motion or fast forward.
+     * @param playback A replay that was prepared for the stages of the simulation.
      */
-    public void setStartTime(double startTime){
-        this.startTime = startTime;
+    public void setPlayback(Replay playback){
+        this.playback = playback;
+        this.tickRate = playback.getTickRate();
     }
 
     /**
-     * Resturns the index of the current stage.
-     * @return The index of the current stage.
+     * Makes the run a practice run, in which holding R takes the stage back in time. The timer goes back with the
+     * stage, so the time of a practice run is not a score.
+     * @param isPractice true for a practice run.
      */
-    public int getStageIndex(){
-        return stageIndex;
+    public void setPractice(boolean isPractice){
+        this.isPractice = isPractice;
     }
 
     /**
-     * Returns the current stage object of the game.
-     * @return The stage object of the game.
+     * Sets the number of physics ticks per second.
+     * @param tickRate The new tick rate.
      */
-    public Stage getCurrentStage(){
-        return stages.get(stageIndex);
+    public void setTickRate(double tickRate){
+        this.tickRate = tickRate;
     }
 
     /**
@@ -307,7 +632,7 @@ public class Game {
      * @return The death number of the player.
      */
     public int getDeathNumber() {
-        return deathNumber;
+        return simulation.getDeathNumber();
     }
 
     /**
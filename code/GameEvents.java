@@ -0,0 +1,147 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * GameEvents holds the JDK Flight Recorder events of the game, so a recording of a run shows what happened in the
+ * game next to the garbage collections and the compilations of the JVM. A recording is started with
+ * -XX:StartFlightRecording, the events are shown under "Game" in JDK Mission Control.
+ * <p>
+ * An event is only created after its type was checked with isEnabled(), which is a single flag read,
+ * so the events cost nothing while no recording is running and a tick still does not allocate memory.
+ */
+public class GameEvents {
+
+    // Types of the events, used to check if an event is recorded before it is created
+    public static final EventType MOVE = EventType.getEventType(Move.class);
+    public static final EventType SPIKE_HIT = EventType.getEventType(SpikeHit.class);
+    public static final EventType BUTTON_PRESS = EventType.getEventType(ButtonPress.class);
+    public static final EventType EXIT_REACHED = EventType.getEventType(ExitReached.class);
+    public static final EventType FRAME = EventType.getEventType(Frame.class);
+    public static final EventType STAGE_TRANSITION = EventType.getEventType(StageTransition.class);
+    public static final EventType RESTART = EventType.getEventType(Restart.class);
+    public static final EventType RESET = EventType.getEventType(Reset.class);
+
+    // The class only holds the events
+    private GameEvents(){
+    }
+
+    @Name("game.Move")
+    @Label("Move")
+    @Category({"Game", "Physics"})
+    @Description("Movement of the player in a tick with its collision tests")
+    public static class Move extends Event {
+        @Label("Stage")
+        public int stage;
+        @Label("Start X")
+        public double fromX;
+        @Label("Start Y")
+        public double fromY;
+        @Label("End X")
+        public double toX;
+        @Label("End Y")
+        public double toY;
+        @Label("Collisions")
+        @Description("Number of obstacles that stopped the movement")
+        public int collisions;
+        @Label("Candidates")
+        @Description("Number of rectangles that the collision grids returned")
+        public long candidates;
+    }
+
+    @Name("game.SpikeHit")
+    @Label("Spike Hit")
+    @Category({"Game", "Gameplay"})
+    @Description("The player hit a spike and respawned")
+    public static class SpikeHit extends Event {
+        @Label("Stage")
+        public int stage;
+        @Label("X")
+        public double x;
+        @Label("Y")
+        public double y;
+        @Label("Velocity Y")
+        public double velocityY;
+    }
+
+    @Name("game.ButtonPress")
+    @Label("Button Press")
+    @Category({"Game", "Gameplay"})
+    @Description("The player stepped on the button")
+    public static class ButtonPress extends Event {
+        @Label("Stage")
+        public int stage;
+        @Label("Press Number")
+        public int pressNumber;
+    }
+
+    @Name("game.ExitReached")
+    @Label("Exit Reached")
+    @Category({"Game", "Gameplay"})
+    @Description("The player entered the exit pipe")
+    public static class ExitReached extends Event {
+        @Label("Stage")
+        public int stage;
+        @Label("X")
+        public double x;
+        @Label("Y")
+        public double y;
+    }
+
+    @Name("game.Frame")
+    @Label("Frame")
+    @Category({"Game", "Rendering"})
+    @Description("A frame of the game loop, from reading the input until the frame is shown")
+    public static class Frame extends Event {
+        @Label("Ticks")
+        @Description("Number of ticks simulated in the frame")
+        public int ticks;
+        @Label("Stage")
+        public int stage;
+        @Label("Detail")
+        @Description("Level of detail that the frame pacer chose, 0 is the full detail")
+        public int detail;
+    }
+
+    @Name("game.StageTransition")
+    @Label("Stage Transition")
+    @Category({"Game", "Gameplay"})
+    @Description("A stage was passed")
+    public static class StageTransition extends Event {
+        @Label("From Stage")
+        public int fromStage;
+        @Label("To Stage")
+        @Description("The next stage, 0 if the last stage was passed")
+        public int toStage;
+        @Label("Deaths")
+        public int deaths;
+        @Label("Timer Ticks")
+        public long timerTicks;
+    }
+
+    @Name("game.Restart")
+    @Label("Restart")
+    @Category({"Game", "Gameplay"})
+    @Description("The player restarted the stage")
+    public static class Restart extends Event {
+        @Label("Stage")
+        public int stage;
+        @Label("Deaths")
+        public int deaths;
+    }
+
+    @Name("game.Reset")
+    @Label("Reset")
+    @Category({"Game", "Gameplay"})
+    @Description("The player reset the run")
+    public static class Reset extends Event {
+        @Label("Stage")
+        @Description("The stage that the run was at before the reset")
+        public int stage;
+        @Label("Deaths")
+        public int deaths;
+    }
+}
@@ -0,0 +1,129 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * GlyphAtlas is an image that contains every printable ASCII character of a font in a single color.
+ * The characters are rendered once, after that a text is drawn by copying the character images next to each other,
+ * so drawing a text does not create any string and does not lay out the text again.
+ * The characters are placed with the same widths as StdDraw.text uses, so the text looks the same.
+ */
+public class GlyphAtlas {
+
+    // Space left on both sides of a character, for the parts of the character that are outside of its width
+    public static final int PADDING = 2;
+    // Characters in the atlas, other characters are drawn as '?'
+    private static final char FIRST_CHARACTER = ' ';
+    private static final char LAST_CHARACTER = '~';
+
+    // Image of the characters in the resolution of the canvas, the characters are in a single row
+    private BufferedImage image;
+    // Left boundary of every character in the image in pixels
+    private int[] cellLeft;
+    // Width of every character in game area units, the next character starts after this width
+    private int[] advance;
+    // Distances of the top and the bottom of the characters to the baseline in game area units
+    private int ascent;
+    private int descent;
+
+    /**
+     * Constructor of the class. Renders the characters.
+     * @param font Font of the characters.
+     * @param color Color of the characters.
+     */
+    public GlyphAtlas(Font font, Color color){
+        int count = LAST_CHARACTER - FIRST_CHARACTER + 1;
+        cellLeft = new int[count];
+        advance = new int[count];
+        // A small image is only created to measure the font, it is scaled the same way as the canvas of StdDraw
+        Graphics2D measure = Screen.createImage(1, 1).createGraphics();
+        measure.scale(Screen.PIXEL_SCALE, Screen.PIXEL_SCALE);
+        FontMetrics metrics = measure.getFontMetrics(font);
+        ascent = metrics.getAscent();
+        descent = metrics.getDescent();
+        int width = 0;
+        for(int i = 0; i < count; i ++){
+            advance[i] = metrics.charWidth((char) (FIRST_CHARACTER + i));
+            cellLeft[i] = width * Screen.PIXEL_SCALE;
+            width += advance[i] + 2 * PADDING;
+        }
+        measure.dispose();
+
+        image = Screen.createImage(width, ascent + descent);
+        Graphics2D graphics = image.createGraphics();
+        graphics.scale(Screen.PIXEL_SCALE, Screen.PIXEL_SCALE);
+        // Same rendering hints as the canvas of StdDraw
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.setFont(font);
+        graphics.setColor(color);
+        for(int i = 0; i < count; i ++){
+            graphics.drawString(String.valueOf((char) (FIRST_CHARACTER + i)),
+                    cellLeft[i] / Screen.PIXEL_SCALE + PADDING, ascent);
+        }
+        graphics.dispose();
+    }
+
+    /**
+     * Returns the index of a character in the atlas.
+     * @param character The character.
+     * @return Index of the character, or the index of '?' if the character is not in the atlas.
+     */
+    private int index(char character){
+        if(character < FIRST_CHARACTER || character > LAST_CHARACTER){
+            return '?' - FIRST_CHARACTER;
+        }
+        return character - FIRST_CHARACTER;
+    }
+
+    /**
+     * Returns the width of a text.
+     * @param text Characters of the text.
+     * @param length Number of characters of the text.
+     * @return The width of the text in game area units.
+     */
+    public int getWidth(char[] text, int length){
+        int width = 0;
+        for(int i = 0; i < length; i ++){
+            width += advance[index(text[i])];
+        }
+        return width;
+    }
+
+    /**
+     * Returns the distance of the top of the characters to the baseline.
+     * @return The ascent in game area units.
+     */
+    public int getAscent(){
+        return ascent;
+    }
+
+    /**
+     * Returns the distance of the bottom of the characters to the baseline.
+     * @return The descent in game area units.
+     */
+    public int getDescent(){
+        return descent;
+    }
+
+    /**
+     * Draws a text. The graphics must use pixel coordinates without any scaling, such as the graphics of an image
+     * created with Screen.createImage.
+     * @param graphics The graphics that the text is drawn to.
+     * @param text Characters of the text.
+     * @param length Number of characters of the text.
+     * @param xLeft Left boundary of the text in pixels.
+     * @param yBaseline Baseline of the text in pixels, measured from the top.
+     */
+    public void draw(Graphics2D graphics, char[] text, int length, int xLeft, int yBaseline){
+        int top = yBaseline - ascent * Screen.PIXEL_SCALE;
+        int bottom = yBaseline + descent * Screen.PIXEL_SCALE;
+        int x = xLeft - PADDING * Screen.PIXEL_SCALE;
+        for(int i = 0; i < length; i ++){
+            int index = index(text[i]);
+            int cellWidth = (advance[index] + 2 * PADDING) * Screen.PIXEL_SCALE;
+            graphics.drawImage(image, x, top, x + cellWidth, bottom,
+                    cellLeft[index], 0, cellLeft[index] + cellWidth, bottom - top, null);
+            x += advance[index] * Screen.PIXEL_SCALE;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.nio.ByteBuffer;
+
+/**
+ * GravityField is a grid of square cells over the level that gives the gravity in every cell as a multiple of the
+ * gravity of its stage. A positive factor pulls the player down and a negative factor pulls it up, 0 leaves the
+ * player floating. The grid is built from the gravityZone rectangles of a stage when the level is compiled, so zones
+ * of any shape can be made from rectangles, and finding the gravity at a point is a single array access.
+ * The physics and the drawing of the stage use the same grid, so the cells that are drawn as reversed are exactly
+ * the cells where the gravity points up.
+ * Points outside the grid get the gravity of the closest cell at the border.
+ */
+public class GravityField {
+
+    // Factor of the cells that no zone covers
+    public static final float NORMAL = 1;
+
+    // Lower left corner of the grid, the size of a cell and the number of cells
+    private int xLeft;
+    private int yBottom;
+    private int cellSize;
+    private int columns;
+    private int rows;
+    // Factors of the cells row by row from the bottom, the cell (column, row) has the index row * columns + column
+    private float[] factors;
+
+    /**
+     * Constructor of the class.
+     * @param xLeft Left boundary of the grid.
+     * @param yBottom Lower boundary of the grid.
+     * @param cellSize Width and height of a cell.
+     * @param columns Number of cells in x direction.
+     * @param rows Number of cells in y direction.
+     * @param factors Factors of the cells row by row from the bottom.
+     */
+    public GravityField(int xLeft, int yBottom, int cellSize, int columns, int rows, float[] factors){
+        if(cellSize <= 0 || columns <= 0 || rows <= 0 || factors.length != columns * rows){
+            throw new IllegalStateException("gravity field of " + columns + " x " + rows + " cells of size " +
+                    cellSize + " cannot have " + factors.length + " factors");
+        }
+        this.xLeft = xLeft;
+        this.yBottom = yBottom;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.factors = factors;
+    }
+
+    /**
+     * Builds the grid of a stage from its zones. A cell gets the factor of the last zone that contains its center,
+     * the cells that are not in a zone get the normal gravity.
+     * @param bounds Area that the grid covers in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     * @param cellSize Width and height of a cell.
+     * @param zones Rectangles of the zones in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     * @param zoneFactors Factor of every zone.
+     * @return The field.
+     */
+    public static GravityField build(int[] bounds, int cellSize, int[][] zones, double[] zoneFactors){
+        int columns = Math.max(1, (bounds[2] - bounds[0] + cellSize - 1) / cellSize);
+        int rows = Math.max(1, (bounds[3] - bounds[1] + cellSize - 1) / cellSize);
+        float[] factors = new float[columns * rows];
+        for(int row = 0; row < rows; row ++){
+            double y = bounds[1] + (row + 0.5) * cellSize;
+            for(int column = 0; column < columns; column ++){
+                double x = bounds[0] + (column + 0.5) * cellSize;
+                float factor = NORMAL;
+                for(int i = 0; i < zones.length; i ++){
+                    if(zones[i][0] <= x && x < zones[i][2] && zones[i][1] <= y && y < zones[i][3]){
+                        factor = (float) zoneFactors[i];
+                    }
+                }
+                factors[row * columns + column] = factor;
+            }
+        }
+        return new GravityField(bounds[0], bounds[1], cellSize, columns, rows, factors);
+    }
+
+    /**
+     * Reads a field from the binary form of a level.
+     * @param buffer The binary form, positioned at the field.
+     * @return The field.
+     */
+    public static GravityField read(ByteBuffer buffer){
+        int xLeft = buffer.getInt();
+        int yBottom = buffer.getInt();
+        int cellSize = buffer.getInt();
+        int columns = buffer.getInt();
+        int rows = buffer.getInt();
+        float[] factors = new float[Math.max(0, columns * rows)];
+        buffer.asFloatBuffer().get(factors);
+        buffer.position(buffer.position() + factors.length * Float.BYTES);
+        return new GravityField(xLeft, yBottom, cellSize, columns, rows, factors);
+    }
+
+    /**
+     * Finds the factor of the cell that contains a point.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The gravity at the point as a multiple of the gravity of the stage.
+     */
+    public float getFactor(double x, double y){
+        return factors[getRow(y) * columns + getColumn(x)];
+    }
+
+    /**
+     * Finds the column of the cells that contains an x coordinate.
+     * @param x The x coordinate.
+     * @return The column, the first or the last one for the points outside the grid.
+     */
+    public int getColumn(double x){
+        // The coordinate is rounded down before the division, so a point on the border of two cells is always in
+        // the right one, a division of doubles could round it up into the next cell
+        return Math.max(0, Math.min(columns - 1, Math.floorDiv((int) Math.floor(x - xLeft), cellSize)));
+    }
+
+    /**
+     * Finds the row of the cells that contains a y coordinate.
+     * @param y The y coordinate.
+     * @return The row, the first or the last one for the points outside the grid.
+     */
+    public int getRow(double y){
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv((int) Math.floor(y - yBottom), cellSize)));
+    }
+
+    /**
+     * Returns the factor of a cell.
+     * @param column Column of the cell.
+     * @param row Row of the cell.
+     * @return The gravity in the cell as a multiple of the gravity of the stage.
+     */
+    public float getCellFactor(int column, int row){
+        return factors[row * columns + column];
+    }
+
+    /**
+     * Returns the left boundary of the grid.
+     * @return The x coordinate of the left side of the first column.
+     */
+    public int getXLeft(){
+        return xLeft;
+    }
+
+    /**
+     * Returns the lower boundary of the grid.
+     * @return The y coordinate of the lower side of the first row.
+     */
+    public int getYBottom(){
+        return yBottom;
+    }
+
+    /**
+     * Returns the width and height of a cell.
+     * @return The size of a cell.
+     */
+    public int getCellSize(){
+        return cellSize;
+    }
+
+    /**
+     * Returns the number of cells in x direction.
+     * @return The number of columns.
+     */
+    public int getColumns(){
+        return columns;
+    }
+
+    /**
+     * Returns the number of cells in y direction.
+     * @return The number of rows.
+     */
+    public int getRows(){
+        return rows;
+    }
+}
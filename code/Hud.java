@@ -0,0 +1,342 @@
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Hud is the time counter area below the map: the timer, the death and stage counters, the clue or the help
+ * message, the time scale and the buttons. It is kept in an image, and a part of the image is drawn again only
+ * when the value shown in it changes. The values are written to reusable character buffers and drawn from a
+ * glyph atlas, so a frame in which nothing changed does not format any text and does not draw anything.
+ */
+public class Hud {
+
+    // Boundaries of the time counter area
+    public static final double X_LEFT = 0;
+    public static final double Y_TOP = 120;
+    public static final double WIDTH = Screen.WIDTH;
+    public static final double HEIGHT = Y_TOP;
+    // Color of the area
+    private static final Color AREA_COLOR = new Color(56, 93, 172);
+    // Color of the texts and the buttons
+    private static final Color TEXT_COLOR = Color.WHITE;
+    // Same font as the default font of StdDraw
+    private static final Font FONT = new Font("SansSerif", Font.PLAIN, 16);
+    // Thickness of the button outlines, same as the default pen of StdDraw
+    private static final float LINE_WIDTH = 1.024f;
+
+    // The rendered area and its graphics, which uses pixel coordinates
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private GlyphAtlas atlas;
+    // Texts that change while the game is played
+    private TextField timer;
+    private TextField deaths;
+    private TextField stageNumber;
+    private TextField speed;
+    private TextField clueTitle;
+    private TextField clueText;
+    // Every text of the area, including the ones that never change
+    private TextField[] fields;
+    // Values that are currently shown, -1 or null if nothing is shown yet
+    private int shownMinutes = -1;
+    private int shownSeconds = -1;
+    private int shownCentiseconds = -1;
+    private int shownDeaths = -1;
+    private Stage shownStage = null;
+    private boolean shownHelp = false;
+    private String shownSpeed = null;
+    // Indicates that the image has changed since it was drawn to the screen
+    private boolean isChanged = true;
+
+    /**
+     * TextField is a single line of text of the area, centered at a point.
+     */
+    private static class TextField {
+        // Characters of the text, only the first length characters are shown
+        char[] text = new char[32];
+        int length = 0;
+        // Center of the text
+        double x;
+        double y;
+        // Upper and lower boundaries of the line of the text in pixels
+        int top;
+        int bottom;
+        // Baseline of the text in pixels
+        int baseline;
+        // Left and right boundaries in pixels of the text that is currently in the image
+        int drawnLeft = 0;
+        int drawnRight = 0;
+        // Indicates that the text has changed since it was drawn to the image
+        boolean isChanged = true;
+
+        /**
+         * Constructor of the class. The text is placed the same way as StdDraw.text places it.
+         * @param x The x-center of the text.
+         * @param y The y-center of the text.
+         * @param atlas The atlas that the text is drawn with.
+         */
+        TextField(double x, double y, GlyphAtlas atlas){
+            this.x = x;
+            this.y = y;
+            this.baseline = (int) Math.round((Y_TOP - y + atlas.getDescent()) * Screen.PIXEL_SCALE);
+            this.top = baseline - atlas.getAscent() * Screen.PIXEL_SCALE;
+            this.bottom = baseline + atlas.getDescent() * Screen.PIXEL_SCALE;
+        }
+
+        /**
+         * Checks if the text overlaps another text in the image.
+         * @param other The other text.
+         * @return true if the areas of the two texts intersect, false otherwise.
+         */
+        boolean overlaps(TextField other){
+            return drawnLeft < other.drawnRight && other.drawnLeft < drawnRight &&
+                   top < other.bottom && other.top < bottom;
+        }
+    }
+
+    /**
+     * Constructor of the class. Renders the parts of the area that never change.
+     */
+    public Hud(){
+        atlas = new GlyphAtlas(FONT, TEXT_COLOR);
+        image = Screen.createOpaqueImage(WIDTH, HEIGHT);
+        // The buttons are drawn with the coordinates of the game area, the texts are drawn in pixels
+        Graphics2D area = Screen.createGraphics(image, X_LEFT, Y_TOP);
+        area.setColor(AREA_COLOR);
+        Screen.filledRectangle(area, 400, 60, 400, 60);
+        area.setColor(TEXT_COLOR);
+        area.setStroke(new BasicStroke(LINE_WIDTH, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        drawOutline(area, 250, 85, 40, 15); // Help button
+        drawOutline(area, 550, 85, 40, 15); // Restart button
+        drawOutline(area, 400, 20, 80, 15); // Reset button
+        area.dispose();
+
+        graphics = image.createGraphics();
+        timer = new TextField(100, 50, atlas);
+        deaths = new TextField(700, 75, atlas);
+        stageNumber = new TextField(700, 50, atlas);
+        speed = new TextField(100, 20, atlas);
+        clueTitle = new TextField(400, 85, atlas);
+        clueText = new TextField(400, 55, atlas);
+        fields = new TextField[]{timer, deaths, stageNumber, speed, clueTitle, clueText,
+                createFixedText("Help", 250, 85),
+                createFixedText("Restart", 550, 85),
+                createFixedText("RESET THE GAME", 400, 20),
+                createFixedText("Level: 1", 100, 75)};
+    }
+
+    /**
+     * Draws the outline of a rectangle, same as StdDraw.rectangle.
+     * @param area The graphics that uses the coordinates of the game area.
+     * @param x The x-center of the rectangle.
+     * @param y The y-center of the rectangle.
+     * @param halfWidth The halfwidth of the rectangle.
+     * @param halfHeight The halfheight of the rectangle.
+     */
+    private static void drawOutline(Graphics2D area, double x, double y, double halfWidth, double halfHeight){
+        area.draw(new Rectangle2D.Double(x - halfWidth, Screen.HEIGHT - y - halfHeight,
+                2 * halfWidth, 2 * halfHeight));
+    }
+
+    /**
+     * Creates a text that never changes. It is drawn with the first update, and again only if a text that
+     * overlaps it is cleared.
+     * @param text The text.
+     * @param x The x-center of the text.
+     * @param y The y-center of the text.
+     * @return The field of the text.
+     */
+    private TextField createFixedText(String text, double x, double y){
+        TextField field = new TextField(x, y, atlas);
+        setText(field, text);
+        return field;
+    }
+
+    /**
+     * Updates the values shown in the area. Only the texts whose values changed are formatted and drawn again.
+     * @param minutes Minute part of the game time.
+     * @param seconds Second part of the game time.
+     * @param centiseconds Hundredths of a second part of the game time.
+     * @param deathNumber How many times the player died.
+     * @param stage The current stage.
+     * @param speedText Text of the time scale, or null if the game runs at the normal speed.
+     */
+    public void update(int minutes, int seconds, int centiseconds, int deathNumber, Stage stage, String speedText){
+        // The timer is shown in the "mm : ss : cc" format
+        if(minutes != shownMinutes || seconds != shownSeconds || centiseconds != shownCentiseconds){
+            timer.length = 0;
+            appendNumber(timer, minutes, 2);
+            appendText(timer, " : ");
+            appendNumber(timer, seconds, 2);
+            appendText(timer, " : ");
+            appendNumber(timer, centiseconds, 2);
+            timer.isChanged = true;
+            shownMinutes = minutes;
+            shownSeconds = seconds;
+            shownCentiseconds = centiseconds;
+        }
+        if(deathNumber != shownDeaths){
+            setText(deaths, "Deaths: ");
+            appendNumber(deaths, deathNumber, 1);
+            shownDeaths = deathNumber;
+        }
+        // If the help button is not pressed for the current stage, the clue is shown,
+        // otherwise the help message is shown
+        if(stage != shownStage || stage.isHelpDisplaying() != shownHelp){
+            if(stage != shownStage){
+                setText(stageNumber, "Stage: ");
+                appendNumber(stageNumber, stage.getStageNumber() + 1, 1);
+            }
+            if(!stage.isHelpDisplaying()){
+                setText(clueTitle, "Clue:");
+                setText(clueText, stage.getClue());
+            }
+            else{
+                setText(clueTitle, "Help:");
+                setText(clueText, stage.getHelp());
+            }
+            shownStage = stage;
+            shownHelp = stage.isHelpDisplaying();
+        }
+        // The texts are compared by reference, the caller passes the same string for the same time scale
+        if(speedText != shownSpeed){
+            speed.length = 0;
+            if(speedText != null){
+                appendText(speed, speedText);
+            }
+            speed.isChanged = true;
+            shownSpeed = speedText;
+        }
+
+        // Clearing a text may also clear a part of another text that overlaps it, such texts are drawn again too
+        boolean isAnyAdded = true;
+        while(isAnyAdded){
+            isAnyAdded = false;
+            for(TextField cleared : fields){
+                for(TextField other : fields){
+                    if(cleared.isChanged && !other.isChanged && cleared.overlaps(other)){
+                        other.isChanged = true;
+                        isAnyAdded = true;
+                    }
+                }
+            }
+        }
+        // Drawing only the texts that changed, all old texts are cleared first so that clearing a text
+        // does not erase a new one
+        for(TextField field : fields){
+            if(field.isChanged){
+                clearField(field);
+            }
+        }
+        for(TextField field : fields){
+            if(field.isChanged){
+                drawField(field);
+            }
+        }
+    }
+
+    /**
+     * Replaces the text of a field.
+     * @param field The field.
+     * @param text The new text.
+     */
+    private static void setText(TextField field, String text){
+        field.length = 0;
+        appendText(field, text);
+        field.isChanged = true;
+    }
+
+    /**
+     * Adds a text to the end of the text of a field.
+     * @param field The field.
+     * @param text The text that is added.
+     */
+    private static void appendText(TextField field, String text){
+        ensureCapacity(field, field.length + text.length());
+        text.getChars(0, text.length(), field.text, field.length);
+        field.length += text.length();
+        field.isChanged = true;
+    }
+
+    /**
+     * Adds the digits of a number to the end of the text of a field.
+     * @param field The field.
+     * @param number The number, it must not be negative.
+     * @param minimumDigits The number is padded with zeros to have at least this many digits.
+     */
+    private static void appendNumber(TextField field, int number, int minimumDigits){
+        int digits = 1;
+        for(int rest = number / 10; rest > 0; rest /= 10){
+            digits ++;
+        }
+        digits = Math.max(digits, minimumDigits);
+        ensureCapacity(field, field.length + digits);
+        // The digits are written from the last one to the first one
+        for(int i = field.length + digits - 1; i >= field.length; i --){
+            field.text[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        field.length += digits;
+        field.isChanged = true;
+    }
+
+    /**
+     * Enlarges the character buffer of a field if it is too small. The buffer only grows, so it is only
+     * enlarged when a longer text is shown for the first time.
+     * @param field The field.
+     * @param capacity The number of characters that the buffer must hold.
+     */
+    private static void ensureCapacity(TextField field, int capacity){
+        if(capacity > field.text.length){
+            field.text = Arrays.copyOf(field.text, Math.max(capacity, 2 * field.text.length));
+        }
+    }
+
+    /**
+     * Clears the text of a field that is currently in the image.
+     * @param field The field.
+     */
+    private void clearField(TextField field){
+        if(field.drawnRight > field.drawnLeft){
+            graphics.setColor(AREA_COLOR);
+            graphics.fillRect(field.drawnLeft, field.top, field.drawnRight - field.drawnLeft,
+                    field.bottom - field.top);
+        }
+    }
+
+    /**
+     * Draws the text of a field to the image, centered at the point of the field.
+     * @param field The field.
+     */
+    private void drawField(TextField field){
+        int width = atlas.getWidth(field.text, field.length) * Screen.PIXEL_SCALE;
+        int left = (int) Math.round(field.x * Screen.PIXEL_SCALE - width / 2.0);
+        atlas.draw(graphics, field.text, field.length, left, field.baseline);
+        // The characters may extend beyond their widths by the padding of the atlas
+        int margin = GlyphAtlas.PADDING * Screen.PIXEL_SCALE;
+        field.drawnLeft = left - margin;
+        field.drawnRight = left + width + margin;
+        field.isChanged = false;
+        isChanged = true;
+    }
+
+    /**
+     * Makes the next draw copy the whole area to the screen again, even if nothing changed.
+     * Used when something else may have been drawn over the area, or when the screen is cleared.
+     */
+    public void invalidate(){
+        isChanged = true;
+    }
+
+    /**
+     * Draws the area to the screen if it changed since the last draw. The canvas keeps its content between
+     * the frames, so an area that did not change is still on the screen.
+     */
+    public void draw(){
+        if(isChanged){
+            Screen.drawImage(image, X_LEFT, Y_TOP, WIDTH, HEIGHT);
+            isChanged = false;
+        }
+    }
+}
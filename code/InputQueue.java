@@ -0,0 +1,177 @@
+import javax.swing.JLabel;
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.BitSet;
+import java.util.concurrent.LinkedTransferQueue;
+
+/**
+ * InputQueue collects the key and mouse events of the window in the order they happened, each with the time it
+ * arrived at. StdDraw only tells which keys are pressed at the moment it is asked, so a key that is pressed and
+ * released between two polls is lost, and a screen that waits for a key has to poll in a loop.
+ * The events are put into a lock-free queue by the event dispatch thread. The game loop takes the events up to the
+ * time of every tick, and a screen that waits for a key blocks on the queue.
+ * The repeated key presses of a held key are not queued, so every press event is a new press.
+ */
+public class InputQueue {
+
+    // Types of the events
+    public static final int KEY_PRESSED = 0;
+    public static final int KEY_RELEASED = 1;
+    public static final int MOUSE_PRESSED = 2;
+
+    /**
+     * A key or mouse event.
+     */
+    public static class Event {
+        // One of the type constants
+        private int type;
+        // Key code of a key event, as in KeyEvent
+        private int keyCode;
+        // Position of a mouse event in the coordinates of the canvas
+        private double x;
+        private double y;
+        // System.nanoTime when the event arrived, the game takes the events up to the time of a tick
+        private long time;
+
+        /**
+         * Constructor of the class.
+         * @param type One of the type constants.
+         * @param keyCode Key code of a key event, 0 for a mouse event.
+         * @param x The x coordinate of a mouse event, 0 for a key event.
+         * @param y The y coordinate of a mouse event, 0 for a key event.
+         * @param time System.nanoTime when the event arrived.
+         */
+        private Event(int type, int keyCode, double x, double y, long time){
+            this.type = type;
+            this.keyCode = keyCode;
+            this.x = x;
+            this.y = y;
+            this.time = time;
+        }
+
+        /**
+         * Returns the type of the event.
+         * @return KEY_PRESSED, KEY_RELEASED or MOUSE_PRESSED.
+         */
+        public int getType(){
+            return type;
+        }
+
+        /**
+         * Returns the key of a key event.
+         * @return The key code as in KeyEvent, 0 for a mouse event.
+         */
+        public int getKeyCode(){
+            return keyCode;
+        }
+
+        /**
+         * Returns the x coordinate of a mouse event.
+         * @return The x coordinate in the coordinates of the canvas, 0 for a key event.
+         */
+        public double getX(){
+            return x;
+        }
+
+        /**
+         * Returns the y coordinate of a mouse event.
+         * @return The y coordinate in the coordinates of the canvas, 0 for a key event.
+         */
+        public double getY(){
+            return y;
+        }
+
+        /**
+         * Indicates whether the event is a press of a key.
+         * @param keyCode Key code of the key, as in KeyEvent.
+         * @return true if the event is a press of the key.
+         */
+        public boolean isKeyPressed(int keyCode){
+            return type == KEY_PRESSED && this.keyCode == keyCode;
+        }
+    }
+
+    // Events that were not taken yet, in the order they arrived
+    private static final LinkedTransferQueue<Event> events = new LinkedTransferQueue<>();
+    // Keys that are down, only used by the event dispatch thread to drop the repeated presses
+    private static final BitSet keysDown = new BitSet();
+    private static boolean isInstalled = false;
+
+    // The class only has static methods, like StdDraw
+    private InputQueue(){
+    }
+
+    /**
+     * Starts collecting the events of the window. Calling it again has no effect.
+     */
+    public static synchronized void install(){
+        if(isInstalled){
+            return;
+        }
+        isInstalled = true;
+        Toolkit.getDefaultToolkit().addAWTEventListener(InputQueue::dispatch,
+                AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK);
+    }
+
+    /**
+     * Converts an event of the window and puts it into the queue. Called on the event dispatch thread.
+     * @param event The event.
+     */
+    private static void dispatch(AWTEvent event){
+        long time = System.nanoTime();
+        if(event instanceof KeyEvent){
+            KeyEvent key = (KeyEvent) event;
+            if(key.getID() == KeyEvent.KEY_PRESSED && !keysDown.get(key.getKeyCode())){
+                keysDown.set(key.getKeyCode());
+                events.add(new Event(KEY_PRESSED, key.getKeyCode(), 0, 0, time));
+            }
+            else if(key.getID() == KeyEvent.KEY_RELEASED){
+                keysDown.clear(key.getKeyCode());
+                events.add(new Event(KEY_RELEASED, key.getKeyCode(), 0, 0, time));
+            }
+        }
+        // StdDraw draws to a label that fills the window, its size is the size of the canvas in pixels
+        else if(event instanceof MouseEvent && event.getSource() instanceof JLabel){
+            MouseEvent mouse = (MouseEvent) event;
+            // The buttons of the game react to the press, the other mouse events are not queued
+            if(mouse.getID() != MouseEvent.MOUSE_PRESSED){
+                return;
+            }
+            JLabel label = (JLabel) event.getSource();
+            double x = mouse.getX() * (double) Screen.WIDTH / label.getWidth();
+            double y = Screen.HEIGHT - mouse.getY() * (double) Screen.HEIGHT / label.getHeight();
+            events.add(new Event(MOUSE_PRESSED, 0, x, y, time));
+        }
+    }
+
+    /**
+     * Takes the first event if it arrived before the given time.
+     * @param until A System.nanoTime value.
+     * @return The first event, or null if there are no events or the first one arrived after the time.
+     */
+    public static Event poll(long until){
+        Event event = events.peek();
+        if(event == null || event.time > until){
+            return null;
+        }
+        return events.poll();
+    }
+
+    /**
+     * Waits until an event arrives and takes it. The thread sleeps while it waits.
+     * @return The first event.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public static Event take() throws InterruptedException{
+        return events.take();
+    }
+
+    /**
+     * Drops the events that were not taken, for example before a screen that waits for a new key.
+     */
+    public static void clear(){
+        events.clear();
+    }
+}
@@ -0,0 +1,992 @@
+import java.awt.event.KeyEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Level stores the rectangles of the level and the stages that are played on it.
+ * The level is written in a text file that can be edited by hand (see misc/level.txt for the format).
+ * The first time a text file is loaded it is compiled to a binary file next to it, which holds the values in the
+ * order they are read and the bounds of the level. The binary file stores the hash of the text it was compiled
+ * from, so it is used as long as the text does not change and the text is only parsed again after an edit.
+ * A binary file is memory-mapped and read directly, which is faster than parsing the text.
+ * <p>
+ * The level is divided into chunks of a fixed width (see LevelChunk). Only the small parts of the level, such as
+ * the pipes, the button and the door, are read when the level is loaded. A chunk is read from the binary file when
+ * it is needed, either in the background by prefetch() as the player or the camera gets close to it, or at once by
+ * getChunk(). When the chunks in memory use more than the memory budget, trim() removes the ones that were used
+ * least recently. All coordinates are coordinates of the whole level, so they do not change at the chunk borders.
+ */
+public class Level {
+
+    // Level of the game
+    public static final String DEFAULT_FILE = "misc/level.txt";
+    // Extension that is added to the path of the text file to find its binary file
+    public static final String BINARY_EXTENSION = ".bin";
+    // Width of a chunk. The collision code needs the chunks next to the chunk of the player, so a player
+    // must not move further than a chunk in one tick
+    public static final int CHUNK_WIDTH = 400;
+    // Largest velocityX of a stage. Half of a chunk is left for the width of the player, so the player stays in the
+    // chunks next to its chunk during a tick
+    public static final double MAX_VELOCITY_X = CHUNK_WIDTH / 2.0;
+    // Memory that the chunks in memory may use by default, most of it is used by their background layers
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    // First values of a binary file, a file that does not start with them is compiled again
+    private static final int MAGIC = 0x54494F4C;
+    private static final int VERSION = 4;
+    // Length of the SHA-256 hash of the text
+    private static final int HASH_LENGTH = 32;
+    // Size of the magic, version, size and hash at the beginning of a binary file
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + HASH_LENGTH;
+    // Names of the keys in the text file, in the order of KEY_CODES
+    private static final String[] KEY_NAMES = {"LEFT", "RIGHT", "UP", "NONE"};
+    private static final int[] KEY_CODES = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP, -1};
+
+    // Thread that reads the prefetched chunks, shared by all levels
+    private static ExecutorService chunkLoader;
+
+    // Point that the player starts and respawns at
+    private int[] spawn;
+    // Bounds of all rectangles of the level in form [xLeftDown , yLeftDown, xRightUp, yRightUp]
+    private int[] bounds;
+    // Rectangles of the level in form [xLeftDown , yLeftDown, xRightUp, yRightUp]
+    private int[] button;
+    private int[] buttonFloor;
+    private int[] door;
+    private int[][] startPipe;
+    private int[][] exitPipe;
+    // Number of obstacles and spike areas in the whole level, the IDs in the chunks are smaller than these
+    private int obstacleCount;
+    private int spikeCount;
+    // Stages in the order they are played
+    private ArrayList<Stage> stages = new ArrayList<>();
+    // Path of the text file and the SHA-256 hash of its content
+    private String file;
+    private byte[] hash;
+
+    // The binary form, chunk i starts at chunkStart + chunkOffsets[i]
+    private ByteBuffer data;
+    private int chunkStart;
+    private int[] chunkOffsets;
+    private int chunkCount;
+    // Chunks in memory, null for the chunks that are not read or are removed
+    private AtomicReferenceArray<LevelChunk> chunks;
+    // 1 for the chunks that are being read or are in memory, so a chunk is not prefetched twice
+    private AtomicIntegerArray isRequested;
+    // Value of useClock when a chunk was used last, used to remove the least recently used chunks
+    private AtomicLongArray lastUsed;
+    private AtomicLong useClock = new AtomicLong();
+    // Memory that the chunks in memory may use
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // Levels are created by load()
+    private Level(){
+    }
+
+    /**
+     * Loads a level. If the binary file of the level was compiled from the same text, it is memory-mapped instead
+     * of parsing the text. Otherwise the text is parsed and compiled to the binary file. If the binary file cannot be
+     * written, the compiled level is kept in memory.
+     * @param file Path of the text file of the level.
+     * @return The loaded level, with new Stage objects.
+     */
+    public static Level load(String file){
+        Path textPath = Paths.get(file);
+        Path binaryPath = Paths.get(file + BINARY_EXTENSION);
+        byte[] text;
+        try{
+            text = Files.readAllBytes(textPath);
+        }
+        catch(IOException e){
+            throw new IllegalStateException("could not read level: " + file, e);
+        }
+        byte[] hash = hash(text);
+        ByteBuffer buffer = mapBinary(binaryPath, hash);
+        if(buffer != null){
+            try{
+                return read(buffer, file, hash);
+            }
+            catch(RuntimeException e){
+                // A damaged binary file is compiled again from the text
+            }
+        }
+        byte[] binary = compile(parse(file, new String(text, StandardCharsets.UTF_8)), hash);
+        try{
+            writeBinary(binaryPath, binary);
+        }
+        catch(IOException e){
+            // The level can be used without its binary file, the text is parsed again the next time
+        }
+        return read(ByteBuffer.wrap(binary), file, hash);
+    }
+
+    /**
+     * Finds the SHA-256 hash of the text of a level.
+     * @param text Content of the text file.
+     * @return The hash.
+     */
+    private static byte[] hash(byte[] text){
+        try{
+            return MessageDigest.getInstance("SHA-256").digest(text);
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Values of a level while the text is parsed, they are compiled to the binary form when all of them are read.
+     */
+    private static class Source {
+        int[] spawn;
+        int[] button;
+        int[] buttonFloor;
+        int[] door;
+        ArrayList<int[]> obstacles = new ArrayList<>();
+        ArrayList<int[]> startPipe = new ArrayList<>();
+        ArrayList<int[]> exitPipe = new ArrayList<>();
+        ArrayList<int[]> spikes = new ArrayList<>();
+        ArrayList<Integer> spikeRotations = new ArrayList<>();
+        ArrayList<StageValues> stages = new ArrayList<>();
+    }
+
+    /**
+     * Parses the text of a level. Every line is a keyword followed by its values, empty lines and lines that
+     * start with # are skipped. The values of a stage keyword come in the lines after it.
+     * @param file Path of the text file, used in the error messages.
+     * @param text Content of the text file.
+     * @return The parsed values of the level.
+     */
+    private static Source parse(String file, String text){
+        Source level = new Source();
+        // Values of the stage that is being read
+        StageValues stage = null;
+
+        String[] lines = text.split("\n", -1);
+        for(int lineNumber = 1; lineNumber <= lines.length; lineNumber ++){
+            String line = lines[lineNumber - 1];
+            if(line.endsWith("\r")){
+                line = line.substring(0, line.length() - 1);
+            }
+            if(line.isBlank() || line.stripLeading().startsWith("#")){
+                continue;
+            }
+            String[] words = line.trim().split("\\s+");
+            String keyword = words[0];
+            String where = file + ":" + lineNumber + ": ";
+            switch(keyword){
+                case "spawn":
+                    level.spawn = parseInts(words, 2, where);
+                    break;
+                case "obstacle":
+                    level.obstacles.add(parseRectangle(words, where));
+                    break;
+                case "button":
+                    level.button = parseRectangle(words, where);
+                    break;
+                case "buttonFloor":
+                    level.buttonFloor = parseRectangle(words, where);
+                    break;
+                case "door":
+                    level.door = parseRectangle(words, where);
+                    break;
+                case "startPipe":
+                    level.startPipe.add(parseRectangle(words, where));
+                    break;
+                case "exitPipe":
+                    level.exitPipe.add(parseRectangle(words, where));
+                    break;
+                case "spike":
+                    int[] values = parseInts(words, 5, where);
+                    level.spikes.add(sortCorners(values));
+                    level.spikeRotations.add(values[4]);
+                    break;
+                case "stage":
+                    parseInts(words, 0, where);
+                    stage = new StageValues();
+                    level.stages.add(stage);
+                    break;
+                case "gravity":
+                case "velocityX":
+                case "velocityY":
+                case "keys":
+                case "clue":
+                case "help":
+                case "gravityCell":
+                case "gravityZone":
+                case "autoJump":
+                case "buttonPresses":
+                    if(stage == null){
+                        throw new IllegalStateException(where + keyword + " must come after a stage line");
+                    }
+                    stage.parse(keyword, words, line, where);
+                    break;
+                default:
+                    throw new IllegalStateException(where + "unknown keyword: " + keyword);
+            }
+        }
+
+        // Every part of the level must be given
+        if(level.spawn == null || level.button == null || level.buttonFloor == null || level.door == null ||
+           level.startPipe.isEmpty() || level.exitPipe.size() < 2 || level.stages.isEmpty()){
+            throw new IllegalStateException(file + ": spawn, button, buttonFloor, door, startPipe, " +
+                    "two exitPipe rectangles and at least one stage are required");
+        }
+        for(int i = 0; i < level.stages.size(); i ++){
+            if(!level.stages.get(i).isComplete()){
+                throw new IllegalStateException(file + ": stage " + (i + 1) +
+                        " must have gravity, velocityX, velocityY, keys, clue and help");
+            }
+            if(!level.stages.get(i).gravityZones.isEmpty() && level.stages.get(i).gravityCell == null){
+                throw new IllegalStateException(file + ": stage " + (i + 1) + " has gravity zones without gravityCell");
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Parses the integer values of a line.
+     * @param words Words of the line, the first one is the keyword.
+     * @param count Number of values that the keyword takes.
+     * @param where Position of the line, used in the error messages.
+     * @return The values.
+     */
+    private static int[] parseInts(String[] words, int count, String where){
+        if(words.length != count + 1){
+            throw new IllegalStateException(where + words[0] + " takes " + count + " values");
+        }
+        int[] values = new int[count];
+        for(int i = 0; i < count; i ++){
+            try{
+                values[i] = Integer.parseInt(words[i + 1]);
+            }
+            catch(NumberFormatException e){
+                throw new IllegalStateException(where + "not an integer: " + words[i + 1]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parses a rectangle.
+     * @param words Words of the line, the first one is the keyword and the next four are the corners.
+     * @param where Position of the line, used in the error messages.
+     * @return The rectangle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    private static int[] parseRectangle(String[] words, String where){
+        return sortCorners(parseInts(words, 4, where));
+    }
+
+    /**
+     * Sorts the corners of a rectangle, so the first corner is always the lower left one.
+     * @param values Two corners of the rectangle in any order, followed by any other values.
+     * @return The rectangle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    private static int[] sortCorners(int[] values){
+        return new int[]{Math.min(values[0], values[2]), Math.min(values[1], values[3]),
+                Math.max(values[0], values[2]), Math.max(values[1], values[3])};
+    }
+
+    /**
+     * Values of a stage while the text is parsed, the Stage object is created when the level is read.
+     */
+    private static class StageValues {
+        Double gravity;
+        Double velocityX;
+        Double velocityY;
+        int[] keyCodes;
+        String clue;
+        String help;
+        // Size of the cells of the gravity field, and the zones of the field with their factors
+        Integer gravityCell;
+        ArrayList<int[]> gravityZones = new ArrayList<>();
+        ArrayList<Double> gravityFactors = new ArrayList<>();
+        // The player jumps whenever it stands on the ground, and the door opens after this many button presses
+        boolean isAutoJump = false;
+        int buttonPresses = 1;
+
+        /**
+         * Parses a line that belongs to the stage.
+         * @param keyword Keyword of the line.
+         * @param words Words of the line.
+         * @param line The whole line, the texts are taken from it so that their spaces are kept.
+         * @param where Position of the line, used in the error messages.
+         */
+        void parse(String keyword, String[] words, String line, String where){
+            switch(keyword){
+                case "gravity":
+                    gravity = parseDouble(words, where);
+                    break;
+                case "velocityX":
+                    velocityX = parseDouble(words, where);
+                    if(!(Math.abs(velocityX) <= MAX_VELOCITY_X)){
+                        throw new IllegalStateException(where + "velocityX must be at most " + MAX_VELOCITY_X +
+                                ", a chunk is " + CHUNK_WIDTH + " wide");
+                    }
+                    break;
+                case "velocityY":
+                    velocityY = parseDouble(words, where);
+                    break;
+                case "keys":
+                    if(words.length != 4){
+                        throw new IllegalStateException(where + "keys takes the right, left and up keys");
+                    }
+                    keyCodes = new int[3];
+                    for(int i = 0; i < 3; i ++){
+                        int index = Arrays.asList(KEY_NAMES).indexOf(words[i + 1]);
+                        if(index < 0){
+                            throw new IllegalStateException(where + "unknown key: " + words[i + 1]);
+                        }
+                        keyCodes[i] = KEY_CODES[index];
+                    }
+                    break;
+                case "clue":
+                    clue = textOf(line, keyword);
+                    break;
+                case "gravityCell":
+                    gravityCell = parseInts(words, 1, where)[0];
+                    if(gravityCell <= 0){
+                        throw new IllegalStateException(where + "gravityCell must be positive");
+                    }
+                    break;
+                case "gravityZone":
+                    if(words.length != 6){
+                        throw new IllegalStateException(where + "gravityZone takes a rectangle and a factor");
+                    }
+                    gravityZones.add(parseRectangle(Arrays.copyOf(words, 5), where));
+                    gravityFactors.add(parseDouble(new String[]{keyword, words[5]}, where));
+                    break;
+                case "autoJump":
+                    parseInts(words, 0, where);
+                    isAutoJump = true;
+                    break;
+                case "buttonPresses":
+                    buttonPresses = parseInts(words, 1, where)[0];
+                    if(buttonPresses <= 0){
+                        throw new IllegalStateException(where + "buttonPresses must be positive");
+                    }
+                    break;
+                default:
+                    help = textOf(line, keyword);
+                    break;
+            }
+        }
+
+        /**
+         * Parses the only value of a line as a double.
+         * @param words Words of the line.
+         * @param where Position of the line, used in the error messages.
+         * @return The value.
+         */
+        private static double parseDouble(String[] words, String where){
+            if(words.length != 2){
+                throw new IllegalStateException(where + words[0] + " takes 1 value");
+            }
+            try{
+                return Double.parseDouble(words[1]);
+            }
+            catch(NumberFormatException e){
+                throw new IllegalStateException(where + "not a number: " + words[1]);
+            }
+        }
+
+        /**
+         * Returns the text after the keyword of a line.
+         * @param line The line.
+         * @param keyword Keyword of the line.
+         * @return The rest of the line after the keyword and the space after it.
+         */
+        private static String textOf(String line, String keyword){
+            String rest = line.stripLeading().substring(keyword.length());
+            return rest.isEmpty() ? rest : rest.substring(1);
+        }
+
+        /**
+         * Checks if every value of the stage is given.
+         * @return true if all values are read, false otherwise.
+         */
+        boolean isComplete(){
+            return gravity != null && velocityX != null && velocityY != null && keyCodes != null &&
+                   clue != null && help != null;
+        }
+    }
+
+    /**
+     * Compiles the parsed values of a level to the binary form. The binary form starts with the small parts of the
+     * level and the stages, followed by the offsets of the chunks and the chunks. A rectangle is stored in every
+     * chunk that it overlaps.
+     * @param level The parsed values.
+     * @param hash Hash of the text that the values were parsed from.
+     * @return The binary form of the level.
+     */
+    private static byte[] compile(Source level, byte[] hash){
+        // Bounds of the level, the chunks start at the left boundary
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        ArrayList<int[]> all = new ArrayList<>(Arrays.asList(level.button, level.buttonFloor, level.door));
+        all.addAll(level.obstacles);
+        all.addAll(level.startPipe);
+        all.addAll(level.exitPipe);
+        all.addAll(level.spikes);
+        for(int[] rectangle : all){
+            bounds[0] = Math.min(bounds[0], rectangle[0]);
+            bounds[1] = Math.min(bounds[1], rectangle[1]);
+            bounds[2] = Math.max(bounds[2], rectangle[2]);
+            bounds[3] = Math.max(bounds[3], rectangle[3]);
+        }
+        // The chunks cover at least the screen, so the background layers cover the whole game area
+        int chunkCount = Math.max(ceilDivide(bounds[2] - bounds[0], CHUNK_WIDTH),
+                ceilDivide(Screen.WIDTH, CHUNK_WIDTH));
+
+        try{
+            ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+            DataOutputStream chunks = new DataOutputStream(chunkBytes);
+            int[] chunkOffsets = new int[chunkCount];
+            for(int i = 0; i < chunkCount; i ++){
+                chunkOffsets[i] = chunks.size();
+                int xLeft = bounds[0] + i * CHUNK_WIDTH;
+                int xRight = xLeft + CHUNK_WIDTH;
+                writeChunkRectangles(chunks, level.obstacles, null, xLeft, xRight, true);
+                writeChunkRectangles(chunks, level.spikes, level.spikeRotations, xLeft, xRight, true);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // The size is written at the end
+            out.writeInt(0);
+            out.write(hash);
+            writeInts(out, level.spawn);
+            writeInts(out, bounds);
+            writeInts(out, level.button);
+            writeInts(out, level.buttonFloor);
+            writeInts(out, level.door);
+            writeRectangles(out, level.startPipe);
+            writeRectangles(out, level.exitPipe);
+            out.writeInt(level.obstacles.size());
+            out.writeInt(level.spikes.size());
+            out.writeInt(level.stages.size());
+            for(StageValues stage : level.stages){
+                out.writeDouble(stage.gravity);
+                out.writeDouble(stage.velocityX);
+                out.writeDouble(stage.velocityY);
+                writeInts(out, stage.keyCodes);
+                writeString(out, stage.clue);
+                writeString(out, stage.help);
+                writeGravityField(out, stage, bounds);
+                out.writeBoolean(stage.isAutoJump);
+                out.writeInt(stage.buttonPresses);
+            }
+            out.writeInt(chunkCount);
+            writeInts(out, chunkOffsets);
+            chunkBytes.writeTo(out);
+            out.flush();
+            byte[] binary = bytes.toByteArray();
+            ByteBuffer.wrap(binary).putInt(2 * Integer.BYTES, binary.length);
+            return binary;
+        }
+        catch(IOException e){
+            // Streams in memory do not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the gravity field of a stage. A stage without zones has no field, only a 0 is written for it.
+     * @param out Stream of the binary form.
+     * @param stage The parsed values of the stage.
+     * @param bounds Bounds of the level, the field covers them.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeGravityField(DataOutputStream out, StageValues stage, int[] bounds) throws IOException{
+        if(stage.gravityZones.isEmpty()){
+            out.writeInt(0);
+            return;
+        }
+        double[] factors = new double[stage.gravityFactors.size()];
+        for(int i = 0; i < factors.length; i ++){
+            factors[i] = stage.gravityFactors.get(i);
+        }
+        GravityField field = GravityField.build(bounds, stage.gravityCell, stage.gravityZones.toArray(new int[0][]),
+                factors);
+        out.writeInt(1);
+        out.writeInt(field.getXLeft());
+        out.writeInt(field.getYBottom());
+        out.writeInt(field.getCellSize());
+        out.writeInt(field.getColumns());
+        out.writeInt(field.getRows());
+        for(int row = 0; row < field.getRows(); row ++){
+            for(int column = 0; column < field.getColumns(); column ++){
+                out.writeFloat(field.getCellFactor(column, row));
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest integer that is not smaller than a / b.
+     * @param a The dividend, not negative.
+     * @param b The divisor, positive.
+     * @return The result of the division rounded up.
+     */
+    private static int ceilDivide(int a, int b){
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Writes the rectangles of a group that overlap a chunk, the number of rectangles is written first.
+     * @param out The stream that the rectangles are written to.
+     * @param rectangles The rectangles of the group.
+     * @param rotations Rotation of every rectangle, written after the rectangle, or null if there are none.
+     * @param xLeft Left boundary of the chunk.
+     * @param xRight Right boundary of the chunk.
+     * @param withIds Whether the index of every rectangle in its group is written before the rectangle.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeChunkRectangles(DataOutputStream out, ArrayList<int[]> rectangles,
+                                             ArrayList<Integer> rotations, int xLeft, int xRight,
+                                             boolean withIds) throws IOException{
+        ArrayList<Integer> overlapping = new ArrayList<>();
+        for(int i = 0; i < rectangles.size(); i ++){
+            int[] rectangle = rectangles.get(i);
+            // A rectangle that touches the border of two chunks is stored in both
+            if(rectangle[0] <= xRight && rectangle[2] >= xLeft){
+                overlapping.add(i);
+            }
+        }
+        out.writeInt(overlapping.size());
+        for(int i : overlapping){
+            if(withIds){
+                out.writeInt(i);
+            }
+            writeInts(out, rectangles.get(i));
+            if(rotations != null){
+                out.writeDouble(rotations.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes integers.
+     * @param out The stream that the integers are written to.
+     * @param values The integers.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException{
+        for(int value : values){
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Writes a group of rectangles, the number of rectangles is written first.
+     * @param out The stream that the rectangles are written to.
+     * @param rectangles The rectangles.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeRectangles(DataOutputStream out, ArrayList<int[]> rectangles) throws IOException{
+        out.writeInt(rectangles.size());
+        for(int[] rectangle : rectangles){
+            writeInts(out, rectangle);
+        }
+    }
+
+    /**
+     * Writes a text as its length and its UTF-8 bytes.
+     * @param out The stream that the text is written to.
+     * @param text The text.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException{
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the binary file of a level. The file is written to a temporary file first and moved over the old
+     * binary file, so a level that is loaded at the same time never reads a half written file.
+     * @param path Path of the binary file.
+     * @param binary The binary form of the level.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeBinary(Path path, byte[] binary) throws IOException{
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), "level", ".tmp");
+        try{
+            Files.write(temporary, binary);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally{
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Memory-maps the binary file of a level.
+     * @param path Path of the binary file.
+     * @param hash Hash of the current text of the level.
+     * @return The mapped file, or null if there is no binary file or if it was compiled from another text
+     * or by another version of the game.
+     */
+    private static ByteBuffer mapBinary(Path path, byte[] hash){
+        if(!Files.isRegularFile(path)){
+            return null;
+        }
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC ||
+               buffer.getInt() != VERSION || buffer.getInt() != channel.size()){
+                return null;
+            }
+            byte[] storedHash = new byte[HASH_LENGTH];
+            buffer.get(storedHash);
+            return Arrays.equals(storedHash, hash) ? buffer : null;
+        }
+        catch(IOException e){
+            return null;
+        }
+    }
+
+    /**
+     * Reads the small parts of a level and its stages from its binary form. The chunks are read when needed.
+     * @param buffer The binary form, the level keeps it to read the chunks.
+     * @param file Path of the text file of the level.
+     * @param hash Hash of the text.
+     * @return The level.
+     */
+    private static Level read(ByteBuffer buffer, String file, byte[] hash){
+        Level level = new Level();
+        level.file = file;
+        level.hash = hash;
+        buffer.position(HEADER_SIZE);
+        level.spawn = getInts(buffer, 2);
+        level.bounds = getInts(buffer, 4);
+        level.button = getInts(buffer, 4);
+        level.buttonFloor = getInts(buffer, 4);
+        level.door = getInts(buffer, 4);
+        level.startPipe = getRectangles(buffer);
+        level.exitPipe = getRectangles(buffer);
+        level.obstacleCount = buffer.getInt();
+        level.spikeCount = buffer.getInt();
+        int stageCount = buffer.getInt();
+        for(int i = 0; i < stageCount; i ++){
+            double gravity = buffer.getDouble();
+            double velocityX = buffer.getDouble();
+            if(!(Math.abs(velocityX) <= MAX_VELOCITY_X)){
+                throw new IllegalStateException("stage " + (i + 1) + " of " + file + " moves further than a chunk");
+            }
+            double velocityY = buffer.getDouble();
+            int[] keyCodes = getInts(buffer, 3);
+            String clue = getString(buffer);
+            String help = getString(buffer);
+            GravityField gravityField = buffer.getInt() != 0 ? GravityField.read(buffer) : null;
+            boolean isAutoJump = buffer.get() != 0;
+            int buttonPresses = buffer.getInt();
+            level.stages.add(new Stage(level, gravity, velocityX, velocityY, i, keyCodes[0], keyCodes[1],
+                    keyCodes[2], clue, help, gravityField, isAutoJump, buttonPresses));
+        }
+        level.chunkCount = buffer.getInt();
+        level.chunkOffsets = getInts(buffer, level.chunkCount);
+        level.chunkStart = buffer.position();
+        level.data = buffer;
+        level.chunks = new AtomicReferenceArray<>(level.chunkCount);
+        level.isRequested = new AtomicIntegerArray(level.chunkCount);
+        level.lastUsed = new AtomicLongArray(level.chunkCount);
+        return level;
+    }
+
+    /**
+     * Reads integers from the binary form.
+     * @param buffer The binary form.
+     * @param count Number of integers.
+     * @return The integers.
+     */
+    private static int[] getInts(ByteBuffer buffer, int count){
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Reads a group of rectangles from the binary form.
+     * @param buffer The binary form.
+     * @return The rectangles.
+     */
+    private static int[][] getRectangles(ByteBuffer buffer){
+        int[][] rectangles = new int[buffer.getInt()][];
+        for(int i = 0; i < rectangles.length; i ++){
+            rectangles[i] = getInts(buffer, 4);
+        }
+        return rectangles;
+    }
+
+    /**
+     * Reads a text from the binary form.
+     * @param buffer The binary form.
+     * @return The text.
+     */
+    private static String getString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the thread that reads the prefetched chunks. It is a daemon thread, so it does not keep
+     * the program running.
+     * @return The executor of the thread.
+     */
+    private static synchronized ExecutorService chunkLoader(){
+        if(chunkLoader == null){
+            chunkLoader = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "level-chunk-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return chunkLoader;
+    }
+
+    /**
+     * Reads a chunk from the binary form and saves it, unless another thread saved it first.
+     * @param index Index of the chunk.
+     * @return The chunk that is in memory.
+     */
+    private LevelChunk readChunk(int index){
+        // Every read uses its own view of the buffer, so chunks can be read by more than one thread
+        ByteBuffer view = data.duplicate();
+        view.position(chunkStart + chunkOffsets[index]);
+        LevelChunk chunk = new LevelChunk(index, getChunkLeft(index), CHUNK_WIDTH, view);
+        isRequested.set(index, 1);
+        if(!chunks.compareAndSet(index, null, chunk)){
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns a chunk. If the chunk is not in memory, it is read at once.
+     * @param index Index of the chunk.
+     * @return The chunk.
+     */
+    public LevelChunk getChunk(int index){
+        LevelChunk chunk = chunks.get(index);
+        if(chunk == null){
+            chunk = readChunk(index);
+        }
+        lastUsed.set(index, useClock.incrementAndGet());
+        return chunk;
+    }
+
+    /**
+     * Returns a chunk only if it is in memory.
+     * @param index Index of the chunk.
+     * @return The chunk, or null if it is not in memory.
+     */
+    public LevelChunk getChunkIfLoaded(int index){
+        LevelChunk chunk = chunks.get(index);
+        if(chunk != null){
+            lastUsed.set(index, useClock.incrementAndGet());
+        }
+        return chunk;
+    }
+
+    /**
+     * Starts reading the chunks in a range in the background. The chunks that are in memory or are being read
+     * are skipped, so this can be called every time the range changes.
+     * @param from Index of the first chunk, it is clamped to the chunks of the level.
+     * @param to Index of the last chunk, it is clamped to the chunks of the level.
+     */
+    public void prefetch(int from, int to){
+        for(int index = Math.max(0, from); index <= Math.min(chunkCount - 1, to); index ++){
+            if(isRequested.compareAndSet(index, 0, 1)){
+                int chunk = index;
+                chunkLoader().execute(() -> {
+                    if(chunks.get(chunk) == null){
+                        readChunk(chunk);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used chunks from memory until the chunks in memory fit into the memory budget.
+     * The chunks in the given range are kept. A removed chunk is read again the next time it is needed.
+     * @param keepFrom Index of the first chunk that is kept.
+     * @param keepTo Index of the last chunk that is kept.
+     */
+    public synchronized void trim(int keepFrom, int keepTo){
+        long usedBytes = 0;
+        for(int index = 0; index < chunkCount; index ++){
+            LevelChunk chunk = chunks.get(index);
+            if(chunk != null){
+                usedBytes += chunk.getByteSize();
+            }
+        }
+        while(usedBytes > memoryBudget){
+            int oldest = -1;
+            for(int index = 0; index < chunkCount; index ++){
+                if((index < keepFrom || index > keepTo) && chunks.get(index) != null &&
+                   (oldest < 0 || lastUsed.get(index) < lastUsed.get(oldest))){
+                    oldest = index;
+                }
+            }
+            if(oldest < 0){
+                break;
+            }
+            usedBytes -= chunks.getAndSet(oldest, null).getByteSize();
+            isRequested.set(oldest, 0);
+        }
+    }
+
+    /**
+     * Sets the memory that the chunks in memory may use.
+     * @param memoryBudget The budget in bytes.
+     */
+    public void setMemoryBudget(long memoryBudget){
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the number of chunks.
+     * @return The number of chunks of the level.
+     */
+    public int getChunkCount(){
+        return chunkCount;
+    }
+
+    /**
+     * Finds the chunk that contains an x coordinate.
+     * @param x The x coordinate.
+     * @return Index of the chunk, clamped to the chunks of the level.
+     */
+    public int getChunkIndex(double x){
+        return Math.max(0, Math.min(chunkCount - 1, (int) Math.floor((x - bounds[0]) / CHUNK_WIDTH)));
+    }
+
+    /**
+     * Returns the left boundary of a chunk.
+     * @param index Index of the chunk.
+     * @return The smallest x coordinate of the chunk.
+     */
+    public double getChunkLeft(int index){
+        return bounds[0] + (double) index * CHUNK_WIDTH;
+    }
+
+    /**
+     * Returns the number of obstacles in the whole level.
+     * @return The number of obstacles, every obstacle ID is smaller than this.
+     */
+    public int getObstacleCount(){
+        return obstacleCount;
+    }
+
+    /**
+     * Returns the number of spike areas in the whole level.
+     * @return The number of spike areas, every spike ID is smaller than this.
+     */
+    public int getSpikeCount(){
+        return spikeCount;
+    }
+
+    /**
+     * Returns the stages of the level.
+     * @return An ArrayList that stores the stages in the order they are played.
+     */
+    public ArrayList<Stage> getStages(){
+        return stages;
+    }
+
+    /**
+     * Returns the point that the player starts and respawns at.
+     * @return The point in form [x, y].
+     */
+    public int[] getSpawn(){
+        return spawn;
+    }
+
+    /**
+     * Returns the button.
+     * @return The button in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[] getButton(){
+        return button;
+    }
+
+    /**
+     * Returns the floor of the button, the part of the button that stays when it is pressed.
+     * @return The button floor in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[] getButtonFloor(){
+        return buttonFloor;
+    }
+
+    /**
+     * Returns the closed door. Maps open their own copy of the door.
+     * @return The door in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[] getDoor(){
+        return door;
+    }
+
+    /**
+     * Returns the rectangles of the start pipe.
+     * @return The rectangles in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[][] getStartPipe(){
+        return startPipe;
+    }
+
+    /**
+     * Returns the rectangles of the exit pipe. The player enters the next stage through the second one.
+     * @return The rectangles in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[][] getExitPipe(){
+        return exitPipe;
+    }
+
+    /**
+     * Returns the path of the text file that the level was loaded from.
+     * @return The path of the file.
+     */
+    public String getFile(){
+        return file;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the text of the level, two levels with the same hash are the same.
+     * @return The hash, it must not be modified.
+     */
+    public byte[] getHash(){
+        return hash;
+    }
+
+    /**
+     * Returns the bounds of all rectangles of the level.
+     * @return The bounds in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[] getBounds(){
+        return bounds;
+    }
+}
@@ -0,0 +1,164 @@
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * LevelChunk is a vertical strip of the level with a fixed width. The large parts of a level (the obstacles
+ * and the spikes) are stored in chunks, so only the chunks near the player have to be in memory.
+ * A rectangle that crosses the border of two chunks is stored in both of them with the same ID,
+ * so the rectangles of neighbouring chunks can be merged without duplicates.
+ * Chunks are created by Level from its binary file. Their rectangles do not change after that, only the rendered
+ * background layers are added to them while the game is drawn.
+ */
+public class LevelChunk {
+
+    // Index of the chunk, chunk i covers the x coordinates in [xLeft, xLeft + width)
+    private int index;
+    private double xLeft;
+    private double width;
+    // Rectangles in form [xLeftDown , yLeftDown, xRightUp, yRightUp] and their IDs in the whole level
+    private int[][] obstacles;
+    private int[] obstacleIds;
+    private int[][] spikes;
+    private int[] spikeIds;
+    // Rotation of the spike picture counterclockwise in degrees for every spike area
+    private double[] spikeRotations;
+    // Bytes of the rectangles of the chunk, the background layers are added to this
+    private long rectangleBytes;
+    // Background layers of the chunk for the stages it was drawn in
+    private IdentityHashMap<Stage, BackgroundLayer> layers = new IdentityHashMap<>();
+    // Bytes of the background layers
+    private long layerBytes;
+
+    /**
+     * Constructor of the class. Reads the chunk from the binary file of its level.
+     * @param index Index of the chunk.
+     * @param xLeft Left boundary of the chunk.
+     * @param width Width of the chunk.
+     * @param buffer Buffer of the binary file, positioned at the beginning of the chunk.
+     */
+    public LevelChunk(int index, double xLeft, double width, ByteBuffer buffer){
+        this.index = index;
+        this.xLeft = xLeft;
+        this.width = width;
+        obstacleIds = new int[buffer.getInt()];
+        obstacles = new int[obstacleIds.length][];
+        for(int i = 0; i < obstacles.length; i ++){
+            obstacleIds[i] = buffer.getInt();
+            obstacles[i] = getRectangle(buffer);
+        }
+        spikeIds = new int[buffer.getInt()];
+        spikes = new int[spikeIds.length][];
+        spikeRotations = new double[spikeIds.length];
+        for(int i = 0; i < spikes.length; i ++){
+            spikeIds[i] = buffer.getInt();
+            spikes[i] = getRectangle(buffer);
+            spikeRotations[i] = buffer.getDouble();
+        }
+        // Every rectangle is an array of four integers with an array header, the IDs and rotations are added
+        rectangleBytes = (long) (obstacles.length + spikes.length) * (16 + 4 * Integer.BYTES)
+                + (long) (obstacles.length + spikes.length) * Integer.BYTES + spikes.length * Double.BYTES;
+    }
+
+    /**
+     * Reads a rectangle from the binary file.
+     * @param buffer Buffer of the binary file.
+     * @return The rectangle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    private static int[] getRectangle(ByteBuffer buffer){
+        return new int[]{buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()};
+    }
+
+    /**
+     * Returns the background layer of the chunk for a stage.
+     * @param stage The stage that is drawn.
+     * @return The layer, or null if the chunk was not rendered for the stage.
+     */
+    public BackgroundLayer getLayer(Stage stage){
+        return layers.get(stage);
+    }
+
+    /**
+     * Saves the background layer of the chunk for a stage, replacing the old one.
+     * @param stage The stage that the layer was rendered for.
+     * @param layer The rendered layer.
+     */
+    public void putLayer(Stage stage, BackgroundLayer layer){
+        BackgroundLayer old = layers.put(stage, layer);
+        if(old != null){
+            layerBytes -= old.getByteSize();
+        }
+        layerBytes += layer.getByteSize();
+    }
+
+    /**
+     * Returns the estimated memory that the chunk uses.
+     * @return The size of the rectangles and the rendered layers in bytes.
+     */
+    public long getByteSize(){
+        return rectangleBytes + layerBytes;
+    }
+
+    /**
+     * Returns the index of the chunk.
+     * @return The index of the chunk in its level.
+     */
+    public int getIndex(){
+        return index;
+    }
+
+    /**
+     * Returns the left boundary of the chunk.
+     * @return The smallest x coordinate of the chunk.
+     */
+    public double getXLeft(){
+        return xLeft;
+    }
+
+    /**
+     * Returns the width of the chunk.
+     * @return The width of the chunk.
+     */
+    public double getWidth(){
+        return width;
+    }
+
+    /**
+     * Returns the obstacles that overlap the chunk.
+     * @return The obstacles in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[][] getObstacles(){
+        return obstacles;
+    }
+
+    /**
+     * Returns the IDs of the obstacles, an obstacle has the same ID in every chunk that it overlaps.
+     * @return An array storing the ID of every obstacle of the chunk.
+     */
+    public int[] getObstacleIds(){
+        return obstacleIds;
+    }
+
+    /**
+     * Returns the spike areas that overlap the chunk.
+     * @return The spike areas in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public int[][] getSpikes(){
+        return spikes;
+    }
+
+    /**
+     * Returns the IDs of the spike areas, a spike area has the same ID in every chunk that it overlaps.
+     * @return An array storing the ID of every spike area of the chunk.
+     */
+    public int[] getSpikeIds(){
+        return spikeIds;
+    }
+
+    /**
+     * Returns the rotations of the spike pictures.
+     * @return The rotation of every spike area counterclockwise in degrees.
+     */
+    public double[] getSpikeRotations(){
+        return spikeRotations;
+    }
+}
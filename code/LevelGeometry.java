@@ -0,0 +1,137 @@
+/**
+ * LevelGeometry is the compiled form of a group of rectangles of the level.
+ * Every property of the rectangles is computed once and stored in its own primitive array,
+ * so the collision code only compares the player's coordinates with the stored values and
+ * the drawing code does not convert the rectangles again in every frame.
+ * The collision bounds are enlarged by the half size of the player, so a collision of the player
+ * with a rectangle is a test of the player's center against the bounds.
+ */
+public class LevelGeometry {
+
+    // Number of rectangles
+    private int count;
+    // StdDraw's {xCenter , yCenter, halfWidth, halfHeight} format, used when drawing the rectangles
+    private double[] xCenter;
+    private double[] yCenter;
+    private double[] halfWidth;
+    private double[] halfHeight;
+    // Collision bounds of the rectangles, enlarged by the half size of the player
+    private double[] left;
+    private double[] right;
+    private double[] bottom;
+    private double[] top;
+    // Half size of the player that the bounds are enlarged by
+    private double marginX;
+    private double marginY;
+
+    /**
+     * Constructor of the class. Compiles the rectangles.
+     * @param rectangles Rectangles in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     * @param marginX Distance that the collision bounds are enlarged in x direction on both sides.
+     * @param marginY Distance that the collision bounds are enlarged in y direction on both sides.
+     */
+    public LevelGeometry(int[][] rectangles, double marginX, double marginY){
+        this.count = rectangles.length;
+        this.marginX = marginX;
+        this.marginY = marginY;
+        xCenter = new double[count];
+        yCenter = new double[count];
+        halfWidth = new double[count];
+        halfHeight = new double[count];
+        left = new double[count];
+        right = new double[count];
+        bottom = new double[count];
+        top = new double[count];
+        for(int i = 0; i < count; i ++){
+            setRectangle(i, rectangles[i]);
+        }
+    }
+
+    /**
+     * Replaces a rectangle. Used for the rectangles that move, such as the door.
+     * @param i Index of the rectangle.
+     * @param rectangle New coordinates in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     */
+    public void setRectangle(int i, int[] rectangle){
+        xCenter[i] = (rectangle[0] + rectangle[2]) / 2.0;
+        yCenter[i] = (rectangle[1] + rectangle[3]) / 2.0;
+        halfWidth[i] = Math.abs(rectangle[0] - rectangle[2]) / 2.0;
+        halfHeight[i] = Math.abs(rectangle[1] - rectangle[3]) / 2.0;
+        left[i] = xCenter[i] - halfWidth[i] - marginX;
+        right[i] = xCenter[i] + halfWidth[i] + marginX;
+        bottom[i] = yCenter[i] - halfHeight[i] - marginY;
+        top[i] = yCenter[i] + halfHeight[i] + marginY;
+    }
+
+    /**
+     * Returns the number of rectangles.
+     * @return The number of rectangles.
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Returns the x-centers of the rectangles.
+     * @return An array storing the x-center of every rectangle.
+     */
+    public double[] getXCenter(){
+        return xCenter;
+    }
+
+    /**
+     * Returns the y-centers of the rectangles.
+     * @return An array storing the y-center of every rectangle.
+     */
+    public double[] getYCenter(){
+        return yCenter;
+    }
+
+    /**
+     * Returns the halfwidths of the rectangles.
+     * @return An array storing the halfwidth of every rectangle.
+     */
+    public double[] getHalfWidth(){
+        return halfWidth;
+    }
+
+    /**
+     * Returns the halfheights of the rectangles.
+     * @return An array storing the halfheight of every rectangle.
+     */
+    public double[] getHalfHeight(){
+        return halfHeight;
+    }
+
+    /**
+     * Returns the left collision bounds of the rectangles.
+     * @return An array storing the enlarged left boundary of every rectangle.
+     */
+    public double[] getLeft(){
+        return left;
+    }
+
+    /**
+     * Returns the right collision bounds of the rectangles.
+     * @return An array storing the enlarged right boundary of every rectangle.
+     */
+    public double[] getRight(){
+        return right;
+    }
+
+    /**
+     * Returns the lower collision bounds of the rectangles.
+     * @return An array storing the enlarged lower boundary of every rectangle.
+     */
+    public double[] getBottom(){
+        return bottom;
+    }
+
+    /**
+     * Returns the upper collision bounds of the rectangles.
+     * @return An array storing the enlarged upper boundary of every rectangle.
+     */
+    public double[] getTop(){
+        return top;
+    }
+}
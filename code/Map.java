@@ -1,5 +1,8 @@
 import java.awt.*;
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Map class constitutes the game area. It provides methods that move the player on the map,
@@ -11,59 +14,30 @@ public class Map {
     private Stage stage;
     private Player player;
 
-    // Stores the obstacles that the player collides in each frame
-    private ArrayList<int[]> collidingObstacles = new ArrayList<>();
-
-    // Obstacles List (formant is int[] = [xLeftDown , yLeftDown, xRightUp, yRightUp])
-    private int[][] obstacles = {
-            new int[]{0, 120, 120, 270}, new int[]{0, 270, 168, 330},
-            new int[]{0, 330, 30, 480}, new int[]{0, 480, 180, 600},
-            new int[]{180, 570, 680, 600}, new int[]{270, 540, 300, 570},
-            new int[]{590, 540, 620, 570}, new int[]{680, 510, 800, 600},
-            new int[]{710, 450, 800, 510}, new int[]{740, 420, 800, 450},
-            new int[]{770, 300, 800, 420}, new int[]{680, 240, 800, 300},
-            new int[]{680, 300, 710, 330}, new int[]{770, 180, 800, 240},
-            new int[]{0, 120, 800, 150}, new int[]{560, 150, 800, 180},
-            new int[]{530, 180, 590, 210}, new int[]{530, 210, 560, 240},
-            new int[]{320, 150, 440, 210}, new int[]{350, 210, 440, 270},
-            new int[]{220, 270, 310, 300}, new int[]{360, 360, 480, 390},
-            new int[]{530, 310, 590, 340}, new int[]{560, 400, 620, 430}};
-
-    // Button Coordinates
-    private int[] button = new int[]{400, 390, 470, 410};
-
-    // Color of the button
-    private Color buttonColor = new Color(255,0,0);
-
-    // Button Floor Coordinates
-    private int[] buttonFloor = new int[]{400, 390, 470, 400};
-
-    // Color of the button floor
-    private Color buttonFloorColor = new Color(0,0,0);
-
-    // Start Pipe Coordinates for Drawing
-    private int[][] startPipe = {new int[]{115, 450, 145, 480},
-            new int[]{110, 430, 150, 450}};
-
-    // Exit Pipe Coordinates for Drawing
-    private int[][] exitPipe = {new int[]{720, 175, 740, 215},
-            new int[]{740, 180, 770, 210}};
-
-    // Color of the pipes
-    private Color pipeColor = StdDraw.ORANGE;
-
-    // Coordinates of spike areas
-    private int[][] spikes = {
-            new int[]{30, 333, 50, 423}, new int[]{121, 150, 207, 170},
-            new int[]{441, 150, 557, 170}, new int[]{591, 180, 621, 200},
-            new int[]{750, 301, 770, 419}, new int[]{680, 490, 710, 510},
-            new int[]{401, 550, 521, 570}};
-
-    // Door Coordinates
-    private int[] door = new int[]{685, 180, 700, 240};
-
-    // Color of the door
-    private Color doorColor = new Color(0,128,0);
+    // The most collisions that are resolved in one tick. Every collision stops the movement along one axis,
+    // so after two collisions the player cannot move anymore, the extra steps are only a safety margin.
+    // BatchSimulation resolves its collisions with the same value
+    static final int MAX_COLLISION_STEPS = 4;
+    // Result of the last checkCollision call: the fraction of the movement that happens before the collision
+    // and whether the collision stops the movement in y direction (top or bottom surface) or in x direction (sides)
+    private double collisionTime;
+    private boolean isVerticalCollision;
+
+    // The level of the map, the obstacles and the spikes are read from its chunks
+    private Level level;
+    // Rectangles of the level in form [xLeftDown , yLeftDown, xRightUp, yRightUp], loaded from the level file
+    private int[] button;
+    private int[] buttonFloor;
+    private int[][] startPipe;
+    private int[][] exitPipe;
+    // Point that the player respawns at, the same for every stage
+    private int[] spawnPoint;
+    // The rules of the stage compiled for the ticks
+    private StageRules rules;
+    // Door Coordinates, every map opens its own copy of the door of the level
+    private int[] door;
+    // Upper edge of the closed door
+    private int closedDoorTop;
 
     // How many times the button is pressed
     private int buttonPressNum = 0;
@@ -74,6 +48,72 @@ public class Map {
     // Whether the player hit a spike
     private boolean isSpikeHit = false;
 
+    // Compiled forms of the rectangles, every collision test and drawing reads these instead of the arrays above
+    // Obstacles of the active chunks and the door, the door has the index doorIndex and its bounds change
+    // while it opens
+    private LevelGeometry solids;
+    private int doorIndex;
+    // Spikes of the active chunks
+    private LevelGeometry spikeGeometry;
+    // Start pipe, exit pipe, button and button floor are only drawn
+    private LevelGeometry pipeGeometry;
+    private LevelGeometry buttonGeometry;
+    // Signature of the rectangles that every background layer has, the layers are rendered again if it changes
+    private int levelSignature;
+    // Bounds of the areas that the center of the player must be in to press the button and to enter the exit pipe
+    private double buttonLeft;
+    private double buttonRight;
+    private double buttonBottom;
+    private double buttonTop;
+    private double exitLeft;
+    private double exitRight;
+    private double exitBottom;
+    private double exitTop;
+    // Half size of the player that the collision bounds are enlarged by
+    private double marginX;
+    private double marginY;
+
+    // The collision tests use the chunks in [activeFrom, activeTo]: the chunk of the player and its neighbours.
+    // Their rectangles are merged into solids and spikeGeometry, which are compiled again when the player
+    // moves to another chunk
+    private int activeFrom = -1;
+    private int activeTo = -1;
+    // Chunks that were visible in the last frame
+    private volatile int visibleFrom = 0;
+    private volatile int visibleTo = 0;
+    // Number of chunks on both sides of the active and visible chunks that are read in the background
+    private static final int PREFETCH_CHUNKS = 2;
+    // Rectangles that were already merged in the current merge, since a rectangle may be in more than one chunk
+    private int[] mergedObstacles;
+    private int[] mergedSpikes;
+    private int mergeNumber = 0;
+
+    // Size of the cells of the collision grids, also used by the grids of BatchSimulation
+    static final double GRID_CELL_SIZE = 40;
+    // Index of the obstacles and the door
+    private CollisionGrid obstacleGrid;
+    // Index of the spikes
+    private CollisionGrid spikeGrid;
+    // Stores the results of the grid queries, it is reused in every query
+    private int[] candidates;
+    // Number of rectangles that the grid queries returned since the map was created, read by the frame statistics
+    private long collisionCandidates = 0;
+
+    /**
+     * Colors of the map elements. They are kept in a nested class so that they are only created
+     * when the map is drawn for the first time, a headless simulation never loads them.
+     */
+    private static class Colors {
+        // Color of the button
+        static final Color BUTTON = new Color(255,0,0);
+        // Color of the button floor
+        static final Color BUTTON_FLOOR = new Color(0,0,0);
+        // Color of the pipes
+        static final Color PIPE = Color.ORANGE;
+        // Color of the door
+        static final Color DOOR = new Color(0,128,0);
+    }
+
     /**
      * Constructor of the Map class.
      * @param stage Stage object of the map.
@@ -83,45 +123,122 @@ public class Map {
 
         this.stage = stage;
         this.player = player;
-    }
-
-    // Next four methods convert  [xLeftDown , yLeftDown, xRightUp, yRightUp] format to
-    // StdDraw's familiar {xCenter , yCenter, halfWidth, halfHeight} format
-    // This methods are particularly useful when drawing rectangles or dealing with methods involving rectangles
-    /**
-     * Finds the x-center of the rectangular obstacle.
-     * @param coordinates Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The x-center of the obstacle.
-     */
-    private double xCenter(int[] coordinates){
-        return (coordinates[0] + coordinates[2]) / 2.0;
-    }
-
-    /**
-     * Finds the y-center of the rectangular obstacle.
-     * @param coordinates Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The y-center of the obstacle.
-     */
-    private double yCenter(int[] coordinates){
-        return (coordinates[1] + coordinates[3]) / 2.0;
+        this.rules = stage.getRules();
+
+        level = stage.getLevel();
+        button = level.getButton();
+        buttonFloor = level.getButtonFloor();
+        startPipe = level.getStartPipe();
+        exitPipe = level.getExitPipe();
+        spawnPoint = level.getSpawn();
+        door = level.getDoor().clone();
+        closedDoorTop = door[3];
+
+        // The rectangles are compiled once, the collision bounds are enlarged by the half size of the player
+        // so that the collision tests only need the center of the player
+        marginX = player.getWidth() / 2;
+        marginY = player.getHeight() / 2;
+        int[][] pipes = Arrays.copyOf(startPipe, startPipe.length + exitPipe.length);
+        System.arraycopy(exitPipe, 0, pipes, startPipe.length, exitPipe.length);
+        pipeGeometry = new LevelGeometry(pipes, 0, 0);
+        // Only the part of the button above its floor is drawn over the background layer
+        buttonGeometry = new LevelGeometry(new int[][]{
+                new int[]{button[0], buttonFloor[3], button[2], button[3]}, buttonFloor}, 0, 0);
+        levelSignature = Arrays.deepHashCode(new Object[]{startPipe, exitPipe, buttonFloor});
+
+        // The player presses the button and enters the exit pipe when its center is above the lower edge
+        // by its half height, so these areas are not enlarged downwards
+        LevelGeometry triggers = new LevelGeometry(new int[][]{button, exitPipe[1]}, marginX, marginY);
+        buttonLeft = triggers.getLeft()[0];
+        buttonRight = triggers.getRight()[0];
+        buttonBottom = triggers.getYCenter()[0] - triggers.getHalfHeight()[0] + marginY;
+        buttonTop = triggers.getTop()[0];
+        exitLeft = triggers.getLeft()[1];
+        exitRight = triggers.getRight()[1];
+        exitBottom = triggers.getYCenter()[1] - triggers.getHalfHeight()[1] + marginY;
+        exitTop = triggers.getTop()[1];
+
+        mergedObstacles = new int[level.getObstacleCount()];
+        mergedSpikes = new int[level.getSpikeCount()];
+        updateActiveChunks(player.getX());
     }
 
     /**
-     * Finds the halfwidth of the rectangular obstacle.
-     * @param coordinates Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The halfwidth of the obstacle.
+     * Makes the chunk that contains the given x coordinate and its neighbours the active chunks.
+     * If they are already active, nothing changes, so this is called before every collision test of a tick.
+     * A neighbour chunk is as wide as the furthest the player can move in a tick, so the active chunks contain
+     * every rectangle that the player can touch during the tick.
+     * @param x The x coordinate of the player.
      */
-    private double halfWidth(int[] coordinates){
-        return Math.abs((coordinates[0] - coordinates[2])) / 2.0;
+    private void updateActiveChunks(double x){
+        int chunk = level.getChunkIndex(x);
+        int from = Math.max(0, chunk - 1);
+        int to = Math.min(level.getChunkCount() - 1, chunk + 1);
+        if(from == activeFrom && to == activeTo){
+            return;
+        }
+        activeFrom = from;
+        activeTo = to;
+        mergeActiveChunks();
+        // The next chunks are read in the background, so they are in memory before the player reaches them
+        level.prefetch(from - PREFETCH_CHUNKS, to + PREFETCH_CHUNKS);
+        level.trim(Math.min(activeFrom, visibleFrom), Math.max(activeTo, visibleTo));
     }
 
     /**
-     * Finds the halfheight of the rectangular obstacle.
-     * @param coordinates Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The halfheight of the obstacle.
+     * Merges the obstacles and the spikes of the active chunks, compiles them and builds their grids.
+     * The rectangles are ordered by their IDs, so they are tested in the order of the level file.
      */
-    private double halfHeight(int[] coordinates){
-        return Math.abs((coordinates[1] - coordinates[3])) / 2.0;
+    private void mergeActiveChunks(){
+        mergeNumber ++;
+        int[] obstacleIds = new int[mergedObstacles.length];
+        int[][] obstacles = new int[mergedObstacles.length][];
+        int obstacleCount = 0;
+        int[] spikeIds = new int[mergedSpikes.length];
+        int[][] spikes = new int[mergedSpikes.length][];
+        int spikeCount = 0;
+        for(int index = activeFrom; index <= activeTo; index ++){
+            LevelChunk chunk = level.getChunk(index);
+            for(int i = 0; i < chunk.getObstacles().length; i ++){
+                int id = chunk.getObstacleIds()[i];
+                if(mergedObstacles[id] != mergeNumber){
+                    mergedObstacles[id] = mergeNumber;
+                    obstacleIds[obstacleCount ++] = id;
+                    obstacles[id] = chunk.getObstacles()[i];
+                }
+            }
+            for(int i = 0; i < chunk.getSpikes().length; i ++){
+                int id = chunk.getSpikeIds()[i];
+                if(mergedSpikes[id] != mergeNumber){
+                    mergedSpikes[id] = mergeNumber;
+                    spikeIds[spikeCount ++] = id;
+                    spikes[id] = chunk.getSpikes()[i];
+                }
+            }
+        }
+        Arrays.sort(obstacleIds, 0, obstacleCount);
+        Arrays.sort(spikeIds, 0, spikeCount);
+
+        // The door is the last one of the solids
+        int[][] solidRectangles = new int[obstacleCount + 1][];
+        for(int i = 0; i < obstacleCount; i ++){
+            solidRectangles[i] = obstacles[obstacleIds[i]];
+        }
+        doorIndex = obstacleCount;
+        solidRectangles[doorIndex] = level.getDoor();
+        int[][] spikeRectangles = new int[spikeCount][];
+        for(int i = 0; i < spikeCount; i ++){
+            spikeRectangles[i] = spikes[spikeIds[i]];
+        }
+        solids = new LevelGeometry(solidRectangles, marginX, marginY);
+        spikeGeometry = new LevelGeometry(spikeRectangles, marginX, marginY);
+
+        // The grids are built from the compiled rectangles.
+        // The door is indexed with its closed size, the collision tests check its current size
+        obstacleGrid = new CollisionGrid(solids, GRID_CELL_SIZE);
+        spikeGrid = new CollisionGrid(spikeGeometry, GRID_CELL_SIZE);
+        candidates = new int[Math.max(solids.getCount(), spikeGeometry.getCount())];
+        solids.setRectangle(doorIndex, door);
     }
 
     /**
@@ -132,9 +249,15 @@ public class Map {
      * false if it is not.
      */
     private boolean isTouchingGround(double x, double y){
-        for(int[] obstacle : obstacles){
-            if(Math.abs(x - xCenter(obstacle)) < halfWidth(obstacle) + player.getWidth() / 2 &&
-               y == yCenter(obstacle) + halfHeight(obstacle) + player.getHeight() / 2){
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] top = solids.getTop();
+        int count = obstacleGrid.query(x, y, x, y, candidates);
+        collisionCandidates += count;
+        for(int k = 0; k < count; k ++){
+            int i = candidates[k];
+            // The door is not a ground
+            if(i != doorIndex && left[i] < x && x < right[i] && y == top[i]){
                 return true;
             }
         }
@@ -143,16 +266,21 @@ public class Map {
 
     /**
      * Checks if the player is in contact with the bottom surface of an obstacle.
-     * This method is only used in stage 5 ("Inbetween gravitii").
+     * This method is only used where the gravity points upwards.
      * @param x The x coordinate of the player.
      * @param y The y coordinate of the player.
      * @return true if the player is touching to the bottom of one of the obstacles.
      * false if it is not.
      */
     private boolean isTouchingTop(double x, double y){
-        for(int[] obstacle : obstacles){
-            if(Math.abs(x - xCenter(obstacle)) < halfWidth(obstacle) + player.getWidth() / 2 &&
-               y == yCenter(obstacle) - halfHeight(obstacle) - player.getHeight() / 2){
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] bottom = solids.getBottom();
+        int count = obstacleGrid.query(x, y, x, y, candidates);
+        collisionCandidates += count;
+        for(int k = 0; k < count; k ++){
+            int i = candidates[k];
+            if(i != doorIndex && left[i] < x && x < right[i] && y == bottom[i]){
                 return true;
             }
         }
@@ -161,16 +289,11 @@ public class Map {
 
     /**
      * Implements gravity mechanism by updating velocityY.
+     * @param factor The gravity at the player as a multiple of the gravity of the stage, negative if it points
+     *               upwards.
      */
-    private void gravity(){
-        player.setVelocityY(player.getVelocityY() + stage.getGravity());
-    }
-
-    /**
-     * // Reverses gravity mechanism for stage 5("Inbetween gravitii").
-     */
-    private void reverseGravity(){
-        player.setVelocityY(player.getVelocityY() - 2 * stage.getGravity());
+    private void gravity(float factor){
+        player.setVelocityY(player.getVelocityY() + factor * stage.getGravity());
     }
 
     /**
@@ -191,526 +314,265 @@ public class Map {
 
     /**
      * Finds y coordinate of the successive frame.
-     * If up key is pressed and the player is touching the ground, y velocity will be set to its value
+     * If the player jumps and is touching the ground, y velocity will be set to its value
      * in the current stage, which handles the jump mechanism.
-     * @param direction It is set to 'U' if the up key is pressed, 'N' otherwise.
+     * @param direction It is set to 'U' if the player jumps, 'N' otherwise. The rules of the stage give it
+     *                  for the input, in stage 3 ("a bit bouncy here") it is always 'U'.
      */
     public void updateYCoordinate(char direction){
-        if((direction == 'U' && isTouchingGround(player.getX(), player.getY()) ||
-          stage.getStageNumber() == 2 && isTouchingGround(player.getX(), player.getY())) &&
-           player.getVelocityY() <= 0){
+        updateActiveChunks(player.getX());
+        if(direction == 'U' && isTouchingGround(player.getX(), player.getY()) && player.getVelocityY() <= 0){
             player.setVelocityY(stage.getVelocityY());
         }
+        // The gravity field of the stage gives the gravity at the next position of the player. In stage 5
+        // ("Inbetween gravitii") it points upward with a doubled magnitude in every second column of 25 units,
+        // so the player must be cautious in order not to hit the spikes at the top
+        float factor = rules.getGravityField().getFactor(player.getNextX(), player.getY());
         // If the player is not touching to the ground, then its y velocity will be updated by the gravity value
-        if(stage.getStageNumber() != 4){
+        if(factor > 0){
             if(!isTouchingGround(player.getNextX(), player.getY() + player.getVelocityY())){
-                gravity();
+                gravity(factor);
             }
         }
-        // If the current stage is stage 5 ("Inbetween gravitii"), gravity mechanism will follow different principles
-        else if(stage.getStageNumber() == 4){
-            // If next x coordinate of the player is in intervals [25,50) ,[75,100), [125,150) ... , [775,790]
-            // the gravity points downwards, as it should normally be
-            if(!isTouchingGround(player.getNextX(), player.getY() + player.getVelocityY()) &&
-              ((int)player.getNextX() / 25) % 2 == 1){
-                gravity();
-            }
-            // However, if next x coordinate of the player is in intervals [0,25) ,[50,75), [100,125) ... , [750,775)
-            // the gravity points upward with a doubled magnitude, so the player must be cautious in order not to hit
-            // the spikes at the top
-            // The reversed gravity areas are indicated with stripes to facilitate the gameplay
-            else if(!isTouchingTop(player.getNextX(), player.getY() + player.getVelocityY()) &&
-                    ((int)player.getNextX() / 25) % 2 == 0){
-                reverseGravity();
+        // Where the gravity points upward, the player stops at the bottom of the obstacles instead
+        else if(factor < 0){
+            if(!isTouchingTop(player.getNextX(), player.getY() + player.getVelocityY())){
+                gravity(factor);
             }
         }
         player.setNextY(player.getY() + player.getVelocityY());
     }
 
-    // Next four methods determine the collision boundaries of the obstacles
-    // If the player comes to one of the boundaries, it touches the obstacle and when
-    // it crosses one of the boundaries, it enters inside the obstacle
     /**
-     * Finds the right boundary of the rectangular obstacle.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The right boundary of the obstacle.
+     * Detects the first obstacle that the player hits while it moves from (x, y) by (dx, dy).
+     * The movement is swept, so the player cannot pass through an obstacle even if it moves further than the
+     * size of the obstacle in one tick. The time of the collision with every obstacle is found by entryTime.
+     * The time and the axis of the first collision are saved to collisionTime and isVerticalCollision.
+     * @param x The x coordinate that the movement starts from.
+     * @param y The y coordinate that the movement starts from.
+     * @param dx The displacement in x direction.
+     * @param dy The displacement in y direction.
+     * @return The index of the obstacle in the solids geometry, or -1 if the player does not hit any obstacle.
      */
-    private double rightBoundary(int[] obstacle){
-        return xCenter(obstacle) + halfWidth(obstacle) + player.getWidth() / 2;
-    }
-
-    /**
-     * Finds the left boundary of the rectangular obstacle.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The left boundary of the obstacle.
-     */
-    private double leftBoundary(int[] obstacle){
-        return xCenter(obstacle) - halfWidth(obstacle) - player.getWidth() / 2;
-    }
-
-    /**
-     * Finds the upper boundary of the rectangular obstacle.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The upper boundary of the obstacle.
-     */
-    private double topBoundary(int[] obstacle){
-        return yCenter(obstacle) + halfHeight(obstacle) + player.getHeight() / 2;
-    }
-
-    /**
-     * Finds the lower boundary of the rectangular obstacle.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return The lower boundary of the obstacle.
-     */
-    private double bottomBoundary(int[] obstacle){
-        return yCenter(obstacle) - halfHeight(obstacle) - player.getHeight() / 2;
-    }
-
-    /**
-     * Detects the collisions with the obstacles and temporarily saves the obstacles that
-     * the player collides to collidingObstacles (collidingObstacles is cleared in every frame).
-     */
-    private void checkCollision(){
-        collidingObstacles.clear();
-        for(int[] obstacle : obstacles){
-            // If the player is colliding with an obstacle, player's coordinates must be enclosed by boundaries
-            // of that obstacle. In this case, the obstacle is added to collidingObstacles
-            if(Math.abs(player.getNextX() - xCenter(obstacle)) < halfWidth(obstacle) + player.getWidth() / 2 &&
-                    Math.abs(player.getNextY() - yCenter(obstacle)) < halfHeight(obstacle) + player.getHeight() / 2){
-                collidingObstacles.add(obstacle);
+    public int checkCollision(double x, double y, double dx, double dy){
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] bottom = solids.getBottom();
+        double[] top = solids.getTop();
+        int hit = -1;
+        collisionTime = 1;
+        // Only the obstacles in the cells that the movement passes through are considered
+        int count = obstacleGrid.query(Math.min(x, x + dx), Math.min(y, y + dy),
+                Math.max(x, x + dx), Math.max(y, y + dy), candidates);
+        collisionCandidates += count;
+        for(int k = 0; k < count; k ++){
+            int i = candidates[k];
+            // If the door is completely open (which means if its length is 0) it will be ignored
+            if(i == doorIndex && solids.getHalfHeight()[doorIndex] <= 0){
+                continue;
             }
-        }
-        // Since the door is an obstacle that is not in obstacles array, it must also be considered
-        // If the door is completely open (which means if its length is 0) it will be ignored
-        if(halfHeight(door) > 0){
-            if(Math.abs(player.getNextX() - xCenter(door)) < halfWidth(door) + player.getWidth() / 2 &&
-               Math.abs(player.getNextY() - yCenter(door)) < halfHeight(door) + player.getHeight() / 2){
-                collidingObstacles.add(door);
+            double entry = entryTime(left[i], right[i], bottom[i], top[i], x, y, dx, dy);
+            if(entry < collisionTime){
+                hit = i;
+                collisionTime = entry;
             }
         }
-    }
-
-    /**
-     * Checks the collisions with spikes. The collision mechanism is similar with obstacles.
-     * @return true if the player's coordinates are enclosed by one of the spikes' boundaries,
-     * false if they are not.
-     */
-    private boolean spikeCollision(){
-        for(int[] spike : spikes){
-            if(Math.abs(player.getX() - xCenter(spike)) < halfWidth(spike) + player.getWidth() / 2 &&
-               Math.abs(player.getY() - yCenter(spike)) < halfHeight(spike) + player.getHeight() / 2){
-                return true;
-            }
+        if(hit >= 0){
+            isVerticalCollision = isVerticalEntry(left[hit], right[hit], bottom[hit], top[hit], x, y, dx, dy);
         }
-        return false;
+        return hit;
     }
 
     /**
-     * Checks the collisions when the player is moving in both axes.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     * @return "Side" if the player collides the obstacle from sides.
-     * "Top/Bottom" if the collision happens at the top or bottom surface of the obstacle.
+     * Finds the time that a player moving from (x, y) by (dx, dy) gets inside a rectangle, as a fraction of the
+     * movement. The times that the player enters and leaves the boundaries are found separately on both axes.
+     * The player is inside the rectangle when it is between the boundaries on both axes, so it hits the rectangle
+     * at the later entry time if that is before both exit times. BatchSimulation resolves its collisions with this
+     * method too, so both give the same result.
+     * @param left Left boundary of the rectangle, grown by the half width of the player.
+     * @param right Right boundary of the rectangle, grown by the half width of the player.
+     * @param bottom Lower boundary of the rectangle, grown by the half height of the player.
+     * @param top Upper boundary of the rectangle, grown by the half height of the player.
+     * @param x The x coordinate that the movement starts from.
+     * @param y The y coordinate that the movement starts from.
+     * @param dx The displacement in x direction.
+     * @param dy The displacement in y direction.
+     * @return The time of the collision, or Double.POSITIVE_INFINITY if the player does not hit the rectangle.
      */
-    private String twoDCollisionType(int[] obstacle){
-        double updateY;
-        double boundaryX;
-        // If player moves right
-        if(player.getNextX() > player.getX()){
-            boundaryX = leftBoundary(obstacle);
+    static double entryTime(double left, double right, double bottom, double top, double x, double y,
+                            double dx, double dy){
+        double entryX;
+        double exitX;
+        if(dx > 0){
+            entryX = (left - x) / dx;
+            exitX = (right - x) / dx;
+        }
+        else if(dx < 0){
+            entryX = (right - x) / dx;
+            exitX = (left - x) / dx;
+        }
+        // If the player does not move in x direction, it must already be between the side boundaries
+        else if(left < x && x < right){
+            entryX = Double.NEGATIVE_INFINITY;
+            exitX = Double.POSITIVE_INFINITY;
         }
         else{
-            boundaryX = rightBoundary(obstacle);
+            return Double.POSITIVE_INFINITY;
         }
-        updateY = (player.getNextX() - boundaryX) * (player.getNextY() - player.getY()) /
-                (player.getNextX() - player.getX());
-
-        if(Math.abs(player.getNextY() - updateY - yCenter(obstacle)) >= halfHeight(obstacle) + player.getHeight() / 2){
-            return "Top/Bottom";
+        double entryY;
+        double exitY;
+        if(dy > 0){
+            entryY = (bottom - y) / dy;
+            exitY = (top - y) / dy;
         }
-        else{
-            return "Side";
+        else if(dy < 0){
+            entryY = (top - y) / dy;
+            exitY = (bottom - y) / dy;
         }
-    }
-
-    /**
-     * Handles the collision when the player is moving in both axes. Updates the player's new coordinate
-     * candidates nextX and nextY.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
-     */
-    private void twoDCollision(int[] obstacle){
-        double updateY;
-        double boundaryX;
-        // If the player moves right, the left boundary will be considered
-        if(player.getNextX() > player.getX()){
-            boundaryX = leftBoundary(obstacle);
+        else if(bottom < y && y < top){
+            entryY = Double.NEGATIVE_INFINITY;
+            exitY = Double.POSITIVE_INFINITY;
         }
-        // If the player moves left, the left boundary will be considered
         else{
-            boundaryX = rightBoundary(obstacle);
-        }
-        updateY = (player.getNextX() - boundaryX) * (player.getNextY() - player.getY()) /
-                (player.getNextX() - player.getX());
-        // Updating the player's coordinates by using some trigonometry
-        if(Math.abs(player.getNextY() - updateY - yCenter(obstacle)) >= halfHeight(obstacle) + player.getHeight() / 2){
-            double updateX;
-            double boundaryY;
-            if(player.getNextY() > player.getY()){
-                boundaryY = bottomBoundary(obstacle);
-            }
-            else{
-                boundaryY = topBoundary(obstacle);
-            }
-            updateX = (player.getNextY() - boundaryY) * (player.getNextX() - player.getX()) /
-                    (player.getNextY() - player.getY());
-            player.setNextX(player.getNextX() - updateX);
-            player.setNextY(boundaryY);
-            player.setVelocityY(0);
+            return Double.POSITIVE_INFINITY;
         }
-        else{
-            player.setNextX(boundaryX);
-            player.setNextY(player.getNextY() - updateY + player.getVelocityY());
+        double entry = Math.max(entryX, entryY);
+        // Touching a boundary is not a collision, the player must get inside the rectangle.
+        // A rectangle that the player is already inside of is ignored, so the player can leave it
+        if(entry >= 0 && entry < Math.min(exitX, exitY)){
+            return entry;
         }
+        return Double.POSITIVE_INFINITY;
     }
 
-    // Handles the collisions that happen when the player is only moving in x direction
-
     /**
-     * Handles the collisions that happen when the player is only moving in x direction. Updates the
-     * player's new x coordinate candidate nextX.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     * Finds the axis that a player moving from (x, y) by (dx, dy) hits a rectangle from, with the entry times of
+     * entryTime. Only called for the rectangle that is hit first, so the axis is not found for every candidate.
+     * @param left Left boundary of the rectangle, grown by the half width of the player.
+     * @param right Right boundary of the rectangle, grown by the half width of the player.
+     * @param bottom Lower boundary of the rectangle, grown by the half height of the player.
+     * @param top Upper boundary of the rectangle, grown by the half height of the player.
+     * @param x The x coordinate that the movement starts from.
+     * @param y The y coordinate that the movement starts from.
+     * @param dx The displacement in x direction.
+     * @param dy The displacement in y direction.
+     * @return true if the player hits the top or the bottom surface, false if it hits a side.
      */
-    private void horizontalCollision(int[] obstacle){
-        double boundaryX;
-        if(player.getNextX() > player.getX()){
-            boundaryX = leftBoundary(obstacle);
-        }
-        else{
-            boundaryX = rightBoundary(obstacle);
-        }
-        player.setNextX(boundaryX);
+    static boolean isVerticalEntry(double left, double right, double bottom, double top, double x, double y,
+                                   double dx, double dy){
+        double entryX = dx > 0 ? (left - x) / dx : dx < 0 ? (right - x) / dx : Double.NEGATIVE_INFINITY;
+        double entryY = dy > 0 ? (bottom - y) / dy : dy < 0 ? (top - y) / dy : Double.NEGATIVE_INFINITY;
+        // If the player reaches a corner exactly, it lands on the rectangle
+        return entryY >= entryX;
     }
 
     /**
-     * Handles the collisions that happen when the player is only moving in y direction. Updates the
-     * player's new y coordinate candidate nextY.
-     * @param obstacle Coordinates of the obstacle in form [xLeftDown , yLeftDown, xRightUp, yRightUp].
+     * Checks the collisions with spikes. The collision mechanism is similar with obstacles.
+     * @return true if the player's coordinates are enclosed by one of the spikes' boundaries,
+     * false if they are not.
      */
-    private void verticalCollision(int[] obstacle){
-        double boundaryY;
-        if(player.getNextY() > player.getY()){
-            boundaryY = bottomBoundary(obstacle);
-        }
-        else{
-            boundaryY = topBoundary(obstacle);
+    private boolean spikeCollision(){
+        double x = player.getX();
+        double y = player.getY();
+        double[] left = spikeGeometry.getLeft();
+        double[] right = spikeGeometry.getRight();
+        double[] bottom = spikeGeometry.getBottom();
+        double[] top = spikeGeometry.getTop();
+        int count = spikeGrid.query(x, y, x, y, candidates);
+        collisionCandidates += count;
+        for(int k = 0; k < count; k ++){
+            int i = candidates[k];
+            if(left[i] < x && x < right[i] && bottom[i] < y && y < top[i]){
+                return true;
+            }
         }
-        player.setNextY(boundaryY);
-        player.setVelocityY(0);
+        return false;
     }
 
     /**
-     * Moves player in the map. Harnesses the collision methods that have defined above.
+     * Moves player in the map. The player moves from its current coordinates towards nextX and nextY,
+     * and every obstacle on the way stops the movement along the axis that it is hit from,
+     * while the rest of the movement continues along the other axis.
+     * This works for any number of obstacles that the player touches at the same time.
      */
     public void movePlayer(){
         // By default, the code assumes that the player does not hit a spike
         isSpikeHit = false;
-
-        // Checking the possible collisions in that frame
-        checkCollision();
-
-        // If there are no collisions, the only thing that should be done is replacing x and y coordinates
-        // by nextX and nextY, there are no need to make further adjustments
-        if(collidingObstacles.isEmpty()){
-            player.setX(player.getNextX());
-            player.setY(player.getNextY());
-            // After updating the coordinates, the spikeCollision searches for a possible hit with a spike.
-            // If there is a hit, the player respawns
-            // spikeCollision is called after every possible coordinate update
-            if(spikeCollision()){
-                isSpikeHit = true;
-                buttonPressNum = 0;
-                door[3] = 240;
-                player.respawn(new int[]{130,465});
-                player.setFacingDirection('R');
-            }
-        }
-
-        // If the player is colliding with only one obstacle, it may be only moving in x direction,
-        // which corresponds to a horizontal collision, or in y direction, which corresponds to a vertical collision,
-        // or in both directions, which leads to a 2-dimensional collision
-        // The code checks the next and current coordinates of the player and decides which collision type it should apply
-        else if(collidingObstacles.size() == 1){
-            if(player.getX() != player.getNextX() && player.getY() != player.getNextY()){
-                twoDCollision(collidingObstacles.getFirst());
-            }
-            else if(player.getX() != player.getNextX() && player.getY() == player.getNextY()){
-                horizontalCollision(collidingObstacles.getFirst());
+        updateActiveChunks(player.getX());
+        // The flight recorder event is only created while a recording is running
+        GameEvents.Move moveEvent = GameEvents.MOVE.isEnabled() ? new GameEvents.Move() : null;
+        if(moveEvent != null){
+            moveEvent.begin();
+            moveEvent.fromX = player.getX();
+            moveEvent.fromY = player.getY();
+            moveEvent.candidates = collisionCandidates;
+        }
+        int collisions = 0;
+
+        double x = player.getX();
+        double y = player.getY();
+        double dx = player.getNextX() - x;
+        double dy = player.getNextY() - y;
+        double[] left = solids.getLeft();
+        double[] right = solids.getRight();
+        double[] bottom = solids.getBottom();
+        double[] top = solids.getTop();
+        for(int step = 0; step < MAX_COLLISION_STEPS && (dx != 0 || dy != 0); step ++){
+            int obstacle = checkCollision(x, y, dx, dy);
+            // If there are no collisions, the player moves until the end of the movement
+            if(obstacle < 0){
+                x += dx;
+                y += dy;
+                dx = 0;
+                dy = 0;
+                break;
             }
-            else if(player.getX() == player.getNextX() && player.getY() != player.getNextY()){
-                verticalCollision(collidingObstacles.getFirst());
+            collisions ++;
+            // The player moves until the collision, its coordinate on the collision axis is set to the
+            // boundary exactly so that the touching checks (such as isTouchingGround) find the obstacle
+            if(isVerticalCollision){
+                x += dx * collisionTime;
+                y = dy > 0 ? bottom[obstacle] : top[obstacle];
+                dx *= 1 - collisionTime;
+                dy = 0;
+                player.setVelocityY(0);
             }
-            // Updating the coordinates
-            player.setX(player.getNextX());
-            player.setY(player.getNextY());
-            // Checking for a spike hit
-            if(spikeCollision()){
-                isSpikeHit = true;
-                buttonPressNum = 0;
-                door[3] = 240;
-                player.respawn(new int[]{130,465});
-                player.setFacingDirection('R');
+            else{
+                x = dx > 0 ? left[obstacle] : right[obstacle];
+                y += dy * collisionTime;
+                dx = 0;
+                dy *= 1 - collisionTime;
             }
         }
-
-        // If the player is colliding with 2 obstacles simultaneously, by the structure of the game,
-        // it must be moving in both directions
-        // Player may move in 8 different directions
-        else if(collidingObstacles.size() == 2){
-            int[] obstacle1 = collidingObstacles.getFirst();
-            int[] obstacle2 = collidingObstacles.getLast();
-
-            String obstacle1ColType = twoDCollisionType(obstacle1);
-
-            // The case which the player moves in up-right direction
-            if(player.getNextX() > player.getX() && player.getNextY() > player.getY()){
-                // If the side boundaries of the obstacles are the same, it means that
-                // the player is falling. In this case, the player seems to collide one obstacle
-                // from its left, and the other obstacle from the top. The collision at the top is undesired
-                // since it will reset the velocityY, and cause the player to stop in the air suddenly.
-                // Only the side collision will be considered
-                if(leftBoundary(obstacle1) == leftBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Side")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                // If the bottom boundaries of the obstacles are the same, it means that
-                // the player hit two obstacles from below in their intersection. In this case,
-                // the collision from the bottom is desired, so will be considered
-                else if(bottomBoundary(obstacle1) == bottomBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Top/Bottom")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                // If neither of the cases above is correct, the player must have hit a corner.
-                // In this case, its x and y coordinate must be adjusted.
-                // x coordinate will be the left boundary of the obstacle that is at the side
-                // y coordinate will be the top boundary of the obstacle that is below the player
-                else{
-                    // Adjusting the coordinates of the player
-                    if(obstacle1ColType.equals("Side")){
-                        player.setNextX(leftBoundary(obstacle1));
-                        player.setNextY(bottomBoundary(obstacle2));
-                    }
-                    else{
-                        player.setNextX(leftBoundary(obstacle2));
-                        player.setNextY(bottomBoundary(obstacle1));
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    player.setVelocityY(0);
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-            }
-            // The case which the player moves in down-right direction
-            else if(player.getNextX() > player.getX() && player.getNextY() < player.getY()){
-                if(leftBoundary(obstacle1) == leftBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Side")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else if(topBoundary(obstacle1) == topBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Top/Bottom")){
-                        twoDCollision(obstacle1);
-                    }
-                    else {
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else{
-                    if(obstacle1ColType.equals("Side")){
-                        player.setNextX(leftBoundary(obstacle1));
-                        player.setNextY(topBoundary(obstacle2));
-                    }
-                    else{
-                        player.setNextX(leftBoundary(obstacle2));
-                        player.setNextY(topBoundary(obstacle1));
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    player.setVelocityY(0);
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-            }
-            // The case which the player moves in up-left direction
-            else if(player.getNextX() < player.getX() && player.getNextY() > player.getY()){
-                if(rightBoundary(obstacle1) == rightBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Side")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else if(bottomBoundary(obstacle1) == bottomBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Top/Bottom")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else{
-                    if(obstacle1ColType.equals("Side")){
-                        player.setNextX(rightBoundary(obstacle1));
-                        player.setNextY(bottomBoundary(obstacle2));
-                    }
-                    else{
-                        player.setNextX(rightBoundary(obstacle2));
-                        player.setNextY(bottomBoundary(obstacle1));
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    player.setVelocityY(0);
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-            }
-            // The case which the player moves in down-left direction
-            else if(player.getNextX() < player.getX() && player.getNextY() < player.getY()){
-                if(rightBoundary(obstacle1) == rightBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Side")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else if(topBoundary(obstacle1) == topBoundary(obstacle2)){
-                    if(obstacle1ColType.equals("Top/Bottom")){
-                        twoDCollision(obstacle1);
-                    }
-                    else{
-                        twoDCollision(obstacle2);
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
-                else{
-                    if(obstacle1ColType.equals("Side")){
-                        player.setNextX(rightBoundary(obstacle1));
-                        player.setNextY(topBoundary(obstacle2));
-                    }
-                    else{
-                        player.setNextX(rightBoundary(obstacle2));
-                        player.setNextY(topBoundary(obstacle1));
-                    }
-                    player.setX(player.getNextX());
-                    player.setY(player.getNextY());
-                    player.setVelocityY(0);
-                    if(spikeCollision()){
-                        isSpikeHit = true;
-                        buttonPressNum = 0;
-                        door[3] = 240;
-                        player.respawn(new int[]{130,465});
-                        player.setFacingDirection('R');
-                    }
-                }
+        player.setNextX(x);
+        player.setNextY(y);
+        // Updating the coordinates
+        player.setX(x);
+        player.setY(y);
+
+        if(moveEvent != null){
+            moveEvent.end();
+            moveEvent.stage = stage.getStageNumber() + 1;
+            moveEvent.toX = x;
+            moveEvent.toY = y;
+            moveEvent.collisions = collisions;
+            moveEvent.candidates = collisionCandidates - moveEvent.candidates;
+            moveEvent.commit();
+        }
+
+        // After updating the coordinates, the spikeCollision searches for a possible hit with a spike.
+        // If there is a hit, the player respawns
+        if(spikeCollision()){
+            isSpikeHit = true;
+            if(GameEvents.SPIKE_HIT.isEnabled()){
+                GameEvents.SpikeHit event = new GameEvents.SpikeHit();
+                event.stage = stage.getStageNumber() + 1;
+                event.x = x;
+                event.y = y;
+                event.velocityY = player.getVelocityY();
+                event.commit();
             }
+            respawnPlayer();
         }
     }
 
@@ -719,9 +581,16 @@ public class Map {
      * @return true if the player reaches the exit pipe, false otherwise.
      */
     public boolean changeStage(){
-        return Math.abs(player.getX() - xCenter(exitPipe[1])) < halfWidth(exitPipe[1]) + player.getWidth() / 2 &&
-               yCenter(exitPipe[1]) - halfHeight(exitPipe[1]) + player.getHeight() / 2 <= player.getY() &&
-               player.getY() < yCenter(exitPipe[1]) + halfHeight(exitPipe[1]) + player.getHeight() / 2;
+        boolean isExitReached = exitLeft < player.getX() && player.getX() < exitRight &&
+                                exitBottom <= player.getY() && player.getY() < exitTop;
+        if(isExitReached && GameEvents.EXIT_REACHED.isEnabled()){
+            GameEvents.ExitReached event = new GameEvents.ExitReached();
+            event.stage = stage.getStageNumber() + 1;
+            event.x = player.getX();
+            event.y = player.getY();
+            event.commit();
+        }
+        return isExitReached;
     }
 
     /**
@@ -729,11 +598,16 @@ public class Map {
      * @return true if the player presses the button, false if it doesn't.
      */
     public boolean pressButton(){
-        if(Math.abs(player.getX() - xCenter(button)) < halfWidth(button) + player.getWidth() / 2 &&
-           yCenter(button) - halfHeight(button) + player.getHeight() / 2 <= player.getY() &&
-           player.getY() < yCenter(button) + halfHeight(button) + player.getHeight() / 2){
+        if(buttonLeft < player.getX() && player.getX() < buttonRight &&
+           buttonBottom <= player.getY() && player.getY() < buttonTop){
             if(!isButtonPressing){
                 buttonPressNum ++;
+                if(GameEvents.BUTTON_PRESS.isEnabled()){
+                    GameEvents.ButtonPress event = new GameEvents.ButtonPress();
+                    event.stage = stage.getStageNumber() + 1;
+                    event.pressNumber = buttonPressNum;
+                    event.commit();
+                }
             }
             isButtonPressing = true;
             return true;
@@ -744,33 +618,81 @@ public class Map {
 
     /**
      * Handles the door opening animation.
-     * If the current stage is not stage 4 ("Never gonna give you up"), the door will start opening when
-     * the button is pressed one time. In stage 4, it will start opening at the fifth press.
+     * The door will start opening when the button is pressed as many times as the rules of the stage require,
+     * one time in most stages and five times in stage 4 ("Never gonna give you up").
      */
-    private void doorCheck(){
-        if(stage.getStageNumber() != 3){
-            isDoorOpen = buttonPressNum >= 1;
-        }
-        else if(stage.getStageNumber() == 3){
-            isDoorOpen = buttonPressNum >= 5;
-        }
+    public void doorCheck(){
+        isDoorOpen = buttonPressNum >= rules.getButtonPresses();
         if(isDoorOpen){
-            if(halfHeight(door) > 0){
+            if(solids.getHalfHeight()[doorIndex] > 0){
                 door[3] -= 2;
+                solids.setRectangle(doorIndex, door);
             }
         }
     }
 
     /**
-     * // Restarts the stage.
+     * Restarts the stage.
      */
     public void restartStage(){
+        respawnPlayer();
+    }
+
+    /**
+     * Respawns the player to its initial position and closes the door again.
+     */
+    private void respawnPlayer(){
         buttonPressNum = 0;
-        door[3] = 240;
-        player.respawn(new int[]{130,465});
+        door[3] = closedDoorTop;
+        solids.setRectangle(doorIndex, door);
+        player.respawn(spawnPoint);
         player.setFacingDirection('R');
     }
 
+    /**
+     * Writes the state of the map and its player, everything that the next ticks depend on.
+     * @param out The stream that the state is written to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeState(DataOutputStream out) throws IOException{
+        out.writeInt(door[3]);
+        out.writeInt(buttonPressNum);
+        out.writeBoolean(isButtonPressing);
+        out.writeBoolean(isDoorOpen);
+        out.writeBoolean(isSpikeHit);
+        player.writeState(out);
+    }
+
+    /**
+     * Reads the state of the map and its player that was written by writeState.
+     * @param in The stream that the state is read from.
+     * @throws IOException If the stream cannot be read.
+     */
+    public void readState(DataInputStream in) throws IOException{
+        door[3] = in.readInt();
+        solids.setRectangle(doorIndex, door);
+        buttonPressNum = in.readInt();
+        isButtonPressing = in.readBoolean();
+        isDoorOpen = in.readBoolean();
+        isSpikeHit = in.readBoolean();
+        player.readState(in);
+    }
+
+    /**
+     * Sets the door and the button to an earlier state of the map, used to go back in time while practicing.
+     * @param doorTop Upper edge of the door.
+     * @param buttonPressNum How many times the button was pressed.
+     * @param isButtonPressing Whether the button was being pressed.
+     */
+    public void restoreState(int doorTop, int buttonPressNum, boolean isButtonPressing){
+        door[3] = doorTop;
+        solids.setRectangle(doorIndex, door);
+        this.buttonPressNum = buttonPressNum;
+        this.isButtonPressing = isButtonPressing;
+        isDoorOpen = buttonPressNum >= rules.getButtonPresses();
+        isSpikeHit = false;
+    }
+
     /**
      * Indicates if the player hit a spike.
      * @return true if there is a spike hit, false if is not.
@@ -796,121 +718,247 @@ public class Map {
     }
 
     /**
-     * Draws the components of the map.
+     * Indicates whether the player is standing on the button.
+     * @return true if the button is being pressed, false if it is not.
+     */
+    public boolean getIsButtonPressing(){
+        return isButtonPressing;
+    }
+
+    /**
+     * Returns the horizontal distance between the player and the part of the exit pipe that finishes the stage.
+     * @return The distance on the x-axis, 0 if the player is above or below the exit.
      */
-    public void draw(){
-        // Drawing the button and its floor
-        if(!pressButton()){
-            StdDraw.setPenColor(buttonColor);
-            StdDraw.filledRectangle(xCenter(button), yCenter(button),
-                    halfWidth(button), halfHeight(button));
+    public double getExitDistanceX(){
+        if(player.getX() <= exitLeft){
+            return exitLeft - player.getX();
+        }
+        if(player.getX() >= exitRight){
+            return player.getX() - exitRight;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of rectangles that the collision grids returned since the map was created.
+     * Every returned rectangle is tested, so this is the work of the collision tests.
+     * @return The total number of collision candidates.
+     */
+    public long getCollisionCandidates(){
+        return collisionCandidates;
+    }
+
+    /**
+     * Returns how many times the button was pressed since the player spawned.
+     * @return The number of button presses.
+     */
+    public int getButtonPressNum(){
+        return buttonPressNum;
+    }
+
+    /**
+     * Returns the top of the door, which goes down while the door opens.
+     * @return The y coordinate of the top of the door.
+     */
+    public int getDoorTop(){
+        return door[3];
+    }
+
+    /**
+     * Draws the components of the map with the given state of the player, the door and the button, so a thread
+     * can draw a snapshot of the map while another thread simulates it. Only the parts of the map that never
+     * change are read from the map.
+     * The camera follows the player horizontally and stops at the bounds of the level,
+     * only the chunks that the camera sees are drawn.
+     * @param playerX x coordinate of the player.
+     * @param playerY y coordinate of the player.
+     * @param facingDirection Facing direction of the player, 'R' or 'L'.
+     * @param doorTop y coordinate of the upper edge of the door.
+     * @param isButtonPressing Whether the button is being pressed.
+     */
+    public void draw(double playerX, double playerY, char facingDirection, int doorTop, boolean isButtonPressing){
+        int[] bounds = level.getBounds();
+        double cameraX = playerX - Screen.WIDTH / 2.0;
+        cameraX = Math.max(bounds[0], Math.min(Math.max(bounds[0], bounds[2] - Screen.WIDTH), cameraX));
+        int first = level.getChunkIndex(cameraX);
+        int last = level.getChunkIndex(Math.nextDown(cameraX + Screen.WIDTH));
+        boolean isRendered = false;
+        if(first != visibleFrom || last != visibleTo){
+            visibleFrom = first;
+            visibleTo = last;
+            level.prefetch(first - PREFETCH_CHUNKS, last + PREFETCH_CHUNKS);
+        }
+
+        // Drawing the parts of the visible chunks that do not change in a single call for every chunk,
+        // a layer is rendered again only if the stage colors or the level changed
+        for(int index = first; index <= last; index ++){
+            LevelChunk chunk = level.getChunk(index);
+            if(!hasLayer(chunk)){
+                renderBackground(chunk);
+                isRendered = true;
+            }
+            chunk.getLayer(stage).draw(cameraX);
+        }
+        // One of the chunks next to the visible ones is rendered in advance if it is already read,
+        // so that scrolling does not render a whole chunk in a single frame
+        for(int index = first - 1; index <= last + 1 && !isRendered; index += last - first + 2){
+            LevelChunk chunk = index >= 0 && index < level.getChunkCount() ? level.getChunkIfLoaded(index) : null;
+            if(chunk != null && !hasLayer(chunk)){
+                renderBackground(chunk);
+                isRendered = true;
+            }
+        }
+        if(isRendered){
+            level.trim(Math.min(activeFrom, visibleFrom), Math.max(activeTo, visibleTo));
+        }
+
+        // Drawing the button, the changing parts are drawn with Screen as well, so the map can be drawn
+        // without a window
+        Graphics2D graphics = Screen.graphics();
+        double[] xCenter = buttonGeometry.getXCenter();
+        double[] yCenter = buttonGeometry.getYCenter();
+        double[] halfWidth = buttonGeometry.getHalfWidth();
+        double[] halfHeight = buttonGeometry.getHalfHeight();
+        if(!isButtonPressing){
+            graphics.setColor(Colors.BUTTON);
+            Screen.filledRectangle(graphics, xCenter[0] - cameraX, yCenter[0], halfWidth[0], halfHeight[0]);
+        }
+        // Drawing the door, its bounds are found the same way as its collision bounds
+        double doorHalfHeight = Math.abs(door[1] - doorTop) / 2.0;
+        if(doorHalfHeight > 0){
+            graphics.setColor(Colors.DOOR);
+            Screen.filledRectangle(graphics, (door[0] + door[2]) / 2.0 - cameraX, (door[1] + doorTop) / 2.0,
+                    Math.abs(door[0] - door[2]) / 2.0, doorHalfHeight);
         }
-        StdDraw.setPenColor(buttonFloorColor);
-        StdDraw.filledRectangle(xCenter(buttonFloor), yCenter(buttonFloor),
-                halfWidth(buttonFloor), halfHeight(buttonFloor));
         // Drawing the player
-        player.draw(player.getFacingDirection());
-        StdDraw.setPenColor(stage.getColor());
-        // Drawing the obstacles
-        for(int[] obstacle : obstacles){
-            StdDraw.filledRectangle(xCenter(obstacle), yCenter(obstacle),
-                    halfWidth(obstacle), halfHeight(obstacle));
+        player.drawAt(facingDirection, playerX - cameraX, playerY);
+    }
+
+    /**
+     * Does a small part of the work of the first frame of the map in advance, so the map can be prepared while
+     * another screen is shown. Every call renders at most one background layer of the chunks that the camera
+     * sees at the current position of the player and their neighbours. The chunks that are not in memory are
+     * read in the background, the call never waits for them. The state of the map does not change.
+     * @return true if every layer of the first frame is rendered, false if more calls are needed.
+     */
+    public boolean warmUp(){
+        int[] bounds = level.getBounds();
+        double cameraX = player.getX() - Screen.WIDTH / 2.0;
+        cameraX = Math.max(bounds[0], Math.min(Math.max(bounds[0], bounds[2] - Screen.WIDTH), cameraX));
+        int first = Math.max(0, level.getChunkIndex(cameraX) - 1);
+        int last = Math.min(level.getChunkCount() - 1, level.getChunkIndex(Math.nextDown(cameraX + Screen.WIDTH)) + 1);
+        level.prefetch(first, last);
+        boolean isReady = true;
+        for(int index = first; index <= last; index ++){
+            LevelChunk chunk = level.getChunkIfLoaded(index);
+            if(chunk == null){
+                isReady = false;
+            }
+            else if(!hasLayer(chunk)){
+                renderBackground(chunk);
+                return false;
+            }
+        }
+        return isReady;
+    }
+
+    /**
+     * Checks if a chunk has a background layer that can be drawn for the stage of the map.
+     * @param chunk The chunk.
+     * @return true if the layer is rendered with the current colors and level, false otherwise.
+     */
+    private boolean hasLayer(LevelChunk chunk){
+        BackgroundLayer layer = chunk.getLayer(stage);
+        return layer != null && layer.isValidFor(stage, levelSignature);
+    }
+
+    /**
+     * Draws the cells of a gravity field where the gravity points upwards. The cells in a column that follow
+     * each other are drawn as one rectangle.
+     * @param graphics Graphics of the background layer.
+     * @param field The gravity field of the stage.
+     * @param chunk The chunk that is rendered, only the columns that overlap it are drawn.
+     */
+    private static void drawReversedCells(Graphics2D graphics, GravityField field, LevelChunk chunk){
+        double cellSize = field.getCellSize();
+        int firstColumn = field.getColumn(chunk.getXLeft());
+        int lastColumn = field.getColumn(chunk.getXLeft() + chunk.getWidth());
+        for(int column = firstColumn; column <= lastColumn; column ++){
+            double xCenter = field.getXLeft() + (column + 0.5) * cellSize;
+            int row = 0;
+            while(row < field.getRows()){
+                if(field.getCellFactor(column, row) >= 0){
+                    row ++;
+                    continue;
+                }
+                int firstRow = row;
+                while(row < field.getRows() && field.getCellFactor(column, row) < 0){
+                    row ++;
+                }
+                double halfHeight = (row - firstRow) * cellSize / 2;
+                Screen.filledRectangle(graphics, xCenter, field.getYBottom() + firstRow * cellSize + halfHeight,
+                        cellSize / 2, halfHeight);
+            }
+        }
+    }
+
+    /**
+     * Renders the parts of a chunk that do not change while the stage is played to a new background layer.
+     * The rectangles that cross the border of the chunk are cut by the border of the layer.
+     * @param chunk The chunk that is rendered.
+     */
+    private void renderBackground(LevelChunk chunk){
+        BackgroundLayer layer = new BackgroundLayer(stage, levelSignature, chunk.getXLeft(), chunk.getWidth());
+        Graphics2D graphics = layer.createGraphics();
+        // Drawing the strips that indicate the reversed gravity cells, the rest of the level is drawn over them
+        if(rules.hasGravityField() && stage.getGravityStripColor() != null){
+            graphics.setColor(stage.getGravityStripColor());
+            drawReversedCells(graphics, rules.getGravityField(), chunk);
+        }
+        // Drawing the button floor
+        graphics.setColor(Colors.BUTTON_FLOOR);
+        Screen.filledRectangle(graphics, buttonGeometry.getXCenter()[1], buttonGeometry.getYCenter()[1],
+                buttonGeometry.getHalfWidth()[1], buttonGeometry.getHalfHeight()[1]);
+        // Drawing the obstacles, the door is drawn every frame
+        graphics.setColor(stage.getColor());
+        LevelGeometry obstacles = new LevelGeometry(chunk.getObstacles(), 0, 0);
+        double[] xCenter = obstacles.getXCenter();
+        double[] yCenter = obstacles.getYCenter();
+        double[] halfWidth = obstacles.getHalfWidth();
+        double[] halfHeight = obstacles.getHalfHeight();
+        for(int i = 0; i < obstacles.getCount(); i ++){
+            Screen.filledRectangle(graphics, xCenter[i], yCenter[i], halfWidth[i], halfHeight[i]);
         }
         // Drawing the pipes
-        StdDraw.setPenColor(pipeColor);
-        for(int[] coordinates : startPipe){
-            StdDraw.filledRectangle(xCenter(coordinates), yCenter(coordinates),
-                    halfWidth(coordinates), halfHeight(coordinates));
-        }
-        for(int[] coordinates : exitPipe){
-            StdDraw.filledRectangle(xCenter(coordinates), yCenter(coordinates),
-                    halfWidth(coordinates), halfHeight(coordinates));
-        }
-        // Drawing the door
-        doorCheck();
-        if(halfHeight(door) > 0){
-            StdDraw.setPenColor(doorColor);
-            StdDraw.filledRectangle(xCenter(door), yCenter(door),
-                    halfWidth(door), halfHeight(door));
-        }
-        // Drawing the spikes
-        StdDraw.picture(xCenter(spikes[0]), yCenter(spikes[0]), "misc/Spikes.png",
-                2 * halfHeight(spikes[0]), 2 * halfWidth(spikes[0]),
-                90);
-        StdDraw.picture(xCenter(spikes[1]), yCenter(spikes[1]), "misc/Spikes.png",
-                2 * halfWidth(spikes[1]), 2 * halfHeight(spikes[1]),
-                180);
-        StdDraw.picture(xCenter(spikes[2]), yCenter(spikes[2]), "misc/Spikes.png",
-                2 * halfWidth(spikes[2]), 2 * halfHeight(spikes[2]),
-                180);
-        StdDraw.picture(xCenter(spikes[3]), yCenter(spikes[3]), "misc/Spikes.png",
-                2 * halfWidth(spikes[3]), 2 * halfHeight(spikes[3]),
-                180);
-        StdDraw.picture(xCenter(spikes[4]), yCenter(spikes[4]), "misc/Spikes.png",
-                2 * halfHeight(spikes[4]), 2 * halfWidth(spikes[4]),
-                270);
-        StdDraw.picture(xCenter(spikes[5]), yCenter(spikes[5]), "misc/Spikes.png",
-                2 * halfWidth(spikes[5]), 2 * halfHeight(spikes[5]));
-        StdDraw.picture(xCenter(spikes[6]), yCenter(spikes[6]), "misc/Spikes.png",
-                2 * halfWidth(spikes[6]), 2 * halfHeight(spikes[6]));
-        // Drawing the strips that indicates reverse gravity areas for the stage 5 ("Inbetween gravitii")
-        if(stage.getStageNumber() == 4){
-            StdDraw.setPenColor(stage.getGravityStripColor());
-            StdDraw.filledRectangle(12.5,360,12.5,240);
-            StdDraw.filledRectangle(62.5,540,12.5,60);
-            StdDraw.filledRectangle(62.5,225,12.5,105);
-            StdDraw.filledRectangle(112.5,540,12.5,60);
-            StdDraw.filledRectangle(112.5,300,12.5,30);
-            StdDraw.filledRectangle(110,195,10,75);
-            StdDraw.filledRectangle(122.5,135,2.5,15);
-            StdDraw.filledRectangle(162.5,540,12.5,60);
-            StdDraw.filledRectangle(159,300,9,30);
-            StdDraw.filledRectangle(162.5,135,12.5,15);
-            StdDraw.filledRectangle(212.5,585,12.5,15);
-            StdDraw.filledRectangle(222.5,285,2.5,15);
-            StdDraw.filledRectangle(212.5,135,12.5,15);
-            StdDraw.filledRectangle(262.5,585,12.5,15);
-            StdDraw.filledRectangle(272.5,555,2.5,15);
-            StdDraw.filledRectangle(262.5,285,12.5,15);
-            StdDraw.filledRectangle(262.5,135,12.5,15);
-            StdDraw.filledRectangle(312.5,585,12.5,15);
-            StdDraw.filledRectangle(305,285,5,15);
-            StdDraw.filledRectangle(312.5,135,12.5,15);
-            StdDraw.filledRectangle(322.5,180,2.5,30);
-            StdDraw.filledRectangle(362.5,585,12.5,15);
-            StdDraw.filledRectangle(367.5,375,7.5,15);
-            StdDraw.filledRectangle(362.5,195,12.5,75);
-            StdDraw.filledRectangle(412.5,585,12.5,15);
-            StdDraw.filledRectangle(412.5,375,12.5,15);
-            StdDraw.filledRectangle(412.5,195,12.5,75);
-            StdDraw.filledRectangle(462.5,585,12.5,15);
-            StdDraw.filledRectangle(462.5,375,12.5,15);
-            StdDraw.filledRectangle(462.5,135,12.5,15);
-            StdDraw.filledRectangle(512.5,585,12.5,15);
-            StdDraw.filledRectangle(512.5,135,12.5,15);
-            StdDraw.filledRectangle(562.5,585,12.5,15);
-            StdDraw.filledRectangle(567.5,415,7.5,15);
-            StdDraw.filledRectangle(562.5,325,12.5,15);
-            StdDraw.filledRectangle(555,210,5,30);
-            StdDraw.filledRectangle(567.5,180,7.5,30);
-            StdDraw.filledRectangle(562.5,135,12.5,15);
-            StdDraw.filledRectangle(612.5,585,12.5,15);
-            StdDraw.filledRectangle(610,555,10,15);
-            StdDraw.filledRectangle(610,415,10,15);
-            StdDraw.filledRectangle(612.5,150,12.5,30);
-            StdDraw.filledRectangle(662.5,585,12.5,15);
-            StdDraw.filledRectangle(662.5,150,12.5,30);
-            StdDraw.filledRectangle(712.5,555,12.5,45);
-            StdDraw.filledRectangle(717.5,480,7.5,30);
-            StdDraw.filledRectangle(705,315,5,15);
-            StdDraw.filledRectangle(712.5,270,12.5,30);
-            StdDraw.filledRectangle(712.5,147.5,12.5,27.5);
-            StdDraw.filledRectangle(710,177.5,10,2.5);
-            StdDraw.filledRectangle(762.5,510,12.5,90);
-            StdDraw.filledRectangle(772.5,360,2.5,60);
-            StdDraw.filledRectangle(762.5,270,12.5,30);
-            StdDraw.filledRectangle(772.5,210,2.5,30);
-            StdDraw.filledRectangle(762.5,150,12.5,30);
+        graphics.setColor(Colors.PIPE);
+        xCenter = pipeGeometry.getXCenter();
+        yCenter = pipeGeometry.getYCenter();
+        halfWidth = pipeGeometry.getHalfWidth();
+        halfHeight = pipeGeometry.getHalfHeight();
+        for(int i = 0; i < pipeGeometry.getCount(); i ++){
+            Screen.filledRectangle(graphics, xCenter[i], yCenter[i], halfWidth[i], halfHeight[i]);
+        }
+        // Drawing the spikes, the picture is rotated so that the spikes point out of the wall
+        // For the rotations of 90 and 270 degrees, the width and the height of the picture are swapped
+        LevelGeometry spikes = new LevelGeometry(chunk.getSpikes(), 0, 0);
+        double[] spikeRotations = chunk.getSpikeRotations();
+        xCenter = spikes.getXCenter();
+        yCenter = spikes.getYCenter();
+        halfWidth = spikes.getHalfWidth();
+        halfHeight = spikes.getHalfHeight();
+        for(int i = 0; i < spikes.getCount(); i ++){
+            int sprite;
+            if(spikeRotations[i] == 90 || spikeRotations[i] == 270){
+                sprite = SpriteCache.getSprite(SpriteCache.SPIKES_FILE,
+                        2 * halfHeight[i], 2 * halfWidth[i], spikeRotations[i]);
+            }
+            else{
+                sprite = SpriteCache.getSprite(SpriteCache.SPIKES_FILE,
+                        2 * halfWidth[i], 2 * halfHeight[i], spikeRotations[i]);
+            }
+            SpriteCache.draw(graphics, sprite, xCenter[i], yCenter[i]);
         }
+        graphics.dispose();
+        chunk.putLayer(stage, layer);
     }
 }
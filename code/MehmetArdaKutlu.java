@@ -1,40 +1,53 @@
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.awt.*;
 import java.util.Random;
 
 public class MehmetArdaKutlu {
 
-    public static void main(String[] args){
+    // Replay of the run that is being recorded, written to the file when the run ends or the window is closed
+    private static Replay recording;
+    // Game of the run that is being recorded, stopped before the recording is written from the shutdown hook
+    private static Game recordedGame;
 
-        // Enabling double buffering for smoother animations
-        StdDraw.enableDoubleBuffering();
-
-        // Creating stage objects
-        Stage stage1 = new Stage(-0.45, 3.65, 10, 0, KeyEvent.VK_RIGHT, KeyEvent.VK_LEFT, KeyEvent.VK_UP,
-                "Arrow keys are required", "Arrow keys move player, press button and enter the second pipe");
-
-        Stage stage2 = new Stage(-0.45, 3.65, 10, 1, KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP,
-                "Not always straight forward", "Right and left buttons reversed");
+    /**
+     * Starts the game. The arguments are an optional level file, and either "--record file" to record the runs
+     * to a replay file or "--replay file" to watch a recorded run. "--practice" plays practice runs, in which
+     * holding R takes the stage back in time and the time is not a score.
+     * @param args The arguments of the program.
+     */
+    public static void main(String[] args) throws IOException{
 
-        Stage stage3 = new Stage(-2, 3.65, 24, 2, KeyEvent.VK_RIGHT, KeyEvent.VK_LEFT, -1,
-                "A bit bouncy here", "You jump constantly");
-
-        Stage stage4 = new Stage(-0.45, 3.65, 10, 3, KeyEvent.VK_RIGHT, KeyEvent.VK_LEFT, KeyEvent.VK_UP,
-                "Never gonna give you up", "Press button 5 times ");
+        String levelFile = null;
+        String recordFile = null;
+        String replayFile = null;
+        boolean isPractice = false;
+        for(int i = 0; i < args.length; i ++){
+            if(args[i].equals("--record") && i + 1 < args.length){
+                recordFile = args[++ i];
+            }
+            else if(args[i].equals("--replay") && i + 1 < args.length){
+                replayFile = args[++ i];
+            }
+            else if(args[i].equals("--practice")){
+                isPractice = true;
+            }
+            else{
+                levelFile = args[i];
+            }
+        }
+        Replay playback = replayFile == null ? null : Replay.read(replayFile);
+        if(levelFile == null){
+            levelFile = playback == null ? Level.DEFAULT_FILE : playback.getLevelFile();
+        }
 
-        // We were expected to choose the last stage from the original game
-        // I chose "Inbetween gravitii", which is the 21st stage of the original game
-        Stage stage5 = new Stage(-0.45, 3.65, 10, 4, KeyEvent.VK_RIGHT, KeyEvent.VK_LEFT, KeyEvent.VK_UP,
-                "Inbetween gravitii", "Gravity reverses in certain regions");
+        // Enabling double buffering for smoother animations
+        StdDraw.enableDoubleBuffering();
 
-        // Packing stages into an ArrayList
-        ArrayList<Stage> stages = new ArrayList<>();
-        stages.add(stage1);
-        stages.add(stage2);
-        stages.add(stage3);
-        stages.add(stage4);
-        stages.add(stage5);
+        // Loading the level and creating its stage objects, another level file can be given as an argument
+        Level level = Level.load(levelFile);
+        ArrayList<Stage> stages = level.getStages();
 
         // Creating a Random object to choose the colors randomly
         Random random = new Random();
@@ -42,47 +55,62 @@ public class MehmetArdaKutlu {
         for(Stage stage : stages){
             // Choosing a random color for the obstacles using Random class
             stage.setColor(new Color(random.nextInt(10,246),random.nextInt(10,246),random.nextInt(10,246)));
-            // Choosing the colors of the strips that indicate reverse gravity areas for the last stage
-            if(stage.getStageNumber() == 4){
+            // Choosing the colors of the strips that indicate reverse gravity areas for the stages with a gravity field
+            if(stage.getRules().hasGravityField()){
                 // Choosing a different strip color from the obstacle color using a do-while loop
                 do{
                     stage.setGravityStripColor(new Color(random.nextInt(10,246),random.nextInt(10,246),random.nextInt(10,246)));
                 }while(stage.getColor().equals(stage.getGravityStripColor()));
             }
         }
+        // A replay is played with the colors of the recorded run
+        if(playback != null){
+            playback.prepare(level);
+        }
+        // The recording of the last run is written when the window is closed
+        if(recordFile != null){
+            String file = recordFile;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stopAndWriteRecording(file)));
+        }
         // Creating the canvas
         StdDraw.setCanvasSize(800, 600);
         StdDraw.setXscale(0, 800);
         StdDraw.setYscale(0, 600);
+        // Collecting the key and mouse events of the window for the game loop and the end game screen
+        InputQueue.install();
+        // Reading the pictures before the game starts
+        SpriteCache.preload();
 
         while(true){
-            // Creating the game object at the beginning
-            Game mainGame = new Game(stages);
-            // Game continues until the player finishes all the levels
-            while(mainGame.getStageIndex() < stages.size()){
-                // Creating Mew map object at the beginning of the game,
-                // or when a stage finishes
-                // or when player hits the reset button
-                Map map = new Map(mainGame.getCurrentStage(), new Player(130,465));
-                // Choosing a random color for the obstacles using Random class
-                //map.setObstacleColor();
-                // Choosing the colors of the strips that indicate reverse gravity areas for the last stage
-                //if(mainGame.getStageIndex() == 4){
-                //    map.setGravityStripColor();
-                //}
-                // Marking the beginning time of the game using currentTimeMillis
-                mainGame.setStartTime(System.currentTimeMillis());
-                StdDraw.setFont();
-                // Running the game by calling the play method
-                mainGame.play(map);
-                // If the play method ends when the stage index is 0, the player must have restarted the game
-                // Inner while loop breaks, and the game continues from the beginning
-                if(mainGame.getStageIndex() == 0){
-                   break;
+            // Creating the simulation and the game objects at the beginning,
+            // or when the player hits the reset button
+            Simulation simulation = new Simulation(stages);
+            Game mainGame = new Game(simulation);
+            mainGame.setPractice(isPractice);
+            if(playback != null){
+                mainGame.setPlayback(playback);
+            }
+            else if(recordFile != null){
+                // Every run is recorded from its beginning, a reset starts a new recording
+                synchronized(MehmetArdaKutlu.class){
+                    recording = new Replay(level, Game.DEFAULT_TICK_RATE);
+                    recordedGame = mainGame;
                 }
+                mainGame.setRecording(recording);
             }
-            if(mainGame.getStageIndex() == stages.size()){
-                // When the last stage is finished, the inner while loop finishes and the end game screen appears
+            StdDraw.setFont();
+            // Running the game by calling the play method
+            // The play method ends when the player finishes all the stages or resets the game
+            mainGame.play();
+            if(recordFile != null){
+                writeRecording(recordFile);
+            }
+            // A replay that ended before the last stage is not played again
+            if(playback != null && !simulation.isFinished()){
+                System.exit(0);
+            }
+            if(simulation.isFinished()){
+                // When the last stage is finished, the end game screen appears
                 StdDraw.clear(StdDraw.WHITE);
                 StdDraw.setPenColor(StdDraw.GREEN);
                 StdDraw.filledRectangle(400, 275, 400,75);
@@ -94,22 +122,74 @@ public class MehmetArdaKutlu {
                 // Number of deaths and elapsed time is written in the desired form using string formatting
                 StdDraw.text(400,230,String.format("You finished with %d deaths in %02d : %02d : %02d"
                         ,mainGame.getDeathNumber(),mainGame.getMinutes(),mainGame.getSeconds(),mainGame.getMilliseconds()));
+                // The time of a practice run can be lowered by going back in time, so it is marked as practice
+                if(isPractice){
+                    StdDraw.setFont(new Font("sans serif", Font.PLAIN, 16));
+                    StdDraw.text(400,208,"Practice run, the time is not scored");
+                }
                 StdDraw.show();
                 // After the displaying of the end game screen, code waits for the user input
+                // The keys pressed during the game are dropped, and the thread sleeps until a new key is pressed
                 // If player chooses to press Q, the program exits
+                InputQueue.clear();
                 while(true){
+                    InputQueue.Event event = nextEvent();
                     // If the player chooses to press A, while loop breaks and a new game begins
-                    if(StdDraw.isKeyPressed(KeyEvent.VK_A)){
+                    if(event.isKeyPressed(KeyEvent.VK_A)){
                         for(Stage stage : stages){
                             stage.setHelpDisplaying(false);
                         }
                         break;
                     }
-                    else if(StdDraw.isKeyPressed(KeyEvent.VK_Q)){
+                    else if(event.isKeyPressed(KeyEvent.VK_Q)){
                         System.exit(0);
                     }
                 }
             }
         }
     }
+
+    /**
+     * Waits for the next key or mouse event of the window.
+     * @return The event.
+     */
+    private static InputQueue.Event nextEvent(){
+        try{
+            return InputQueue.take();
+        }
+        catch(InterruptedException e){
+            throw new IllegalStateException("interrupted while waiting for a key", e);
+        }
+    }
+
+    /**
+     * Stops the game of the run that is being recorded and writes its replay to a file, when the window is closed.
+     * The simulation thread is joined before the replay is read, so the file never holds the input of a tick
+     * without its result.
+     * @param file Path of the replay file.
+     */
+    private static synchronized void stopAndWriteRecording(String file){
+        if(recordedGame != null){
+            recordedGame.stop();
+        }
+        writeRecording(file);
+    }
+
+    /**
+     * Writes the replay of the run that is being recorded to a file. Must only be called when no tick of the run
+     * is simulated, after the game was stopped. A run without any tick is not written, so the file keeps the last
+     * run that was played.
+     * @param file Path of the replay file.
+     */
+    private static synchronized void writeRecording(String file){
+        if(recording == null || recording.getTickCount() == 0){
+            return;
+        }
+        try{
+            recording.write(file);
+        }
+        catch(IOException e){
+            System.err.println("The replay could not be written to " + file + ": " + e.getMessage());
+        }
+    }
 }
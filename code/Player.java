@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Player represents the elephant character in the game. Stores the player's properties such as its coordinates.
  * Provides methods that allow other classes to access and modify the player's properties.
@@ -15,6 +19,10 @@ public class Player {
     private double nextX;
     // Y coordinate of the player in the next frame
     private double nextY;
+    // Coordinates of the player before the last tick, frames drawn between two ticks are interpolated
+    // from these coordinates to the current ones
+    private double previousX;
+    private double previousY;
     // Width of the elephant character
     private double width = 20;
     // Height of the elephant character
@@ -23,6 +31,9 @@ public class Player {
     private double velocityY = 0;
     // Indicates the facing direction of the elephant character
     private char facingDirection = 'R';
+    // IDs of the right-facing and left-facing elephant sprites, -1 until the player is drawn for the first time
+    private int rightSprite = -1;
+    private int leftSprite = -1;
 
     /**
      * Constructor of the class.
@@ -35,6 +46,8 @@ public class Player {
         this.y = y;
         this.nextX = x;
         this.nextY = y;
+        this.previousX = x;
+        this.previousY = y;
     }
 
     /**
@@ -159,22 +172,90 @@ public class Player {
         this.y = spawnPoint[1];
         this.nextX = this.x;
         this.nextY = this.y;
+        // The player jumps to the spawn point instead of sliding to it between two frames
+        this.previousX = this.x;
+        this.previousY = this.y;
         // Resets the velocityY variable to ensure that the player respawns at rest
         this.velocityY = 0;
     }
 
     /**
-     * Draws the player based on its facing direction.
-     * @param facingDirection Indicate whether a right-facing or left-facing elephant will be drawn.
+     * Saves the current coordinates as the previous coordinates. Called at the beginning of every tick.
+     */
+    public void storePreviousPosition(){
+        this.previousX = this.x;
+        this.previousY = this.y;
+    }
+
+    /**
+     * Returns the x position of the player between the previous and the current tick.
+     * @param alpha The fraction of the tick that has passed, 0 is the previous tick and 1 is the current tick.
+     * @return The interpolated x position.
+     */
+    public double getInterpolatedX(double alpha){
+        return previousX + (x - previousX) * alpha;
+    }
+
+    /**
+     * Returns the y position of the player between the previous and the current tick.
+     * @param alpha The fraction of the tick that has passed, 0 is the previous tick and 1 is the current tick.
+     * @return The interpolated y position.
+     */
+    public double getInterpolatedY(double alpha){
+        return previousY + (y - previousY) * alpha;
+    }
+
+    /**
+     * Writes the state of the player, everything that the next ticks depend on.
+     * @param out The stream that the state is written to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeState(DataOutputStream out) throws IOException{
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeDouble(nextX);
+        out.writeDouble(nextY);
+        out.writeDouble(previousX);
+        out.writeDouble(previousY);
+        out.writeDouble(velocityY);
+        out.writeChar(facingDirection);
+    }
+
+    /**
+     * Reads the state of the player that was written by writeState.
+     * @param in The stream that the state is read from.
+     * @throws IOException If the stream cannot be read.
      */
-    public void draw(char facingDirection){
+    public void readState(DataInputStream in) throws IOException{
+        x = in.readDouble();
+        y = in.readDouble();
+        nextX = in.readDouble();
+        nextY = in.readDouble();
+        previousX = in.readDouble();
+        previousY = in.readDouble();
+        velocityY = in.readDouble();
+        facingDirection = in.readChar();
+    }
+
+    /**
+     * Draws the player at a position on the screen, which can be a position from a snapshot of the player.
+     * @param facingDirection The facing direction of the player.
+     * @param drawX x coordinate of the center on the screen.
+     * @param drawY y coordinate of the center on the screen.
+     */
+    public void drawAt(char facingDirection, double drawX, double drawY){
+        // The sprites are rendered at the first draw, so a player that is never drawn does not load any picture
+        if(rightSprite < 0){
+            rightSprite = SpriteCache.getSprite(SpriteCache.ELEPHANT_RIGHT_FILE, width, height, 0);
+            leftSprite = SpriteCache.getSprite(SpriteCache.ELEPHANT_LEFT_FILE, width, height, 0);
+        }
         if(facingDirection == 'R'){
             // Draws a right-facing elephant on the map
-            StdDraw.picture(x, y , "misc/ElephantRight.png", width, height);
+            SpriteCache.draw(rightSprite, drawX, drawY);
         }
         else if(facingDirection == 'L'){
             // Draws a left-facing elephant on the map
-            StdDraw.picture(x, y , "misc/ElephantLeft.png", width, height);
+            SpriteCache.draw(leftSprite, drawX, drawY);
         }
     }
 }
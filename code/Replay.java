@@ -0,0 +1,411 @@
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replay stores the input of every tick of a run, so the run can be simulated again exactly.
+ * A replay is recorded by calling record() with the input of every tick before the tick is simulated.
+ * Since the Simulation only depends on its input, the stages and the level, a replay also stores the rules of the
+ * stages, the hash of the level and the random colors of the stages.
+ * <p>
+ * The inputs are stored as runs of the same input, every run is its length as a varint followed by the input byte.
+ * A player holds the same keys for many ticks, so a run of minutes takes a few kilobytes. Every KEYFRAME_INTERVAL
+ * ticks the whole state of the simulation is stored as a keyframe, so seek() only simulates the ticks after the
+ * last keyframe before the target tick instead of the whole run.
+ */
+public class Replay {
+
+    // Number of ticks between two keyframes, 10 seconds at the default tick rate
+    public static final int KEYFRAME_INTERVAL = 240;
+
+    // First values of a replay file
+    private static final int MAGIC = 0x54494F52;
+    private static final int VERSION = 2;
+
+    // Level of the run and the hash of its text
+    private String levelFile;
+    private byte[] levelHash;
+    // Number of ticks per second that the run was played with, used to show the time
+    private double tickRate;
+    // Rules of the stages in the form [gravity, velocityX, velocityY, rightCode, leftCode, upCode]
+    private double[][] stageRules;
+    // RGB values of the obstacle colors and the gravity strip colors of the stages, -1 if the color was not chosen
+    private int[] colors;
+    private int[] gravityStripColors;
+    // Input of every tick, inputs[i] is the input of the tick i
+    private byte[] inputs = new byte[1024];
+    private int tickCount = 0;
+    // Tick and state of every keyframe, in increasing order of ticks
+    private int[] keyframeTicks = new int[16];
+    private byte[][] keyframeStates = new byte[16][];
+    private int keyframeCount = 0;
+    // Result of the run after the last recorded tick, -1 until the result of a tick is recorded
+    private int finalStageIndex = -1;
+    private int finalDeathNumber = -1;
+    private long finalTimerTicks = -1;
+
+    /**
+     * Constructor of the class. Creates an empty replay for a new run.
+     * @param level The level that the run is played on.
+     * @param tickRate Number of ticks per second.
+     */
+    public Replay(Level level, double tickRate){
+        this.levelFile = level.getFile();
+        this.levelHash = level.getHash();
+        this.tickRate = tickRate;
+        ArrayList<Stage> stages = level.getStages();
+        stageRules = new double[stages.size()][];
+        colors = new int[stages.size()];
+        gravityStripColors = new int[stages.size()];
+        for(int i = 0; i < stages.size(); i ++){
+            Stage stage = stages.get(i);
+            int[] keyCodes = stage.getRules().getKeyCodes();
+            stageRules[i] = new double[]{stage.getGravity(), stage.getVelocityX(), stage.getVelocityY(),
+                    keyCodes[0], keyCodes[1], keyCodes[2]};
+            colors[i] = stage.getColor() == null ? -1 : stage.getColor().getRGB() & 0xFFFFFF;
+            gravityStripColors[i] = stage.getGravityStripColor() == null ? -1 :
+                    stage.getGravityStripColor().getRGB() & 0xFFFFFF;
+        }
+    }
+
+    // Replays that are read from a file are created by read()
+    private Replay(){
+    }
+
+    /**
+     * Records the input of the next tick. Must be called before the tick is simulated, since a keyframe
+     * stores the state before the tick.
+     * @param simulation The simulation of the run.
+     * @param input Bitmask of the Simulation.INPUT_ constants of the tick.
+     */
+    public void record(Simulation simulation, int input){
+        if(tickCount % KEYFRAME_INTERVAL == 0){
+            if(keyframeCount == keyframeTicks.length){
+                keyframeTicks = Arrays.copyOf(keyframeTicks, 2 * keyframeCount);
+                keyframeStates = Arrays.copyOf(keyframeStates, 2 * keyframeCount);
+            }
+            keyframeTicks[keyframeCount] = tickCount;
+            keyframeStates[keyframeCount] = writeState(simulation);
+            keyframeCount ++;
+        }
+        if(tickCount == inputs.length){
+            inputs = Arrays.copyOf(inputs, 2 * tickCount);
+        }
+        inputs[tickCount] = (byte) input;
+        tickCount ++;
+    }
+
+    /**
+     * Records the result of the run after a tick. The result is stored in the file, so a verifier can check that
+     * simulating the inputs again gives the same result.
+     * @param simulation The simulation of the run.
+     */
+    public void recordResult(Simulation simulation){
+        finalStageIndex = simulation.getStageIndex();
+        finalDeathNumber = simulation.getDeathNumber();
+        finalTimerTicks = simulation.getTimerTicks();
+    }
+
+    /**
+     * Writes the state of a simulation to bytes.
+     * @param simulation The simulation.
+     * @return The state.
+     */
+    private static byte[] writeState(Simulation simulation){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            simulation.writeState(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch(IOException e){
+            // Streams in memory do not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks that the replay was recorded on the given level, and gives the stages the colors of the run.
+     * @param level The level that the replay will be played on.
+     */
+    public void prepare(Level level){
+        verify(level);
+        ArrayList<Stage> stages = level.getStages();
+        for(int i = 0; i < stages.size(); i ++){
+            Stage stage = stages.get(i);
+            if(colors[i] >= 0){
+                stage.setColor(new Color(colors[i]));
+            }
+            if(gravityStripColors[i] >= 0){
+                stage.setGravityStripColor(new Color(gravityStripColors[i]));
+            }
+        }
+    }
+
+    /**
+     * Checks that the replay was recorded on the given level with the same rules of the stages.
+     * The level is not changed, so a level can be shared by the replays that are simulated at the same time.
+     * @param level The level that the replay will be simulated on.
+     */
+    public void verify(Level level){
+        if(!Arrays.equals(levelHash, level.getHash())){
+            throw new IllegalStateException("the replay was recorded on another version of the level: " + levelFile);
+        }
+        ArrayList<Stage> stages = level.getStages();
+        for(int i = 0; i < stages.size(); i ++){
+            Stage stage = stages.get(i);
+            int[] keyCodes = stage.getRules().getKeyCodes();
+            double[] rules = {stage.getGravity(), stage.getVelocityX(), stage.getVelocityY(),
+                    keyCodes[0], keyCodes[1], keyCodes[2]};
+            if(i >= stageRules.length || !Arrays.equals(rules, stageRules[i])){
+                throw new IllegalStateException("the replay was recorded with other rules for stage " + (i + 1));
+            }
+        }
+    }
+
+    /**
+     * Moves a simulation of the run to a tick. The state is taken from the last keyframe before the tick,
+     * and the ticks after the keyframe are simulated.
+     * @param simulation A simulation on the level of the replay.
+     * @param tick The tick to move to, clamped to the recorded ticks. The next tick of the simulation is this one.
+     */
+    public void seek(Simulation simulation, int tick){
+        tick = Math.max(0, Math.min(tickCount, tick));
+        // Binary search for the last keyframe that is not after the tick
+        int low = 0;
+        int high = keyframeCount - 1;
+        while(low < high){
+            int middle = (low + high + 1) / 2;
+            if(keyframeTicks[middle] <= tick){
+                low = middle;
+            }
+            else{
+                high = middle - 1;
+            }
+        }
+        int start = 0;
+        if(keyframeCount > 0){
+            start = keyframeTicks[low];
+            try{
+                simulation.readState(new DataInputStream(new ByteArrayInputStream(keyframeStates[low])));
+            }
+            catch(IOException e){
+                throw new IllegalStateException("damaged keyframe at tick " + start, e);
+            }
+        }
+        for(int i = start; i < tick; i ++){
+            simulation.tick(inputs[i]);
+        }
+    }
+
+    /**
+     * Returns the input of a tick.
+     * @param tick Index of the tick.
+     * @return Bitmask of the Simulation.INPUT_ constants of the tick.
+     */
+    public int getInput(int tick){
+        return inputs[tick];
+    }
+
+    /**
+     * Returns the number of recorded ticks.
+     * @return The number of ticks of the run.
+     */
+    public int getTickCount(){
+        return tickCount;
+    }
+
+    /**
+     * Returns the number of ticks per second that the run was played with.
+     * @return The tick rate.
+     */
+    public double getTickRate(){
+        return tickRate;
+    }
+
+    /**
+     * Returns the index of the stage that the run was at after the last recorded tick.
+     * @return The stage index, equal to the number of stages if the run finished.
+     */
+    public int getFinalStageIndex(){
+        return finalStageIndex;
+    }
+
+    /**
+     * Returns the number of deaths of the run after the last recorded tick.
+     * @return The death number.
+     */
+    public int getFinalDeathNumber(){
+        return finalDeathNumber;
+    }
+
+    /**
+     * Returns the time counter of the run in ticks after the last recorded tick.
+     * @return The timer ticks.
+     */
+    public long getFinalTimerTicks(){
+        return finalTimerTicks;
+    }
+
+    /**
+     * Returns the path of the level file that the run was played on.
+     * @return The path of the file.
+     */
+    public String getLevelFile(){
+        return levelFile;
+    }
+
+    /**
+     * Writes the replay to a file. The result of the last tick must be recorded, a replay without a result could
+     * not be verified.
+     * @param file Path of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(String file) throws IOException{
+        if(finalStageIndex < 0){
+            throw new IllegalStateException("the result of the run is not recorded, the replay cannot be written");
+        }
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(Paths.get(file)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(levelFile);
+            out.write(levelHash);
+            out.writeDouble(tickRate);
+            writeVarint(out, stageRules.length);
+            for(int i = 0; i < stageRules.length; i ++){
+                for(double rule : stageRules[i]){
+                    out.writeDouble(rule);
+                }
+                out.writeInt(colors[i]);
+                out.writeInt(gravityStripColors[i]);
+            }
+            // Inputs as runs of the same input
+            writeVarint(out, tickCount);
+            int tick = 0;
+            while(tick < tickCount){
+                int end = tick + 1;
+                while(end < tickCount && inputs[end] == inputs[tick]){
+                    end ++;
+                }
+                writeVarint(out, end - tick);
+                out.writeByte(inputs[tick]);
+                tick = end;
+            }
+            // Keyframes, the ticks are stored as the difference to the previous keyframe
+            writeVarint(out, keyframeCount);
+            for(int i = 0; i < keyframeCount; i ++){
+                writeVarint(out, keyframeTicks[i] - (i == 0 ? 0 : keyframeTicks[i - 1]));
+                writeVarint(out, keyframeStates[i].length);
+                out.write(keyframeStates[i]);
+            }
+            out.writeInt(finalStageIndex);
+            out.writeInt(finalDeathNumber);
+            out.writeLong(finalTimerTicks);
+        }
+    }
+
+    /**
+     * Reads a replay from a file.
+     * @param file Path of the file.
+     * @return The replay.
+     * @throws IOException If the file cannot be read or is not a replay.
+     */
+    public static Replay read(String file) throws IOException{
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(file)))){
+            if(in.readInt() != MAGIC){
+                throw new IOException("not a replay file: " + file);
+            }
+            int version = in.readInt();
+            if(version != VERSION){
+                throw new IOException("unsupported replay version " + version + ": " + file);
+            }
+            Replay replay = new Replay();
+            replay.levelFile = in.readUTF();
+            replay.levelHash = new byte[32];
+            in.readFully(replay.levelHash);
+            replay.tickRate = in.readDouble();
+            int stageCount = readVarint(in);
+            replay.stageRules = new double[stageCount][6];
+            replay.colors = new int[stageCount];
+            replay.gravityStripColors = new int[stageCount];
+            for(int i = 0; i < stageCount; i ++){
+                for(int k = 0; k < 6; k ++){
+                    replay.stageRules[i][k] = in.readDouble();
+                }
+                replay.colors[i] = in.readInt();
+                replay.gravityStripColors[i] = in.readInt();
+            }
+            replay.tickCount = readVarint(in);
+            replay.inputs = new byte[Math.max(1, replay.tickCount)];
+            int tick = 0;
+            while(tick < replay.tickCount){
+                int length = readVarint(in);
+                if(length <= 0 || tick + length > replay.tickCount){
+                    throw new IOException("damaged replay file: " + file);
+                }
+                Arrays.fill(replay.inputs, tick, tick + length, in.readByte());
+                tick += length;
+            }
+            replay.keyframeCount = readVarint(in);
+            replay.keyframeTicks = new int[Math.max(1, replay.keyframeCount)];
+            replay.keyframeStates = new byte[Math.max(1, replay.keyframeCount)][];
+            for(int i = 0; i < replay.keyframeCount; i ++){
+                replay.keyframeTicks[i] = readVarint(in) + (i == 0 ? 0 : replay.keyframeTicks[i - 1]);
+                replay.keyframeStates[i] = new byte[readVarint(in)];
+                in.readFully(replay.keyframeStates[i]);
+            }
+            replay.finalStageIndex = in.readInt();
+            replay.finalDeathNumber = in.readInt();
+            replay.finalTimerTicks = in.readLong();
+            if(replay.finalStageIndex < 0 || replay.finalDeathNumber < 0 || replay.finalTimerTicks < 0){
+                throw new IOException("the replay does not store the result of the run: " + file);
+            }
+            return replay;
+        }
+    }
+
+    /**
+     * Writes a non-negative integer in 7-bit groups, the highest bit of a byte tells that another byte follows.
+     * @param out The stream that the integer is written to.
+     * @param value The integer.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeVarint(OutputStream out, int value) throws IOException{
+        while((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an integer that was written by writeVarint.
+     * @param in The stream that the integer is read from.
+     * @return The integer.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static int readVarint(InputStream in) throws IOException{
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            int b = in.read();
+            if(b < 0){
+                throw new IOException("unexpected end of the replay file");
+            }
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("damaged replay file");
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ReplayTool plays a replay file without a window, as fast as the simulation can run, and prints the result
+ * of the run. If a tick is given, it also moves a second simulation to the tick with the keyframes of the replay
+ * and checks that its state is the same as the state of the full simulation at that tick.
+ * Usage: java ReplayTool replay-file [tick]
+ */
+public class ReplayTool {
+
+    /**
+     * Plays the replay.
+     * @param args Path of the replay file and an optional tick to seek to.
+     * @throws IOException If the replay file cannot be read.
+     */
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1){
+            System.out.println("Usage: java ReplayTool replay-file [tick]");
+            System.exit(2);
+        }
+        Replay replay = Replay.read(args[0]);
+        int seekTick = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+        Level level = Level.load(replay.getLevelFile());
+        replay.prepare(level);
+
+        Simulation simulation = new Simulation(level.getStages());
+        byte[] stateAtSeek = null;
+        long start = System.nanoTime();
+        for(int tick = 0; tick < replay.getTickCount(); tick ++){
+            if(tick == seekTick){
+                stateAtSeek = state(simulation);
+            }
+            simulation.tick(replay.getInput(tick));
+        }
+        long elapsed = System.nanoTime() - start;
+        if(seekTick == replay.getTickCount()){
+            stateAtSeek = state(simulation);
+        }
+        long gameTime = (long) (simulation.getTimerTicks() * 1000 / replay.getTickRate());
+        System.out.printf("%d ticks played in %.1f ms (%.0f ticks/s)%n", replay.getTickCount(), elapsed / 1e6,
+                replay.getTickCount() / (elapsed / 1e9));
+        System.out.printf("%s at stage %d with %d deaths in %02d : %02d : %02d%n",
+                simulation.isFinished() ? "Finished" : "Stopped", Math.min(simulation.getStageIndex() + 1,
+                        level.getStages().size()), simulation.getDeathNumber(), gameTime / 60000,
+                gameTime % 60000 / 1000, gameTime % 1000 / 10);
+
+        if(stateAtSeek != null){
+            Simulation seeking = new Simulation(level.getStages());
+            start = System.nanoTime();
+            replay.seek(seeking, seekTick);
+            elapsed = System.nanoTime() - start;
+            boolean isSame = Arrays.equals(stateAtSeek, state(seeking));
+            System.out.printf("Seek to tick %d took %.2f ms, the state %s%n", seekTick, elapsed / 1e6,
+                    isSame ? "matches the full simulation" : "DOES NOT MATCH the full simulation");
+            if(!isSame){
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Writes the state of a simulation to bytes, so that two states can be compared.
+     * @param simulation The simulation.
+     * @return The state.
+     * @throws IOException If the state cannot be written.
+     */
+    private static byte[] state(Simulation simulation) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        simulation.writeState(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ReplayVerifier checks a directory of replay files without a window. Every replay is simulated again from its
+ * inputs in a separate task of a fork-join pool, so the replays are verified on all cores at the same time.
+ * For every replay, the stage, the death number and the time that the simulation reaches are printed, and they are
+ * compared to the result that was stored in the replay when it was recorded. The program exits with status 1 if
+ * any replay does not match its stored result or cannot be simulated.
+ * Usage: java ReplayVerifier directory [threads]
+ */
+public class ReplayVerifier {
+
+    // Extension of the replay files in the directory
+    private static final String REPLAY_EXTENSION = ".rep";
+
+    // Levels of the replays by the path of their files. A level is loaded once and shared by its replays,
+    // the simulations only read it
+    private static final ConcurrentHashMap<String, Level> levels = new ConcurrentHashMap<>();
+
+    /**
+     * Verifies the replays.
+     * @param args Path of the directory and an optional number of threads, all cores by default.
+     */
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java ReplayVerifier directory [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File[] files = new File(args[0]).listFiles((directory, name) -> name.endsWith(REPLAY_EXTENSION));
+        if(files == null){
+            System.out.println("Not a directory: " + args[0]);
+            System.exit(2);
+        }
+        Arrays.sort(files);
+
+        ArrayList<Verification> verifications = new ArrayList<>();
+        for(File file : files){
+            verifications.add(new Verification(file));
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        pool.invoke(new RecursiveAction(){
+            @Override
+            protected void compute(){
+                invokeAll(verifications);
+            }
+        });
+        pool.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        // The results are printed in the order of the file names, independent of the order the tasks ended in
+        int failures = 0;
+        long ticks = 0;
+        for(Verification verification : verifications){
+            System.out.println(verification.report());
+            if(!verification.isMatching()){
+                failures ++;
+            }
+            ticks += verification.ticks;
+        }
+        System.out.printf("%d replays, %d failed, %d ticks in %.1f ms on %d threads (%.0f ticks/s)%n",
+                verifications.size(), failures, ticks, elapsed / 1e6, threads, ticks / (elapsed / 1e9));
+        if(failures > 0){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the level of a replay, loading it if no replay used it before.
+     * @param file Path of the level file.
+     * @return The level.
+     */
+    private static Level level(String file){
+        return levels.computeIfAbsent(file, Level::load);
+    }
+
+    /**
+     * A task that simulates one replay and keeps its result.
+     */
+    private static class Verification extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // The replay file
+        private File file;
+        // The replay, null if it could not be read
+        private Replay replay;
+        // Result of the simulation
+        private int stageIndex;
+        private int deathNumber;
+        private long timerTicks;
+        private int ticks;
+        private double tickRate;
+        // Reason why the replay could not be simulated, null if it was simulated
+        private String error;
+
+        /**
+         * Constructor of the class.
+         * @param file The replay file.
+         */
+        private Verification(File file){
+            this.file = file;
+        }
+
+        @Override
+        protected void compute(){
+            try{
+                replay = Replay.read(file.getPath());
+                Level level = level(replay.getLevelFile());
+                replay.verify(level);
+                Simulation simulation = new Simulation(level.getStages());
+                for(int tick = 0; tick < replay.getTickCount(); tick ++){
+                    simulation.tick(replay.getInput(tick));
+                }
+                stageIndex = simulation.getStageIndex();
+                deathNumber = simulation.getDeathNumber();
+                timerTicks = simulation.getTimerTicks();
+                ticks = replay.getTickCount();
+                tickRate = replay.getTickRate();
+            }
+            catch(Exception e){
+                error = e.getMessage() == null ? e.toString() : e.getMessage();
+            }
+        }
+
+        /**
+         * Indicates whether the simulation reached the result that was stored in the replay.
+         * A replay that cannot be read, including one that does not store its result, does not match.
+         * @return true if the replay is valid, false otherwise.
+         */
+        private boolean isMatching(){
+            if(error != null){
+                return false;
+            }
+            return replay.getFinalStageIndex() == stageIndex && replay.getFinalDeathNumber() == deathNumber &&
+                    replay.getFinalTimerTicks() == timerTicks;
+        }
+
+        /**
+         * Returns the line that is printed for the replay.
+         * @return The name of the file with the result of the simulation.
+         */
+        private String report(){
+            if(error != null){
+                return file.getName() + ": ERROR " + error;
+            }
+            long gameTime = (long) (timerTicks * 1000 / tickRate);
+            String line = String.format("%s: stage %d, %d deaths, %d ticks (%02d : %02d : %02d)", file.getName(),
+                    stageIndex, deathNumber, timerTicks, gameTime / 60000, gameTime % 60000 / 1000,
+                    gameTime % 1000 / 10);
+            if(!isMatching()){
+                return line + String.format(" MISMATCH, recorded stage %d, %d deaths, %d ticks",
+                        replay.getFinalStageIndex(), replay.getFinalDeathNumber(), replay.getFinalTimerTicks());
+            }
+            return line + " OK";
+        }
+    }
+}
@@ -0,0 +1,488 @@
+import java.nio.ByteBuffer;
+
+/**
+ * RewindBuffer keeps the history of the last ticks of a stage, so the player can go back in time while practicing.
+ * After every tick the state of the player (position, y velocity and facing direction), the door, the button and
+ * the time counter is captured into a ring buffer of a fixed size outside of the Java heap.
+ * Every KEYFRAME_INTERVAL ticks the whole state is stored as a keyframe, and the ticks between two keyframes only
+ * store what differs from a prediction: the player usually moves as it did in the last tick, so the position is
+ * predicted from the last two ticks and only the bits of the difference are stored, most ticks take a few bytes.
+ * When the buffer is full, the oldest keyframe and the ticks after it are dropped.
+ * <p>
+ * Going back to a tick reads the last keyframe before it and applies the ticks after it. The ticks after the tick
+ * that was gone back to are dropped, the run continues from there. The history belongs to one map, it starts again
+ * when the stage changes or the run is reset.
+ * Capturing and going back do not allocate memory.
+ */
+public class RewindBuffer {
+
+    // Size of the buffer by default, holds more than an hour of ticks at the default tick rate
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    // Number of ticks between two keyframes, 2 seconds at the default tick rate
+    public static final int KEYFRAME_INTERVAL = 48;
+
+    // Bits of the first byte of a tick, a set bit means the value differs from its prediction
+    private static final int CHANGED_X = 1;
+    private static final int CHANGED_Y = 2;
+    private static final int CHANGED_VELOCITY_Y = 4;
+    private static final int CHANGED_FACING = 8;
+    private static final int CHANGED_DOOR = 16;
+    private static final int CHANGED_PRESSES = 32;
+    private static final int CHANGED_PRESSING = 64;
+    private static final int CHANGED_TIMER = 128;
+    // Largest size of a keyframe or a tick. A tick never starts so close to the end of the buffer that it
+    // could cross it, it is stored at the beginning of the buffer instead
+    private static final int MAX_RECORD_BYTES = 64;
+    // Size of a keyframe: the position and the y velocity, the facing direction, the door top, the button presses,
+    // whether the button is pressed and the time counter
+    private static final int KEYFRAME_BYTES = 3 * Double.BYTES + Character.BYTES + 2 * Integer.BYTES + 1 + Long.BYTES;
+
+    /**
+     * The state of a tick and the state of the tick before it, which the predictions are made from.
+     * The writer keeps the state of the last captured tick, and going back reads the ticks into another one.
+     */
+    private static class State {
+        double x;
+        double y;
+        double velocityY;
+        char facingDirection;
+        int doorTop;
+        int buttonPressNum;
+        boolean isButtonPressing;
+        long timerTicks;
+        // Values of the tick before, only the values that are predicted
+        double previousX;
+        double previousY;
+        double previousVelocityY;
+        int previousDoorTop;
+
+        /**
+         * Makes the current values the values of the tick before. After a keyframe both are the same,
+         * so the first tick after it is predicted to stand still.
+         */
+        void advance(){
+            previousX = x;
+            previousY = y;
+            previousVelocityY = velocityY;
+            previousDoorTop = doorTop;
+        }
+
+        void copy(State other){
+            x = other.x;
+            y = other.y;
+            velocityY = other.velocityY;
+            facingDirection = other.facingDirection;
+            doorTop = other.doorTop;
+            buttonPressNum = other.buttonPressNum;
+            isButtonPressing = other.isButtonPressing;
+            timerTicks = other.timerTicks;
+            previousX = other.previousX;
+            previousY = other.previousY;
+            previousVelocityY = other.previousVelocityY;
+            previousDoorTop = other.previousDoorTop;
+        }
+    }
+
+    // The ticks in a direct buffer, read and written at absolute positions
+    private ByteBuffer data;
+    // Position that the next tick is written at
+    private int writePosition = 0;
+    // Keyframes in the order they were written, as a ring of their ticks and positions. The first one is the oldest
+    private long[] keyframeTicks;
+    private int[] keyframePositions;
+    private int firstKeyframe = 0;
+    private int keyframeCount = 0;
+    // Number of the last captured tick, the ticks are numbered from 0 for every map
+    private long lastTick = -1;
+    // The map that the history belongs to
+    private Map map;
+    // State of the last captured tick, and the state that the ticks are read into when going back
+    private State written = new State();
+    private State read = new State();
+    // The value that the last getDifference or getVarint call read, so reading does not create objects
+    private long difference;
+
+    /**
+     * Constructor of the class.
+     * @param capacity Size of the buffer in bytes, it is allocated once outside of the Java heap.
+     */
+    public RewindBuffer(int capacity){
+        if(capacity < 2 * KEYFRAME_INTERVAL * MAX_RECORD_BYTES){
+            throw new IllegalStateException("a rewind buffer needs at least " +
+                    2 * KEYFRAME_INTERVAL * MAX_RECORD_BYTES + " bytes");
+        }
+        data = ByteBuffer.allocateDirect(capacity);
+        // Every keyframe takes at least MAX_RECORD_BYTES with the space that it may leave at the end of the buffer
+        keyframeTicks = new long[capacity / MAX_RECORD_BYTES + 1];
+        keyframePositions = new int[keyframeTicks.length];
+    }
+
+    /**
+     * Captures the state of a simulation after a tick. The history starts again if the simulation is on another map
+     * than the last captured tick.
+     * @param simulation The simulation.
+     */
+    public void capture(Simulation simulation){
+        if(simulation.getMap() != map){
+            clear();
+            map = simulation.getMap();
+        }
+        State state = written;
+        Player player = map.getPlayer();
+        double x = player.getX();
+        double y = player.getY();
+        double velocityY = player.getVelocityY();
+        char facingDirection = player.getFacingDirection();
+        int doorTop = map.getDoorTop();
+        int buttonPressNum = map.getButtonPressNum();
+        boolean isButtonPressing = map.getIsButtonPressing();
+        long timerTicks = simulation.getTimerTicks();
+
+        lastTick ++;
+        int position = startRecord(writePosition);
+        if(keyframeCount == 0 || lastTick - keyframeTicks[lastKeyframe()] >= KEYFRAME_INTERVAL){
+            addKeyframe(lastTick, position);
+            data.putDouble(position, x);
+            data.putDouble(position + 8, y);
+            data.putDouble(position + 16, velocityY);
+            data.putChar(position + 24, facingDirection);
+            data.putInt(position + 26, doorTop);
+            data.putInt(position + 30, buttonPressNum);
+            data.put(position + 34, (byte) (isButtonPressing ? 1 : 0));
+            data.putLong(position + 35, timerTicks);
+            writePosition = position + KEYFRAME_BYTES;
+            state.x = x;
+            state.y = y;
+            state.velocityY = velocityY;
+            state.doorTop = doorTop;
+            state.advance();
+        }
+        else{
+            // The first byte tells which values differ from their predictions, it is written after them
+            int flags = 0;
+            int next = position + 1;
+            long xBits = Double.doubleToRawLongBits(x);
+            long yBits = Double.doubleToRawLongBits(y);
+            long velocityBits = Double.doubleToRawLongBits(velocityY);
+            long predictedX = Double.doubleToRawLongBits(state.x + (state.x - state.previousX));
+            long predictedY = Double.doubleToRawLongBits(state.y + (state.y - state.previousY));
+            long predictedVelocity = Double.doubleToRawLongBits(state.velocityY +
+                    (state.velocityY - state.previousVelocityY));
+            if(xBits != predictedX){
+                flags |= CHANGED_X;
+                next = putDifference(next, xBits ^ predictedX);
+            }
+            if(yBits != predictedY){
+                flags |= CHANGED_Y;
+                next = putDifference(next, yBits ^ predictedY);
+            }
+            if(velocityBits != predictedVelocity){
+                flags |= CHANGED_VELOCITY_Y;
+                next = putDifference(next, velocityBits ^ predictedVelocity);
+            }
+            if(facingDirection != state.facingDirection){
+                flags |= CHANGED_FACING;
+                data.putChar(next, facingDirection);
+                next += 2;
+            }
+            // The door moves by the same distance in every tick while it opens
+            int predictedDoorTop = state.doorTop + (state.doorTop - state.previousDoorTop);
+            if(doorTop != predictedDoorTop){
+                flags |= CHANGED_DOOR;
+                next = putVarint(next, zigzag(doorTop - predictedDoorTop));
+            }
+            if(buttonPressNum != state.buttonPressNum){
+                flags |= CHANGED_PRESSES;
+                next = putVarint(next, buttonPressNum);
+            }
+            if(isButtonPressing != state.isButtonPressing){
+                flags |= CHANGED_PRESSING;
+            }
+            // The time counter counts every tick, it only goes back when the stage is restarted
+            if(timerTicks != state.timerTicks + 1){
+                flags |= CHANGED_TIMER;
+                next = putVarint(next, zigzag(timerTicks - state.timerTicks));
+            }
+            data.put(position, (byte) flags);
+            writePosition = next;
+            state.advance();
+            state.x = x;
+            state.y = y;
+            state.velocityY = velocityY;
+            state.doorTop = doorTop;
+        }
+        state.facingDirection = facingDirection;
+        state.buttonPressNum = buttonPressNum;
+        state.isButtonPressing = isButtonPressing;
+        state.timerTicks = timerTicks;
+    }
+
+    /**
+     * Takes a simulation back by a number of ticks, or to the oldest tick in the history if it does not reach
+     * that far. The ticks after it are dropped from the history.
+     * @param simulation The simulation, it must be on the map of the history.
+     * @param ticks Number of ticks to go back.
+     * @return true if the simulation went back, false if there is no older tick.
+     */
+    public boolean rewind(Simulation simulation, int ticks){
+        if(keyframeCount == 0 || simulation.getMap() != map){
+            return false;
+        }
+        long target = Math.max(keyframeTicks[firstKeyframe], lastTick - ticks);
+        if(target == lastTick){
+            return false;
+        }
+        // Dropping the keyframes after the target, the last one that is left is the keyframe of the target
+        while(keyframeTicks[lastKeyframe()] > target){
+            keyframeCount --;
+        }
+        int position = keyframePositions[lastKeyframe()];
+        position = readKeyframe(position);
+        for(long tick = keyframeTicks[lastKeyframe()] + 1; tick <= target; tick ++){
+            position = readTick(position);
+        }
+        writePosition = position;
+        lastTick = target;
+        written.copy(read);
+
+        // Restoring the state, the player is drawn moving from its current position to the restored one
+        Player player = map.getPlayer();
+        player.storePreviousPosition();
+        player.setX(read.x);
+        player.setY(read.y);
+        player.setNextX(read.x);
+        player.setNextY(read.y);
+        player.setVelocityY(read.velocityY);
+        player.setFacingDirection(read.facingDirection);
+        map.restoreState(read.doorTop, read.buttonPressNum, read.isButtonPressing);
+        simulation.setTimerTicks(read.timerTicks);
+        return true;
+    }
+
+    /**
+     * Drops the whole history.
+     */
+    public void clear(){
+        writePosition = 0;
+        firstKeyframe = 0;
+        keyframeCount = 0;
+        lastTick = -1;
+        map = null;
+    }
+
+    /**
+     * Returns the number of ticks that the history reaches back.
+     * @return The number of ticks before the last captured tick that can be gone back to.
+     */
+    public long getHistoryTicks(){
+        return keyframeCount == 0 ? 0 : lastTick - keyframeTicks[firstKeyframe];
+    }
+
+    /**
+     * Returns the size of the buffer.
+     * @return The capacity in bytes.
+     */
+    public int getCapacity(){
+        return data.capacity();
+    }
+
+    /**
+     * Finds the position that a record is written at and makes room for it. A record that could cross the end of
+     * the buffer is written at its beginning, and the oldest keyframes whose ticks would be overwritten are dropped.
+     * @param position Position after the last record.
+     * @return The position of the record.
+     */
+    private int startRecord(int position){
+        if(position + MAX_RECORD_BYTES > data.capacity()){
+            position = 0;
+        }
+        while(keyframeCount > 0 && position <= keyframePositions[firstKeyframe] &&
+              keyframePositions[firstKeyframe] < position + MAX_RECORD_BYTES){
+            firstKeyframe = (firstKeyframe + 1) % keyframeTicks.length;
+            keyframeCount --;
+        }
+        return position;
+    }
+
+    /**
+     * Adds a keyframe after the last one.
+     * @param tick Number of the tick of the keyframe.
+     * @param position Position of the keyframe.
+     */
+    private void addKeyframe(long tick, int position){
+        int index = (firstKeyframe + keyframeCount) % keyframeTicks.length;
+        keyframeTicks[index] = tick;
+        keyframePositions[index] = position;
+        keyframeCount ++;
+    }
+
+    /**
+     * Returns the index of the last keyframe in the ring.
+     * @return The index, only valid if there is a keyframe.
+     */
+    private int lastKeyframe(){
+        return (firstKeyframe + keyframeCount - 1) % keyframeTicks.length;
+    }
+
+    /**
+     * Reads a keyframe into the read state.
+     * @param position Position of the keyframe.
+     * @return Position after the keyframe.
+     */
+    private int readKeyframe(int position){
+        State state = read;
+        state.x = data.getDouble(position);
+        state.y = data.getDouble(position + 8);
+        state.velocityY = data.getDouble(position + 16);
+        state.facingDirection = data.getChar(position + 24);
+        state.doorTop = data.getInt(position + 26);
+        state.buttonPressNum = data.getInt(position + 30);
+        state.isButtonPressing = data.get(position + 34) != 0;
+        state.timerTicks = data.getLong(position + 35);
+        state.advance();
+        return position + KEYFRAME_BYTES;
+    }
+
+    /**
+     * Reads a tick after the tick in the read state, with the same predictions that it was written with.
+     * @param position Position after the last record that was read.
+     * @return Position after the tick.
+     */
+    private int readTick(int position){
+        position = position + MAX_RECORD_BYTES > data.capacity() ? 0 : position;
+        State state = read;
+        int flags = data.get(position) & 0xFF;
+        int next = position + 1;
+        double predictedX = state.x + (state.x - state.previousX);
+        double predictedY = state.y + (state.y - state.previousY);
+        double predictedVelocity = state.velocityY + (state.velocityY - state.previousVelocityY);
+        int predictedDoorTop = state.doorTop + (state.doorTop - state.previousDoorTop);
+        state.advance();
+        state.x = predictedX;
+        state.y = predictedY;
+        state.velocityY = predictedVelocity;
+        state.doorTop = predictedDoorTop;
+        if((flags & CHANGED_X) != 0){
+            next = getDifference(next);
+            state.x = Double.longBitsToDouble(Double.doubleToRawLongBits(predictedX) ^ difference);
+        }
+        if((flags & CHANGED_Y) != 0){
+            next = getDifference(next);
+            state.y = Double.longBitsToDouble(Double.doubleToRawLongBits(predictedY) ^ difference);
+        }
+        if((flags & CHANGED_VELOCITY_Y) != 0){
+            next = getDifference(next);
+            state.velocityY = Double.longBitsToDouble(Double.doubleToRawLongBits(predictedVelocity) ^ difference);
+        }
+        if((flags & CHANGED_FACING) != 0){
+            state.facingDirection = data.getChar(next);
+            next += 2;
+        }
+        if((flags & CHANGED_DOOR) != 0){
+            next = getVarint(next);
+            state.doorTop = predictedDoorTop + (int) unzigzag(difference);
+        }
+        if((flags & CHANGED_PRESSES) != 0){
+            next = getVarint(next);
+            state.buttonPressNum = (int) difference;
+        }
+        if((flags & CHANGED_PRESSING) != 0){
+            state.isButtonPressing = !state.isButtonPressing;
+        }
+        if((flags & CHANGED_TIMER) != 0){
+            next = getVarint(next);
+            state.timerTicks += unzigzag(difference);
+        }
+        else{
+            state.timerTicks ++;
+        }
+        return next;
+    }
+
+    /**
+     * Writes the bits that differ between a value and its prediction. The zero bytes at both ends are left out:
+     * the first byte holds the number of zero bytes at the low end and the number of the bytes that are written.
+     * @param position Position to write at.
+     * @param bits The bits that differ, not 0.
+     * @return Position after the written bytes.
+     */
+    private int putDifference(int position, long bits){
+        int trailing = Long.numberOfTrailingZeros(bits) >>> 3;
+        int length = 8 - trailing - (Long.numberOfLeadingZeros(bits) >>> 3);
+        data.put(position ++, (byte) (trailing << 4 | length));
+        bits >>>= trailing * 8;
+        for(int i = 0; i < length; i ++){
+            data.put(position ++, (byte) bits);
+            bits >>>= 8;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the bits written by putDifference into the difference field.
+     * @param position Position to read at.
+     * @return Position after the read bytes.
+     */
+    private int getDifference(int position){
+        int header = data.get(position ++);
+        int trailing = header >>> 4 & 0xF;
+        int length = header & 0xF;
+        long bits = 0;
+        for(int i = 0; i < length; i ++){
+            bits |= (data.get(position ++) & 0xFFL) << (8 * i);
+        }
+        difference = bits << (trailing * 8);
+        return position;
+    }
+
+    /**
+     * Writes a value that is not negative in 7 bit groups, the highest bit of a byte is set if more bytes follow.
+     * @param position Position to write at.
+     * @param value The value.
+     * @return Position after the written bytes.
+     */
+    private int putVarint(int position, long value){
+        while((value & ~0x7FL) != 0){
+            data.put(position ++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        data.put(position ++, (byte) value);
+        return position;
+    }
+
+    /**
+     * Reads a value written by putVarint into the difference field.
+     * @param position Position to read at.
+     * @return Position after the read bytes.
+     */
+    private int getVarint(int position){
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do{
+            b = data.get(position ++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }while(b < 0);
+        difference = value;
+        return position;
+    }
+
+    /**
+     * Maps a signed value to a value that is not negative, so small negative values take few bytes.
+     * @param value The signed value.
+     * @return 0, -1, 1, -2, 2 ... are mapped to 0, 1, 2, 3, 4 ...
+     */
+    private static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses zigzag.
+     * @param value The mapped value.
+     * @return The signed value.
+     */
+    private static long unzigzag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
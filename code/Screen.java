@@ -0,0 +1,141 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Field;
+
+/**
+ * Screen provides the drawing operations that StdDraw does not have, such as drawing an image from memory.
+ * It draws to the offscreen canvas of StdDraw, so the result is shown with the next StdDraw.show() call.
+ * The coordinates are the coordinates of the game area: x is in [0, 800] and y is in [0, 600] from bottom to top.
+ */
+public class Screen {
+
+    // Size of the game area, the canvas is created with the same size in pixels
+    public static final int WIDTH = 800;
+    public static final int HEIGHT = 600;
+    // StdDraw draws to a canvas that has two pixels for every unit, images are rendered with the same resolution
+    public static final int PIXEL_SCALE = 2;
+
+    // The graphics that the screen draws to, if it is null the offscreen canvas of StdDraw is used
+    private static Graphics2D target;
+    // Reflective access to the offscreen canvas of StdDraw, which is private
+    private static Field offscreenField;
+
+    // Screen only has static methods
+    private Screen(){
+    }
+
+    /**
+     * Returns the graphics that the screen draws to. It uses the coordinates of the canvas in pixels,
+     * where y goes from top to bottom.
+     * @return The graphics of the current target.
+     */
+    public static Graphics2D graphics(){
+        if(target != null){
+            return target;
+        }
+        try{
+            if(offscreenField == null){
+                offscreenField = StdDraw.class.getDeclaredField("offscreen");
+                offscreenField.setAccessible(true);
+            }
+            // The field is read every time, since StdDraw creates a new canvas when the canvas size changes
+            return (Graphics2D) offscreenField.get(null);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException("could not access the canvas of StdDraw", e);
+        }
+    }
+
+    /**
+     * Makes the screen draw to the given graphics instead of the canvas of StdDraw,
+     * which allows drawing without a window.
+     * @param graphics Graphics that uses the canvas coordinates in pixels, or null to draw to StdDraw again.
+     */
+    public static void setTarget(Graphics2D graphics){
+        target = graphics;
+    }
+
+    /**
+     * Creates a transparent image for a part of the game area in the resolution of the canvas.
+     * @param width Width of the area.
+     * @param height Height of the area.
+     * @return The image, its graphics can be obtained by createGraphics.
+     */
+    public static BufferedImage createImage(double width, double height){
+        return new BufferedImage((int) Math.ceil(width * PIXEL_SCALE), (int) Math.ceil(height * PIXEL_SCALE),
+                BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Creates an opaque image for a part of the game area in the resolution of the canvas. Drawing an opaque
+     * image is much faster than drawing a transparent one, so it is used for the layers that cover an area fully.
+     * @param width Width of the area.
+     * @param height Height of the area.
+     * @return The image, its graphics can be obtained by createGraphics.
+     */
+    public static BufferedImage createOpaqueImage(double width, double height){
+        return new BufferedImage((int) Math.ceil(width * PIXEL_SCALE), (int) Math.ceil(height * PIXEL_SCALE),
+                BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Creates the graphics of an image that covers a part of the game area. Drawing to the graphics with the
+     * canvas coordinates in pixels draws to the matching pixels of the image.
+     * @param image Image created with createImage.
+     * @param xLeft Left boundary of the area that the image covers.
+     * @param yTop Upper boundary of the area that the image covers.
+     * @return The graphics of the image. It must be disposed after drawing.
+     */
+    public static Graphics2D createGraphics(BufferedImage image, double xLeft, double yTop){
+        Graphics2D graphics = image.createGraphics();
+        graphics.scale(PIXEL_SCALE, PIXEL_SCALE);
+        graphics.translate(-xLeft, -(HEIGHT - yTop));
+        // Same rendering hints as the canvas of StdDraw
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        return graphics;
+    }
+
+    /**
+     * Draws an image to the screen in one call.
+     * @param image The image, created with createImage.
+     * @param xLeft Left boundary of the area that the image covers.
+     * @param yTop Upper boundary of the area that the image covers.
+     * @param width Width of the area.
+     * @param height Height of the area.
+     */
+    public static void drawImage(Image image, double xLeft, double yTop, double width, double height){
+        drawImage(graphics(), image, xLeft, yTop, width, height);
+    }
+
+    /**
+     * Draws an image to the given graphics in one call. The position is not rounded, so an image that moves
+     * less than a unit between two frames is still drawn at its exact position.
+     * @param graphics The graphics that the image is drawn to.
+     * @param image The image, created with createImage.
+     * @param xLeft Left boundary of the area that the image covers.
+     * @param yTop Upper boundary of the area that the image covers.
+     * @param width Width of the area.
+     * @param height Height of the area.
+     */
+    public static void drawImage(Graphics2D graphics, Image image, double xLeft, double yTop,
+                                 double width, double height){
+        AffineTransform transform = AffineTransform.getTranslateInstance(xLeft, HEIGHT - yTop);
+        transform.scale(width / image.getWidth(null), height / image.getHeight(null));
+        graphics.drawImage(image, transform, null);
+    }
+
+    /**
+     * Draws a filled rectangle, same as StdDraw.filledRectangle but to the given graphics.
+     * @param graphics The graphics that the rectangle is drawn to.
+     * @param x The x-center of the rectangle.
+     * @param y The y-center of the rectangle.
+     * @param halfWidth The halfwidth of the rectangle.
+     * @param halfHeight The halfheight of the rectangle.
+     */
+    public static void filledRectangle(Graphics2D graphics, double x, double y, double halfWidth, double halfHeight){
+        graphics.fill(new Rectangle2D.Double(x - halfWidth, HEIGHT - y - halfHeight, 2 * halfWidth, 2 * halfHeight));
+    }
+}
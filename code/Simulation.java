@@ -0,0 +1,259 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Simulation runs the game logic one tick at a time without drawing anything.
+ * It owns the stages, the current map and the statistics of the run. The input of a tick is a bitmask,
+ * so the simulation can be stepped by the game loop as well as by bots, replays or tests without a window.
+ * Drawing the game is only a read of the state that the simulation exposes.
+ */
+public class Simulation {
+
+    // Input bits. The input of a tick is the bitwise or of the keys that are pressed during that tick
+    public static final int INPUT_LEFT = 1;
+    public static final int INPUT_RIGHT = 2;
+    public static final int INPUT_UP = 4;
+    // Restart and reset are clicks, they are only set for the tick in which the click is accepted
+    public static final int INPUT_RESTART = 8;
+    public static final int INPUT_RESET = 16;
+
+    // Event bits returned by tick(), they tell the caller what happened during the tick
+    public static final int EVENT_SPIKE_HIT = 1;
+    public static final int EVENT_RESTART = 2;
+    public static final int EVENT_RESET = 4;
+    public static final int EVENT_STAGE_PASSED = 8;
+    public static final int EVENT_FINISHED = 16;
+
+    // An ArrayList that stores all stages
+    private ArrayList<Stage> stages;
+    // stageIndex indicates the current stage of the run
+    private int stageIndex = 0;
+    // Map of the current stage
+    private Map map;
+    // deathNumber tracks the total number of spike hits and restarts
+    private int deathNumber = 0;
+    // Number of ticks simulated since the beginning of the run
+    private long tickCount = 0;
+    // Number of ticks counted by the time counter of the game.
+    // Restarting a stage takes the time counter back to the beginning of the stage
+    private long timerTicks = 0;
+    // Value of the time counter at the beginning of the current stage
+    private long stageStartTicks = 0;
+
+    /**
+     * Constructor of the class. The run starts from the first stage.
+     * @param stages An ArrayList that stores the Stage objects.
+     */
+    public Simulation(ArrayList<Stage> stages){
+        this(stages, 0);
+    }
+
+    /**
+     * Constructor of the class. The run starts from the given stage, used to practice or to measure a single stage.
+     * @param stages An ArrayList that stores the Stage objects.
+     * @param stageIndex Index of the stage that the run starts from.
+     */
+    public Simulation(ArrayList<Stage> stages, int stageIndex){
+        this.stages = stages;
+        this.stageIndex = stageIndex;
+        this.map = createMap(stages.get(stageIndex));
+    }
+
+    /**
+     * Advances the game by one tick.
+     * @param input Bitmask of the INPUT_ constants that are active during this tick.
+     * @return Bitmask of the EVENT_ constants that happened during this tick.
+     */
+    public int tick(int input){
+        // A finished run does not change anymore
+        if(isFinished()){
+            return EVENT_FINISHED;
+        }
+        // Resetting starts the whole run again from the first stage
+        if((input & INPUT_RESET) != 0){
+            reset();
+            return EVENT_RESET;
+        }
+        int events = 0;
+        tickCount ++;
+        timerTicks ++;
+
+        // The position before the tick is kept, so that the frames between two ticks can be interpolated
+        map.getPlayer().storePreviousPosition();
+        // Finding the next coordinates of the player and performing the collisions
+        applyInput(input);
+        map.movePlayer();
+        if(map.getIsSpikeHit()){
+            deathNumber ++;
+            events |= EVENT_SPIKE_HIT;
+        }
+        // Restarting counts as a death, and the player respawns to its initial position
+        if((input & INPUT_RESTART) != 0){
+            deathNumber ++;
+            map.restartStage();
+            timerTicks = stageStartTicks;
+            events |= EVENT_RESTART;
+        }
+        // Updating the button and the door after the player moved
+        map.pressButton();
+        map.doorCheck();
+
+        // If the player reaches the exit, the run continues from the next stage with a new map object
+        if(map.changeStage()){
+            stageIndex ++;
+            stageStartTicks = timerTicks;
+            events |= EVENT_STAGE_PASSED;
+            if(stageIndex < stages.size()){
+                map = createMap(stages.get(stageIndex));
+            }
+            else{
+                events |= EVENT_FINISHED;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Converts the pressed keys to the movement of the player according to the key codes of the current stage.
+     * @param input Bitmask of the INPUT_ constants that are active during this tick.
+     */
+    private void applyInput(int input){
+        StageRules rules = map.getStage().getRules();
+        // If left key is pressed, a "left-facing elephant" will be displayed
+        // When only the right key is pressed, a "right-facing elephant" will be displayed
+        if((input & INPUT_LEFT) != 0){
+            map.getPlayer().setFacingDirection('L');
+        }
+        else if((input & INPUT_RIGHT) != 0){
+            map.getPlayer().setFacingDirection('R');
+        }
+        char direction = rules.getHorizontalDirection(input);
+        if(direction != 'N'){
+            map.updateXCoordinate(direction);
+        }
+        map.updateYCoordinate(rules.getVerticalDirection(input));
+    }
+
+    /**
+     * Creates the map of a stage with a new player at the spawn point of the level.
+     * @param stage The stage of the map.
+     * @return The new map object.
+     */
+    public static Map createMap(Stage stage){
+        int[] spawn = stage.getLevel().getSpawn();
+        return new Map(stage, new Player(spawn[0], spawn[1]));
+    }
+
+    /**
+     * Resets the run. The game continues from the first stage with zero deaths.
+     */
+    public void reset(){
+        stageIndex = 0;
+        deathNumber = 0;
+        tickCount = 0;
+        timerTicks = 0;
+        stageStartTicks = 0;
+        map = createMap(stages.get(0));
+    }
+
+    /**
+     * Writes the state of the run, so that the run can continue from this tick later.
+     * @param out The stream that the state is written to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeState(DataOutputStream out) throws IOException{
+        out.writeInt(stageIndex);
+        out.writeInt(deathNumber);
+        out.writeLong(tickCount);
+        out.writeLong(timerTicks);
+        out.writeLong(stageStartTicks);
+        map.writeState(out);
+    }
+
+    /**
+     * Reads the state of a run that was written by writeState. The run continues from the tick it was written at.
+     * @param in The stream that the state is read from.
+     * @throws IOException If the stream cannot be read.
+     */
+    public void readState(DataInputStream in) throws IOException{
+        stageIndex = in.readInt();
+        deathNumber = in.readInt();
+        tickCount = in.readLong();
+        timerTicks = in.readLong();
+        stageStartTicks = in.readLong();
+        // A finished run keeps the map of the last stage. The map is only created again if the stage changed,
+        // since readState sets all of its changing values
+        Stage stage = stages.get(Math.min(stageIndex, stages.size() - 1));
+        if(map.getStage() != stage){
+            map = createMap(stage);
+        }
+        map.readState(in);
+    }
+
+    /**
+     * Indicates whether all stages are completed.
+     * @return true if the player passed the last stage, false otherwise.
+     */
+    public boolean isFinished(){
+        return stageIndex >= stages.size();
+    }
+
+    /**
+     * Returns the map of the current stage. After the last stage, the map of the last stage is returned.
+     * @return The current map object.
+     */
+    public Map getMap(){
+        return map;
+    }
+
+    /**
+     * Returns the index of the current stage.
+     * @return The index of the current stage.
+     */
+    public int getStageIndex(){
+        return stageIndex;
+    }
+
+    /**
+     * Returns the stages of the run.
+     * @return An ArrayList that stores the Stage objects.
+     */
+    public ArrayList<Stage> getStages(){
+        return stages;
+    }
+
+    /**
+     * Returns how many times did the player die.
+     * @return The death number of the player.
+     */
+    public int getDeathNumber(){
+        return deathNumber;
+    }
+
+    /**
+     * Returns the number of ticks simulated since the beginning of the run.
+     * @return The tick count of the run.
+     */
+    public long getTickCount(){
+        return tickCount;
+    }
+
+    /**
+     * Returns the number of ticks counted by the time counter. Unlike getTickCount(), the ticks of the restarted
+     * attempts of a stage are not counted.
+     * @return The elapsed game time in ticks.
+     */
+    public long getTimerTicks(){
+        return timerTicks;
+    }
+
+    /**
+     * Sets the time counter back to an earlier tick of the current stage, used to go back in time while practicing.
+     * @param timerTicks The value of the time counter at that tick.
+     */
+    public void setTimerTicks(long timerTicks){
+        this.timerTicks = timerTicks;
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solver finds the smallest number of ticks that every stage can be finished in, and the input of every tick of
+ * such a run. It searches the states of the simulation in the order of their tick (breadth-first), trying every
+ * combination of the left, right and up keys in every state, so the first state that reaches the exit is reached
+ * in the smallest number of ticks.
+ * <p>
+ * Every stage is searched twice. The first search compares the states with a coarse quantum, so it visits fewer
+ * states and finds a run that is close to the fastest one. Its number of ticks is an upper bound for the second
+ * search, which uses the fine quantum and drops every state that cannot reach the exit within the bound even by
+ * walking straight to it, the same estimate that an A* search would order the states by.
+ * <p>
+ * The ticks are simulated by Simulation itself, so the search follows the real rules of the stages, including the
+ * button presses of stage 4 and the gravity areas of stage 5. States whose player position, velocity, button
+ * presses and door height are the same after rounding to a quantum are treated as one state, and a hashed table of
+ * the visited states stops the search from expanding a state twice. Every tick of the search is divided among
+ * worker threads, each with its own simulation. A tick that hits a spike respawns the player, so it is never a part
+ * of the fastest run and is not expanded. The solved inputs can be written to a replay file to watch the run.
+ * Usage: java Solver [quantum] [threads] [replay-file]
+ */
+public class Solver {
+
+    // Default rounding of the coordinates and the velocity when the states are compared
+    private static final double DEFAULT_QUANTUM = 0.5;
+    // Rounding of the first search of a stage. A coarser rounding merges states that lead to different runs,
+    // and the first search does not find any run
+    private static final double COARSE_QUANTUM = 2;
+    // The search of a stage stops after this many ticks, 5 minutes at the default tick rate
+    private static final int MAX_TICKS = 7200;
+    // Number of inputs tried in every state, every combination of INPUT_LEFT, INPUT_RIGHT and INPUT_UP
+    private static final int INPUT_COUNT = 8;
+
+    /**
+     * A state of the search, with the tick input that led to it from the previous state.
+     */
+    private static class Node {
+        private byte[] state;
+        private Node parent;
+        private byte input;
+
+        private Node(byte[] state, Node parent, int input){
+            this.state = state;
+            this.parent = parent;
+            this.input = (byte) input;
+        }
+    }
+
+    /**
+     * Solves every stage and prints the results.
+     * @param args Optional quantum, number of threads and path of a replay file for the solved run.
+     * @throws Exception If the search fails or the replay cannot be written.
+     */
+    public static void main(String[] args) throws Exception{
+        double quantum = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_QUANTUM;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String replayFile = args.length > 2 ? args[2] : null;
+
+        Level level = Level.load(Level.DEFAULT_FILE);
+        ArrayList<Stage> stages = level.getStages();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayList<byte[]> solutions = new ArrayList<>();
+        long totalTicks = 0;
+        for(int stageIndex = 0; stageIndex < stages.size(); stageIndex ++){
+            long start = System.nanoTime();
+            int[] states = new int[1];
+            int visitedStates = 0;
+            byte[] coarse = null;
+            if(quantum < COARSE_QUANTUM){
+                coarse = solve(stages, stageIndex, COARSE_QUANTUM, MAX_TICKS, workers, threads, states);
+                visitedStates += states[0];
+            }
+            byte[] inputs = solve(stages, stageIndex, quantum, coarse == null ? MAX_TICKS : coarse.length,
+                    workers, threads, states);
+            visitedStates += states[0];
+            // Merging the states by the fine quantum can also lose the coarse run, which is still a valid run
+            if(inputs == null || coarse != null && inputs.length > coarse.length){
+                inputs = coarse;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if(inputs == null){
+                System.out.printf("Stage %d: no solution in %d ticks, %d states in %.1f s%n", stageIndex + 1,
+                        MAX_TICKS, visitedStates, seconds);
+                workers.shutdown();
+                System.exit(1);
+            }
+            solutions.add(inputs);
+            totalTicks += inputs.length;
+            System.out.printf("Stage %d: %d ticks (%s), %d states in %.1f s%n", stageIndex + 1, inputs.length,
+                    time(inputs.length), visitedStates, seconds);
+        }
+        workers.shutdown();
+        System.out.printf("All stages: %d ticks (%s)%n", totalTicks, time(totalTicks));
+
+        if(replayFile != null){
+            // The solutions are played one after the other from the beginning of the run, which also checks that
+            // the stages connect the same way as in the game
+            Simulation simulation = new Simulation(stages);
+            Replay replay = new Replay(level, Game.DEFAULT_TICK_RATE);
+            for(byte[] inputs : solutions){
+                for(byte input : inputs){
+                    replay.record(simulation, input);
+                    simulation.tick(input);
+                    replay.recordResult(simulation);
+                }
+            }
+            if(!simulation.isFinished()){
+                throw new IllegalStateException("the solved inputs did not finish the run");
+            }
+            replay.write(replayFile);
+            System.out.println("Replay written to " + replayFile);
+        }
+    }
+
+    /**
+     * Searches the fastest run of a stage.
+     * @param stages Stages of the level.
+     * @param stageIndex Index of the stage.
+     * @param quantum Rounding of the coordinates and the velocity when the states are compared.
+     * @param bound The largest number of ticks of a run that is searched.
+     * @param workers Threads that expand the states.
+     * @param threads Number of the threads.
+     * @param states Array whose first element is set to the number of visited states.
+     * @return The input of every tick of the fastest run, or null if the stage was not finished within the bound.
+     * @throws Exception If a worker fails.
+     */
+    private static byte[] solve(ArrayList<Stage> stages, int stageIndex, double quantum, int bound,
+                                ExecutorService workers, int threads, int[] states) throws Exception{
+        Simulation root = new Simulation(stages, stageIndex);
+        Set<Long> visited = ConcurrentHashMap.newKeySet();
+        visited.add(key(root.getMap(), quantum));
+        ArrayList<Node> frontier = new ArrayList<>();
+        frontier.add(new Node(state(root), null, 0));
+
+        for(int tick = 1; tick <= bound && !frontier.isEmpty(); tick ++){
+            // The states of this tick are divided into one slice for every thread
+            ArrayList<Callable<ArrayList<Node>>> slices = new ArrayList<>();
+            int sliceSize = (frontier.size() + threads - 1) / threads;
+            for(int from = 0; from < frontier.size(); from += sliceSize){
+                int to = Math.min(frontier.size(), from + sliceSize);
+                ArrayList<Node> slice = frontier;
+                int first = from;
+                int ticksLeft = bound - tick;
+                slices.add(() -> expand(stages, stageIndex, slice, first, to, quantum, ticksLeft, visited));
+            }
+            ArrayList<Node> next = new ArrayList<>();
+            for(Future<ArrayList<Node>> future : workers.invokeAll(slices)){
+                ArrayList<Node> expanded;
+                try{
+                    expanded = future.get();
+                }
+                catch(ExecutionException e){
+                    throw (Exception) e.getCause();
+                }
+                // A slice that reached the exit returns only that state, marked by a null state
+                if(!expanded.isEmpty() && expanded.get(0).state == null){
+                    states[0] = visited.size();
+                    return inputs(expanded.get(0), tick);
+                }
+                next.addAll(expanded);
+            }
+            frontier = next;
+        }
+        states[0] = visited.size();
+        return null;
+    }
+
+    /**
+     * Simulates one tick with every input from a slice of the states.
+     * @param stages Stages of the level.
+     * @param stageIndex Index of the stage.
+     * @param frontier States of the current tick.
+     * @param from Index of the first state of the slice.
+     * @param to Index after the last state of the slice.
+     * @param quantum Rounding of the coordinates and the velocity when the states are compared.
+     * @param ticksLeft Number of ticks that a new state has to reach the exit in.
+     * @param visited Keys of the visited states, shared by the threads.
+     * @return The new states, or a single node with a null state if the exit was reached.
+     * @throws IOException If a state cannot be read.
+     */
+    private static ArrayList<Node> expand(ArrayList<Stage> stages, int stageIndex, ArrayList<Node> frontier,
+                                          int from, int to, double quantum, int ticksLeft,
+                                          Set<Long> visited) throws IOException{
+        Simulation simulation = new Simulation(stages, stageIndex);
+        double velocityX = stages.get(stageIndex).getVelocityX();
+        ArrayList<Node> next = new ArrayList<>();
+        for(int i = from; i < to; i ++){
+            Node node = frontier.get(i);
+            for(int input = 0; input < INPUT_COUNT; input ++){
+                simulation.readState(new DataInputStream(new ByteArrayInputStream(node.state)));
+                int events = simulation.tick(input);
+                if((events & Simulation.EVENT_STAGE_PASSED) != 0){
+                    ArrayList<Node> solution = new ArrayList<>();
+                    solution.add(new Node(null, node, input));
+                    return solution;
+                }
+                // The player moves at most velocityX in a tick, so a state that is too far from the exit is dropped
+                if((events & Simulation.EVENT_SPIKE_HIT) != 0 ||
+                   (int) (simulation.getMap().getExitDistanceX() / velocityX) > ticksLeft){
+                    continue;
+                }
+                if(visited.add(key(simulation.getMap(), quantum))){
+                    next.add(new Node(state(simulation), node, input));
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Packs the rounded state of a map into a key. The fields are packed into separate bits, so two states
+     * have the same key only if their rounded values are the same (unless a value is out of its range).
+     * @param map The map.
+     * @param quantum Rounding of the coordinates and the velocity.
+     * @return The key of the state.
+     */
+    private static long key(Map map, double quantum){
+        Player player = map.getPlayer();
+        long x = Math.round(player.getX() / quantum) & 0xFFFFF;
+        long y = Math.round(player.getY() / quantum) & 0xFFFF;
+        long velocityY = Math.round(player.getVelocityY() / quantum) & 0xFFF;
+        long pressNum = Math.min(map.getButtonPressNum(), 15);
+        long pressing = map.getIsButtonPressing() ? 1 : 0;
+        long doorTop = map.getDoorTop() & 0x7FF;
+        return x << 44 | y << 28 | velocityY << 16 | pressNum << 12 | pressing << 11 | doorTop;
+    }
+
+    /**
+     * Writes the state of a simulation to bytes.
+     * @param simulation The simulation.
+     * @return The state.
+     * @throws IOException If the state cannot be written.
+     */
+    private static byte[] state(Simulation simulation) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        simulation.writeState(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Follows the parents of the last state back to the first state.
+     * @param last The state that reached the exit.
+     * @param ticks Number of ticks of the run.
+     * @return The input of every tick.
+     */
+    private static byte[] inputs(Node last, int ticks){
+        byte[] inputs = new byte[ticks];
+        Node node = last;
+        for(int tick = ticks - 1; tick >= 0; tick --){
+            inputs[tick] = node.input;
+            node = node.parent;
+        }
+        return inputs;
+    }
+
+    /**
+     * Formats a number of ticks at the default tick rate as m : s : ms, like the time counter of the game.
+     * @param ticks The number of ticks.
+     * @return The formatted time.
+     */
+    private static String time(long ticks){
+        long gameTime = (long) (ticks * 1000 / Game.DEFAULT_TICK_RATE);
+        return String.format("%02d : %02d : %02d", gameTime / 60000, gameTime % 60000 / 1000, gameTime % 1000 / 10);
+    }
+}
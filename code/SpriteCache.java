@@ -0,0 +1,153 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * SpriteCache keeps the pictures of the game in memory. Every picture file is decoded once, and every size and
+ * rotation of a picture that is drawn is rendered once into its own image in the resolution of the canvas.
+ * After that a sprite is referred to by a small integer ID, and drawing it only copies its image to the screen.
+ */
+public class SpriteCache {
+
+    // Picture files of the game
+    public static final String ELEPHANT_RIGHT_FILE = "misc/ElephantRight.png";
+    public static final String ELEPHANT_LEFT_FILE = "misc/ElephantLeft.png";
+    public static final String SPIKES_FILE = "misc/Spikes.png";
+
+    // Decoded picture files, the key is the path of the file
+    private static HashMap<String, BufferedImage> decodedFiles = new HashMap<>();
+    // Rendered sprites, the index of a sprite is its ID
+    private static BufferedImage[] images = new BufferedImage[8];
+    // Size of the area that a sprite covers on the screen, it is larger than the picture if the picture is rotated
+    private static double[] widths = new double[8];
+    private static double[] heights = new double[8];
+    // File, size and rotation that a sprite was rendered from, used to find a sprite that was already rendered
+    private static String[] files = new String[8];
+    private static double[] pictureWidths = new double[8];
+    private static double[] pictureHeights = new double[8];
+    private static double[] rotations = new double[8];
+    // Number of sprites
+    private static int count = 0;
+
+    // SpriteCache only has static methods
+    private SpriteCache(){
+    }
+
+    /**
+     * Decodes the picture files of the game, so that no file is read while the game is played.
+     */
+    public static void preload(){
+        decode(ELEPHANT_RIGHT_FILE);
+        decode(ELEPHANT_LEFT_FILE);
+        decode(SPIKES_FILE);
+    }
+
+    /**
+     * Returns the decoded picture file, the file is read only the first time.
+     * @param file Path of the picture file.
+     * @return The decoded picture.
+     */
+    private static BufferedImage decode(String file){
+        BufferedImage image = decodedFiles.get(file);
+        if(image == null){
+            try{
+                image = ImageIO.read(new File(file));
+            }
+            catch(IOException e){
+                throw new IllegalStateException("could not read image: " + file, e);
+            }
+            if(image == null){
+                throw new IllegalStateException("could not decode image: " + file);
+            }
+            decodedFiles.put(file, image);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the ID of the sprite of a picture in the given size and rotation. The sprite is rendered the first
+     * time it is asked for, after that the same ID is returned. Should be called once for every sprite that is
+     * used, not in every frame.
+     * @param file Path of the picture file.
+     * @param width Width of the picture before it is rotated.
+     * @param height Height of the picture before it is rotated.
+     * @param degrees Rotation of the picture counterclockwise in degrees.
+     * @return ID of the sprite.
+     */
+    public static int getSprite(String file, double width, double height, double degrees){
+        for(int id = 0; id < count; id ++){
+            if(files[id].equals(file) && pictureWidths[id] == width &&
+               pictureHeights[id] == height && rotations[id] == degrees){
+                return id;
+            }
+        }
+        if(count == images.length){
+            int capacity = 2 * count;
+            images = Arrays.copyOf(images, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            files = Arrays.copyOf(files, capacity);
+            pictureWidths = Arrays.copyOf(pictureWidths, capacity);
+            pictureHeights = Arrays.copyOf(pictureHeights, capacity);
+            rotations = Arrays.copyOf(rotations, capacity);
+        }
+        // The rotated picture covers a larger area unless it is rotated by a multiple of 90 degrees
+        double radians = Math.toRadians(degrees);
+        double cos = Math.abs(Math.cos(radians));
+        double sin = Math.abs(Math.sin(radians));
+        // Rounding removes the error of the sine and cosine, so a picture rotated by 90 degrees has the exact size
+        double areaWidth = Math.round((width * cos + height * sin) * 1e9) / 1e9;
+        double areaHeight = Math.round((width * sin + height * cos) * 1e9) / 1e9;
+
+        BufferedImage picture = decode(file);
+        BufferedImage image = Screen.createImage(areaWidth, areaHeight);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        // The picture is scaled to its size, rotated around its center and moved to the center of the image
+        AffineTransform transform = new AffineTransform();
+        transform.scale(Screen.PIXEL_SCALE, Screen.PIXEL_SCALE);
+        transform.translate(areaWidth / 2, areaHeight / 2);
+        transform.rotate(-radians);
+        transform.translate(-width / 2, -height / 2);
+        transform.scale(width / picture.getWidth(), height / picture.getHeight());
+        graphics.drawImage(picture, transform, null);
+        graphics.dispose();
+
+        images[count] = image;
+        widths[count] = areaWidth;
+        heights[count] = areaHeight;
+        files[count] = file;
+        pictureWidths[count] = width;
+        pictureHeights[count] = height;
+        rotations[count] = degrees;
+        count ++;
+        return count - 1;
+    }
+
+    /**
+     * Draws a sprite to the screen.
+     * @param id ID of the sprite.
+     * @param x The x-center of the sprite.
+     * @param y The y-center of the sprite.
+     */
+    public static void draw(int id, double x, double y){
+        Screen.drawImage(images[id], x - widths[id] / 2, y + heights[id] / 2, widths[id], heights[id]);
+    }
+
+    /**
+     * Draws a sprite to the given graphics, such as the graphics of a background layer.
+     * @param graphics The graphics that the sprite is drawn to.
+     * @param id ID of the sprite.
+     * @param x The x-center of the sprite.
+     * @param y The y-center of the sprite.
+     */
+    public static void draw(Graphics2D graphics, int id, double x, double y){
+        Screen.drawImage(graphics, images[id], x - widths[id] / 2, y + heights[id] / 2, widths[id], heights[id]);
+    }
+}
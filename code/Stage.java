@@ -1,28 +1,32 @@
 import java.awt.*;
+import java.util.ArrayList;
 
 /**
  * Stores the unique characteristics of every step of the game.
  * Provides methods that enable access and modification of the Stage characteristics.
  */
 public class Stage {
+    // The level that the stage is played on
+    private Level level;
     private int stageNumber;
     private double gravity;
     private double velocityX;
     private double velocityY;
-    private int rightCode;
-    private int leftCode;
-    private int upCode;
     private String clue;
     private String help;
     // Color of the obstacles
     private Color color;
-    // Color of the strips (only used in stage 5("Inbetween gravitii")
+    // Color of the strips that show the reversed gravity cells (only used in stage 5("Inbetween gravitii")
     private Color gravityStripColor;
-    // Indicates whether the help message is displaying
-    private boolean isHelpDisplaying;
+    // The rules of the stage compiled for the ticks
+    private StageRules rules;
+    // Indicates whether the help message is displaying. The game sets it on the simulation thread
+    // and draws it on the render thread
+    private volatile boolean isHelpDisplaying;
 
     /**
      * Constructor of the class.
+     * @param level The level that the stage is played on.
      * @param gravity The gravity value at the stage.
      * @param velocityX The distance that the player travels in one frame on the x-axis.
      * @param velocityY The distance that the player travels in one frame on the y-axis.
@@ -35,22 +39,42 @@ public class Stage {
      *               which means that the jump key is disabled at this stage.
      * @param clue Clue string for the stage.
      * @param help Help string for the stage.
+     * @param gravityField Gravity of the different areas of the level, null if the gravity is the same everywhere.
+     * @param isAutoJump Indicates whether the player jumps whenever it stands on the ground, as in stage 3.
+     * @param buttonPresses Number of button presses that open the door, 5 in stage 4 ("Never gonna give you up").
      */
-    public Stage(double gravity, double velocityX, double velocityY, int stageNumber, int rightCode,
-          int leftCode, int upCode, String clue, String help){
+    public Stage(Level level, double gravity, double velocityX, double velocityY, int stageNumber, int rightCode,
+          int leftCode, int upCode, String clue, String help, GravityField gravityField, boolean isAutoJump,
+          int buttonPresses){
 
+        this.level = level;
         this.gravity = gravity;
         this.velocityX = velocityX;
         this.velocityY = velocityY;
         this.stageNumber = stageNumber;
-        this.rightCode = rightCode;
-        this.leftCode = leftCode;
-        this.upCode = upCode;
         this.clue = clue;
         this.help = help;
+        this.rules = new StageRules(new int[]{rightCode, leftCode, upCode}, isAutoJump, buttonPresses, gravityField);
         this.isHelpDisplaying = false;
     }
 
+    /**
+     * Creates the stages of the level of the game from its file. Colors are not chosen here, so the stages can also
+     * be used by a headless Simulation.
+     * @return An ArrayList that stores the stages in the order they are played.
+     */
+    public static ArrayList<Stage> createStages(){
+        return Level.load(Level.DEFAULT_FILE).getStages();
+    }
+
+    /**
+     * Returns the level that the stage is played on.
+     * @return The level of the stage.
+     */
+    public Level getLevel(){
+        return this.level;
+    }
+
     /**
      * Returns the stage number.
      * @return The unique stage number.
@@ -84,14 +108,6 @@ public class Stage {
         return this.velocityY;
     }
 
-    /**
-     * Returns the key codes of the stage in the form [rightCode, leftCode, upCode].
-     * @return An array storing the unique key codes for the stage.
-     */
-    public int[] getKeyCodes(){
-        return new int[]{rightCode, leftCode, upCode};
-    }
-
     /**
      * Returns the clue for the stage.
      * @return The clue message of the stage.
@@ -140,6 +156,14 @@ public class Stage {
         this.color = color;
     }
 
+    /**
+     * Returns the rules of the stage compiled for the ticks.
+     * @return The compiled rules.
+     */
+    public StageRules getRules(){
+        return rules;
+    }
+
     /**
      * Returns the color of the gravity strips. Only used in stage 5 ("Inbetween gravitii").
      * @return The color of the gravity strips.
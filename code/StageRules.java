@@ -0,0 +1,164 @@
+import java.awt.event.KeyEvent;
+
+/**
+ * StageRules is the compiled form of the rules that make a stage different from the others: the keys that move the
+ * player, whether the player jumps by itself, how many button presses open the door and the gravity field.
+ * The rules are declared for every stage in the level file (see misc/level.txt) and compiled once when the stage is
+ * created. The keys become tables that give the movement of every input, and the other rules become plain values,
+ * so a tick runs the same code on every stage without checking which stage is played, and the calls to the rules
+ * always reach this one class.
+ */
+public class StageRules {
+
+    // Bits of the input that move the player, the tables have an entry for every combination of them
+    private static final int MOVEMENT_MASK = Simulation.INPUT_LEFT | Simulation.INPUT_RIGHT | Simulation.INPUT_UP;
+
+    // Key codes in the form [rightCode, leftCode, upCode] that the tables are compiled from
+    private int[] keyCodes;
+    // Horizontal direction ('R', 'L' or 'N') and vertical direction ('U' or 'N') of every movement input
+    private char[] horizontalDirections = new char[MOVEMENT_MASK + 1];
+    private char[] verticalDirections = new char[MOVEMENT_MASK + 1];
+    // Number of button presses that open the door
+    private int buttonPresses;
+    // Gravity of the different areas of the level, a field of a single normal cell if it is the same everywhere
+    private GravityField gravityField;
+    // Whether the stage declared a gravity field, only then the reversed cells are drawn
+    private boolean hasGravityField;
+
+    /**
+     * Compiles the rules of a stage.
+     * @param keyCodes Key codes of the stage in the form [rightCode, leftCode, upCode].
+     * @param isAutoJump true if the player jumps whenever it stands on the ground, without the jump key.
+     * @param buttonPresses Number of button presses that open the door.
+     * @param gravityField Gravity of the different areas of the level, null if it is the same everywhere.
+     */
+    public StageRules(int[] keyCodes, boolean isAutoJump, int buttonPresses, GravityField gravityField){
+        this.keyCodes = keyCodes.clone();
+        for(int input = 0; input <= MOVEMENT_MASK; input ++){
+            horizontalDirections[input] = findHorizontalDirection(input, keyCodes);
+            // A player that jumps by itself jumps as if the jump key was always pressed
+            verticalDirections[input] = isAutoJump ? 'U' : findVerticalDirection(input, keyCodes);
+        }
+        this.buttonPresses = buttonPresses;
+        this.hasGravityField = gravityField != null;
+        this.gravityField = gravityField != null ? gravityField :
+                new GravityField(0, 0, 1, 1, 1, new float[]{GravityField.NORMAL});
+    }
+
+    /**
+     * Finds the direction that an input moves the player in x direction.
+     * @param input Bitmask of the Simulation.INPUT_ constants that are active during the tick.
+     * @return 'R' if the player moves to the right, 'L' if it moves to the left, 'N' if it does not move.
+     */
+    public char getHorizontalDirection(int input){
+        return horizontalDirections[input & MOVEMENT_MASK];
+    }
+
+    /**
+     * Finds whether an input makes the player jump when it stands on the ground.
+     * @param input Bitmask of the Simulation.INPUT_ constants that are active during the tick.
+     * @return 'U' if the player jumps, 'N' otherwise.
+     */
+    public char getVerticalDirection(int input){
+        return verticalDirections[input & MOVEMENT_MASK];
+    }
+
+    /**
+     * Returns the key codes of the stage in the form [rightCode, leftCode, upCode].
+     * The array is not copied, so it must not be modified.
+     * @return An array storing the unique key codes for the stage.
+     */
+    public int[] getKeyCodes(){
+        return keyCodes;
+    }
+
+    /**
+     * Returns the number of button presses that open the door.
+     * @return The number of presses, at least 1.
+     */
+    public int getButtonPresses(){
+        return buttonPresses;
+    }
+
+    /**
+     * Returns the gravity of the different areas of the level.
+     * @return The gravity field, never null.
+     */
+    public GravityField getGravityField(){
+        return gravityField;
+    }
+
+    /**
+     * Indicates whether the stage declared a gravity field. The gravity of a stage without one is the same
+     * everywhere, and it has no reversed cells to draw.
+     * @return true if the stage has a gravity field, false otherwise.
+     */
+    public boolean hasGravityField(){
+        return hasGravityField;
+    }
+
+    /**
+     * Finds the direction that the pressed keys move the player in x direction.
+     * @param input Bitmask of the Simulation.INPUT_ constants that are active during the tick.
+     * @param keyCodes Key codes of the stage in the form [rightCode, leftCode, upCode].
+     * @return 'R' if the player moves to the right, 'L' if it moves to the left, 'N' if it does not move.
+     */
+    private static char findHorizontalDirection(int input, int[] keyCodes){
+        if((input & Simulation.INPUT_LEFT) != 0){
+            // If the player is currently at stage 2 ("not always straight forward"), it will move right
+            // instead of moving left
+            if(KeyEvent.VK_LEFT == keyCodes[0]){
+                return 'R';
+            }
+            else if(KeyEvent.VK_LEFT == keyCodes[1]){
+                return 'L';
+            }
+        }
+        // In the original game, left arrow key has a priority over right arrow key,
+        // so right key presses are handled only if the left key is not pressed
+        else if((input & Simulation.INPUT_RIGHT) != 0){
+            if(KeyEvent.VK_RIGHT == keyCodes[0]){
+                return 'R';
+            }
+            // If the player is currently at stage 2 ("not always straight forward"), it will move left
+            // instead of moving right
+            else if(KeyEvent.VK_RIGHT == keyCodes[1]){
+                return 'L';
+            }
+        }
+        return 'N';
+    }
+
+    /**
+     * Finds whether the pressed keys make the player jump.
+     * In stage 3 ("a bit bouncy here"), the jump key is disabled since the player jumps consistently.
+     * @param input Bitmask of the Simulation.INPUT_ constants that are active during the tick.
+     * @param keyCodes Key codes of the stage in the form [rightCode, leftCode, upCode].
+     * @return 'U' if the jump key of the stage is pressed, 'N' otherwise.
+     */
+    private static char findVerticalDirection(int input, int[] keyCodes){
+        if(isKeyPressed(input, keyCodes[2])){
+            return 'U';
+        }
+        return 'N';
+    }
+
+    /**
+     * Checks whether the key with the given key code is pressed in the input bitmask.
+     * @param input Bitmask of the Simulation.INPUT_ constants.
+     * @param keyCode Key code of the key, as in KeyEvent.
+     * @return true if the key is pressed, false if it is not or if the key is not one of the arrow keys.
+     */
+    private static boolean isKeyPressed(int input, int keyCode){
+        if(keyCode == KeyEvent.VK_LEFT){
+            return (input & Simulation.INPUT_LEFT) != 0;
+        }
+        else if(keyCode == KeyEvent.VK_RIGHT){
+            return (input & Simulation.INPUT_RIGHT) != 0;
+        }
+        else if(keyCode == KeyEvent.VK_UP){
+            return (input & Simulation.INPUT_UP) != 0;
+        }
+        return false;
+    }
+}
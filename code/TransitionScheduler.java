@@ -0,0 +1,106 @@
+import java.util.ArrayDeque;
+import java.util.function.BooleanSupplier;
+
+/**
+ * TransitionScheduler shows the timed screens between the parts of a run, like the banner after a stage, without
+ * stopping the game loop. The game loop advances the scheduler by the time of every frame and draws the current
+ * transition instead of the map, so the window keeps being drawn and the input keeps being read while a banner is
+ * shown. A transition can have work that is done in small steps while it is shown, such as preparing the map of the
+ * next stage, and it only ends after its work is done. The transitions are shown one after the other in the order
+ * they were scheduled.
+ */
+public class TransitionScheduler {
+
+    /**
+     * A timed screen with its work and the action that is run when it ends.
+     */
+    private static class Transition {
+        // Time that the transition is shown for in nanoseconds, 0 after it was skipped
+        private long durationNanos;
+        private boolean isSkippable;
+        // Draws the screen of the transition
+        private Runnable overlay;
+        // Does one step of the work and returns true when the work is done, null if there is no work
+        private BooleanSupplier work;
+        // Runs when the transition ends, null if nothing happens
+        private Runnable onEnd;
+        private long elapsedNanos = 0;
+
+        private Transition(long durationNanos, boolean isSkippable, Runnable overlay, BooleanSupplier work,
+                           Runnable onEnd){
+            this.durationNanos = durationNanos;
+            this.isSkippable = isSkippable;
+            this.overlay = overlay;
+            this.work = work;
+            this.onEnd = onEnd;
+        }
+    }
+
+    // Transitions that were scheduled, the first one is shown
+    private ArrayDeque<Transition> transitions = new ArrayDeque<>();
+
+    /**
+     * Schedules a transition after the ones that are already scheduled.
+     * @param durationMillis Time that the transition is shown for at least, in milliseconds.
+     * @param isSkippable true if the user can end the transition early.
+     * @param overlay Draws the screen of the transition, called once in every frame.
+     * @param work Does one step of the work of the transition and returns true when the work is done,
+     *             called once in every frame until then. null if there is no work.
+     * @param onEnd Runs when the transition ends, null if nothing happens.
+     */
+    public void schedule(long durationMillis, boolean isSkippable, Runnable overlay, BooleanSupplier work,
+                         Runnable onEnd){
+        transitions.add(new Transition(durationMillis * 1_000_000L, isSkippable, overlay, work, onEnd));
+    }
+
+    /**
+     * Indicates whether a transition is being shown.
+     * @return true if a transition is scheduled.
+     */
+    public boolean isActive(){
+        return !transitions.isEmpty();
+    }
+
+    /**
+     * Skips the rest of the time of the current transition if it can be skipped. Its work still has to be done,
+     * so it may last a few more frames.
+     */
+    public void skip(){
+        Transition transition = transitions.peek();
+        if(transition != null && transition.isSkippable){
+            transition.durationNanos = 0;
+        }
+    }
+
+    /**
+     * Advances the current transition by the time of a frame and does one step of its work.
+     * The transition ends when its time has passed and its work is done.
+     * @param elapsedNanos Time of the frame in nanoseconds.
+     */
+    public void update(long elapsedNanos){
+        Transition transition = transitions.peek();
+        if(transition == null){
+            return;
+        }
+        transition.elapsedNanos += elapsedNanos;
+        if(transition.work != null && transition.work.getAsBoolean()){
+            transition.work = null;
+        }
+        if(transition.work == null && transition.elapsedNanos >= transition.durationNanos){
+            transitions.poll();
+            if(transition.onEnd != null){
+                transition.onEnd.run();
+            }
+        }
+    }
+
+    /**
+     * Draws the screen of the current transition.
+     */
+    public void draw(){
+        Transition transition = transitions.peek();
+        if(transition != null){
+            transition.overlay.run();
+        }
+    }
+}
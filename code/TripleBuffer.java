@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * TripleBuffer passes the newest value from one writer thread to one reader thread without locks and without
+ * allocating memory. It holds three instances: the writer fills the back one, the reader reads the front one,
+ * and the third one is the newest complete value. Publishing swaps the back instance with the newest one and
+ * reading swaps the front instance with it if it is newer, both with a single atomic exchange.
+ * The writer never waits for the reader. The reader always gets a complete value, but it skips the values that
+ * were published while it was busy.
+ * @param <T> Type of the values, the instances are filled in place.
+ */
+public class TripleBuffer<T> {
+
+    // Bit of the shared index that is set when the shared instance was published after the last read
+    private static final int FRESH = 4;
+    // Mask of the index in the shared index
+    private static final int INDEX = 3;
+
+    private Object[] instances = new Object[3];
+    // Index of the shared instance with the FRESH bit
+    private AtomicInteger shared = new AtomicInteger(2);
+    // Index of the instance that the writer fills, only used by the writer thread
+    private int back = 0;
+    // Index of the instance that the reader reads, only used by the reader thread
+    private int front = 1;
+
+    /**
+     * Constructor of the class.
+     * @param factory Creates the three instances.
+     */
+    public TripleBuffer(Supplier<T> factory){
+        for(int i = 0; i < instances.length; i ++){
+            instances[i] = factory.get();
+        }
+    }
+
+    /**
+     * Returns the instance that the writer fills. Called by the writer thread.
+     * @return The back instance, it is not read by the reader until it is published.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack(){
+        return (T) instances[back];
+    }
+
+    /**
+     * Makes the back instance the newest value, the writer gets another instance to fill.
+     * Called by the writer thread.
+     */
+    public void publish(){
+        back = shared.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Returns the newest published value. Called by the reader thread.
+     * @return The front instance. It does not change until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront(){
+        if((shared.get() & FRESH) != 0){
+            front = shared.getAndSet(front) & INDEX;
+        }
+        return (T) instances[front];
+    }
+}
@@ -0,0 +1,293 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * BenchmarkCases prepares the cases of the JMH benchmarks in benchmarks.GameBenchmark and runs one operation of
+ * them: the movement of the player in a tick (Map.updateYCoordinate, Map.checkCollision, Map.movePlayer, the whole
+ * Simulation.tick and the tick of a BatchSimulation of many players) and the drawing of the map to an offscreen
+ * image. A case is a stage played with an input trace, where a trace is a recorded sequence of inputs that
+ * resembles a way of playing. The states of the player along the trace are recorded first, so a single method can
+ * be measured by restoring the recorded state before every call.
+ * JMH only accepts benchmarks in a named package, and a class in a named package cannot use the classes of the game
+ * in the default package, so GameBenchmark calls the public methods of this class through method handles.
+ */
+public class BenchmarkCases {
+
+    // Number of ticks of a trace
+    private static final int TICKS_PER_TRACE = 20_000;
+    // Number of players and ticks of a batch, a new batch is simulated in every operation of the batch benchmarks
+    private static final int BATCH_PLAYERS = 4096;
+    private static final int BATCH_TICKS = 100;
+    // Number of frames that the drawing benchmark draws along a trace
+    private static final int FRAMES_PER_TRACE = 300;
+
+    // Stages of the game, shared by the cases
+    private static ArrayList<Stage> stages;
+
+    // The stage and the input trace
+    private int stageIndex;
+    private int[] inputs;
+    // The map that the trace was recorded on and its simulation, the benchmarks of single methods run on it
+    private Simulation recordedSimulation;
+    private Map map;
+    // State at the beginning of the tick
+    private double[] x;
+    private double[] y;
+    private double[] velocityY;
+    // Next x coordinate after the horizontal input is applied, the input of updateYCoordinate
+    private double[] nextXBeforeY;
+    private char[] verticalDirection;
+    // State after the input is applied, the input of movePlayer and checkCollision
+    private double[] nextX;
+    private double[] nextY;
+    private double[] nextVelocityY;
+    // Index of the recorded tick that the next operation uses, and of the frame that the next drawing draws
+    private int tick = 0;
+    private int frame = 0;
+    // Simulation of the tick benchmark, it starts again when the player reaches the exit
+    private Simulation simulation;
+    private byte[] batchInputs = new byte[BATCH_PLAYERS];
+    // Snapshot that the frames of the drawing benchmark are captured into, and the offscreen canvas
+    private FrameSnapshot snapshot = new FrameSnapshot();
+    private Graphics2D graphics;
+
+    /**
+     * Prepares a case.
+     * @param stageIndex Index of the stage.
+     * @param trace Name of the trace, "idle", "runner" or "random".
+     * @return The prepared case.
+     */
+    public static Object setUp(int stageIndex, String trace){
+        if(stages == null){
+            stages = Stage.createStages();
+            // Fixed colors, the game picks random ones
+            for(Stage stage : stages){
+                stage.setColor(new Color(40, 90, 200));
+                stage.setGravityStripColor(new Color(200, 200, 60));
+            }
+        }
+        BenchmarkCases cases = new BenchmarkCases();
+        cases.stageIndex = stageIndex;
+        cases.inputs = createTrace(trace, TICKS_PER_TRACE);
+        cases.record();
+        cases.simulation = new Simulation(stages, stageIndex);
+        // Offscreen canvas with the same size and scale as the canvas of StdDraw
+        BufferedImage canvas = new BufferedImage(Screen.WIDTH * Screen.PIXEL_SCALE,
+                Screen.HEIGHT * Screen.PIXEL_SCALE, BufferedImage.TYPE_INT_ARGB);
+        cases.graphics = canvas.createGraphics();
+        cases.graphics.scale(Screen.PIXEL_SCALE, Screen.PIXEL_SCALE);
+        cases.graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        cases.graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        return cases;
+    }
+
+    /**
+     * Creates an input trace.
+     * "idle" presses no key, "runner" holds right and jumps regularly, and "random" holds random keys for a few
+     * ticks at a time like a player trying things out. The traces are the same in every run.
+     * @param name Name of the trace.
+     * @param ticks Length of the trace.
+     * @return Input bitmask of every tick.
+     */
+    private static int[] createTrace(String name, int ticks){
+        int[] inputs = new int[ticks];
+        int seed = 2024;
+        int input = 0;
+        int holdTicks = 0;
+        for(int i = 0; i < ticks; i ++){
+            if(name.equals("runner")){
+                inputs[i] = Simulation.INPUT_RIGHT | (i % 16 < 4 ? Simulation.INPUT_UP : 0);
+            }
+            else if(name.equals("random")){
+                if(holdTicks == 0){
+                    seed = seed * 1103515245 + 12345;
+                    input = (seed >>> 16) & (Simulation.INPUT_LEFT | Simulation.INPUT_RIGHT | Simulation.INPUT_UP);
+                    holdTicks = 4 + ((seed >>> 8) & 15);
+                }
+                inputs[i] = input;
+                holdTicks --;
+            }
+            else if(!name.equals("idle")){
+                throw new IllegalStateException("unknown trace: " + name);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Plays the trace on the stage and records the state of the player in every tick.
+     * The ticks are the same as Simulation.tick without the restart and reset buttons. When the player reaches
+     * the exit, the stage starts again.
+     */
+    private void record(){
+        Stage stage = stages.get(stageIndex);
+        int ticks = inputs.length;
+        x = new double[ticks];
+        y = new double[ticks];
+        velocityY = new double[ticks];
+        nextXBeforeY = new double[ticks];
+        verticalDirection = new char[ticks];
+        nextX = new double[ticks];
+        nextY = new double[ticks];
+        nextVelocityY = new double[ticks];
+        Map recorded = Simulation.createMap(stage);
+        for(int i = 0; i < ticks; i ++){
+            Player player = recorded.getPlayer();
+            x[i] = player.getX();
+            y[i] = player.getY();
+            velocityY[i] = player.getVelocityY();
+            player.storePreviousPosition();
+            char direction = stage.getRules().getHorizontalDirection(inputs[i]);
+            if(direction != 'N'){
+                recorded.updateXCoordinate(direction);
+            }
+            nextXBeforeY[i] = player.getNextX();
+            verticalDirection[i] = stage.getRules().getVerticalDirection(inputs[i]);
+            recorded.updateYCoordinate(verticalDirection[i]);
+            nextX[i] = player.getNextX();
+            nextY[i] = player.getNextY();
+            nextVelocityY[i] = player.getVelocityY();
+            recorded.movePlayer();
+            recorded.pressButton();
+            recorded.doorCheck();
+            if(recorded.changeStage()){
+                recorded = Simulation.createMap(stage);
+            }
+        }
+        recordedSimulation = new Simulation(stages, stageIndex);
+        map = recordedSimulation.getMap();
+    }
+
+    /**
+     * Moves to the next recorded tick.
+     * @return Index of the tick.
+     */
+    private int nextTick(){
+        int i = tick;
+        tick = i + 1 == inputs.length ? 0 : i + 1;
+        return i;
+    }
+
+    /**
+     * Calls updateYCoordinate for the next recorded tick. This includes the jump, the gravity of the stage,
+     * the auto-bounce of stage 3 and the reversed gravity cells of stage 5.
+     * @param state The case.
+     * @return The next y coordinate of the player.
+     */
+    public static double updateYCoordinate(Object state){
+        BenchmarkCases cases = (BenchmarkCases) state;
+        int i = cases.nextTick();
+        Player player = cases.map.getPlayer();
+        player.setX(cases.x[i]);
+        player.setY(cases.y[i]);
+        player.setNextX(cases.nextXBeforeY[i]);
+        player.setVelocityY(cases.velocityY[i]);
+        cases.map.updateYCoordinate(cases.verticalDirection[i]);
+        return player.getNextY();
+    }
+
+    /**
+     * Calls checkCollision for the movement of the next recorded tick.
+     * @param state The case.
+     * @return The result of checkCollision.
+     */
+    public static double checkCollision(Object state){
+        BenchmarkCases cases = (BenchmarkCases) state;
+        int i = cases.nextTick();
+        return cases.map.checkCollision(cases.x[i], cases.y[i], cases.nextX[i] - cases.x[i],
+                cases.nextY[i] - cases.y[i]);
+    }
+
+    /**
+     * Calls movePlayer for the next recorded tick, which resolves the collisions and checks the spikes.
+     * @param state The case.
+     * @return The x coordinate of the player after the move.
+     */
+    public static double movePlayer(Object state){
+        BenchmarkCases cases = (BenchmarkCases) state;
+        int i = cases.nextTick();
+        Player player = cases.map.getPlayer();
+        player.setX(cases.x[i]);
+        player.setY(cases.y[i]);
+        player.setNextX(cases.nextX[i]);
+        player.setNextY(cases.nextY[i]);
+        player.setVelocityY(cases.nextVelocityY[i]);
+        cases.map.movePlayer();
+        return player.getX();
+    }
+
+    /**
+     * Runs the next tick of the trace in a simulation that starts on the stage, and starts it again when the player
+     * reaches the exit.
+     * @param state The case.
+     * @return The events of the tick.
+     */
+    public static double tick(Object state){
+        BenchmarkCases cases = (BenchmarkCases) state;
+        int events = cases.simulation.tick(cases.inputs[cases.nextTick()]);
+        if((events & (Simulation.EVENT_STAGE_PASSED | Simulation.EVENT_FINISHED)) != 0){
+            cases.simulation = new Simulation(stages, cases.stageIndex);
+        }
+        return events;
+    }
+
+    /**
+     * Runs a new batch of players on the stage for BATCH_TICKS ticks, every player plays the trace from a different
+     * offset. The players finish one after another, so a batch is not run for longer.
+     * @param state The case.
+     * @return The x coordinate of the last player.
+     */
+    public static double batchTick(Object state){
+        return runBatch((BenchmarkCases) state, 1);
+    }
+
+    /**
+     * Runs the batch of batchTick divided among all cores.
+     * @param state The case.
+     * @return The x coordinate of the last player.
+     */
+    public static double batchTickParallel(Object state){
+        return runBatch((BenchmarkCases) state, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs a new batch of players on the stage.
+     * @param cases The case.
+     * @param lanes Number of lanes that the batch is simulated in.
+     * @return The x coordinate of the last player.
+     */
+    private static double runBatch(BenchmarkCases cases, int lanes){
+        BatchSimulation batch = new BatchSimulation(stages.get(cases.stageIndex), BATCH_PLAYERS, lanes);
+        int[] inputs = cases.inputs;
+        double finished = 0;
+        for(int tick = 0; tick < BATCH_TICKS; tick ++){
+            for(int i = 0; i < BATCH_PLAYERS; i ++){
+                cases.batchInputs[i] = (byte) inputs[(tick + 37 * i) % inputs.length];
+            }
+            finished += batch.tick(cases.batchInputs);
+        }
+        return finished + batch.getX()[BATCH_PLAYERS - 1];
+    }
+
+    /**
+     * Draws a frame to the offscreen canvas with the player at the next of the recorded positions along the
+     * trace. The frame is captured into a snapshot and drawn from it, the same way the render thread of the game
+     * draws.
+     * @param state The case.
+     * @return The x coordinate of the drawn player.
+     */
+    public static double draw(Object state){
+        BenchmarkCases cases = (BenchmarkCases) state;
+        int i = cases.frame * (cases.inputs.length / FRAMES_PER_TRACE);
+        cases.frame = cases.frame + 1 == FRAMES_PER_TRACE ? 0 : cases.frame + 1;
+        Player player = cases.map.getPlayer();
+        player.setX(cases.x[i]);
+        player.setY(cases.y[i]);
+        player.storePreviousPosition();
+        Screen.setTarget(cases.graphics);
+        cases.snapshot.capture(i, 0, 1, 0, cases.map, cases.recordedSimulation, 0);
+        cases.snapshot.drawMap(1);
+        return player.getX();
+    }
+}
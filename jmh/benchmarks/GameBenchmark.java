@@ -0,0 +1,128 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the hot paths of the game without a window, on every stage with every input trace.
+ * The cases are prepared and run by BenchmarkCases in the default package, which this class reaches through
+ * method handles. The handles are constants, so the JIT compiler inlines the calls as if they were direct.
+ * Run with: gradle jmh, the results are written to build/results/jmh/results.json.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+// The map is drawn to an offscreen image, a window is never created
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class GameBenchmark {
+
+    // Number of player ticks in an operation of the batch benchmarks, BenchmarkCases.BATCH_PLAYERS * BATCH_TICKS
+    private static final int BATCH_OPERATIONS = 4096 * 100;
+
+    private static final MethodHandle SET_UP = find("setUp",
+            MethodType.methodType(Object.class, int.class, String.class));
+    private static final MethodHandle UPDATE_Y_COORDINATE = findOperation("updateYCoordinate");
+    private static final MethodHandle CHECK_COLLISION = findOperation("checkCollision");
+    private static final MethodHandle MOVE_PLAYER = findOperation("movePlayer");
+    private static final MethodHandle TICK = findOperation("tick");
+    private static final MethodHandle BATCH_TICK = findOperation("batchTick");
+    private static final MethodHandle BATCH_TICK_PARALLEL = findOperation("batchTickParallel");
+    private static final MethodHandle DRAW = findOperation("draw");
+
+    // Number of the stage, from 1
+    @Param({"1", "2", "3", "4", "5"})
+    public int stage;
+    // Name of the input trace
+    @Param({"idle", "runner", "random"})
+    public String trace;
+
+    // The prepared case, a BenchmarkCases object
+    private Object cases;
+
+    /**
+     * Finds a public static method of BenchmarkCases.
+     * @param name Name of the method.
+     * @param type Type of the method.
+     * @return The handle of the method.
+     */
+    private static MethodHandle find(String name, MethodType type){
+        try{
+            return MethodHandles.publicLookup().findStatic(Class.forName("BenchmarkCases"), name, type);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException("BenchmarkCases." + name + " is not found", e);
+        }
+    }
+
+    /**
+     * Finds an operation of BenchmarkCases, which takes the case and returns a value computed by the operation.
+     * @param name Name of the operation.
+     * @return The handle of the operation.
+     */
+    private static MethodHandle findOperation(String name){
+        return find(name, MethodType.methodType(double.class, Object.class));
+    }
+
+    /**
+     * Prepares the case of the stage and the trace, and records the states of the player along the trace.
+     * @throws Throwable If the case cannot be prepared.
+     */
+    @Setup
+    public void setUp() throws Throwable{
+        cases = (Object) SET_UP.invokeExact(stage - 1, trace);
+    }
+
+    @Benchmark
+    public double updateYCoordinate() throws Throwable{
+        return (double) UPDATE_Y_COORDINATE.invokeExact(cases);
+    }
+
+    @Benchmark
+    public double checkCollision() throws Throwable{
+        return (double) CHECK_COLLISION.invokeExact(cases);
+    }
+
+    @Benchmark
+    public double movePlayer() throws Throwable{
+        return (double) MOVE_PLAYER.invokeExact(cases);
+    }
+
+    @Benchmark
+    public double tick() throws Throwable{
+        return (double) TICK.invokeExact(cases);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_OPERATIONS)
+    public double batchTick() throws Throwable{
+        return (double) BATCH_TICK.invokeExact(cases);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_OPERATIONS)
+    public double batchTickParallel() throws Throwable{
+        return (double) BATCH_TICK_PARALLEL.invokeExact(cases);
+    }
+
+    @Benchmark
+    public double draw() throws Throwable{
+        return (double) DRAW.invokeExact(cases);
+    }
+}
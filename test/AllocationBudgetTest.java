@@ -0,0 +1,26 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the ticks of every stage do not allocate memory once the stage is running, with the same
+ * measurement as the AllocationBudget program.
+ */
+public class AllocationBudgetTest {
+
+    /**
+     * Runs the ticks of every stage, with the rewind history captured after every tick, and expects no allocation.
+     */
+    @Test
+    public void ticksDoNotAllocate(){
+        assumeTrue(AllocationBudget.isSupported(), "the JVM cannot measure the memory allocated by a thread");
+        ArrayList<Stage> stages = Stage.createStages();
+        long[] allocated = AllocationBudget.measureStages(stages, AllocationBudget.DEFAULT_TICKS);
+        for(int stageIndex = 0; stageIndex < allocated.length; stageIndex ++){
+            assertEquals(0, allocated[stageIndex], "bytes allocated on stage " + (stageIndex + 1));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a BatchSimulation gives every player the same result as a Simulation of a single run on the stage.
+ */
+public class BatchSimulationTest {
+
+    // Number of players and ticks that are compared on every stage
+    private static final int PLAYERS = 64;
+    private static final int TICKS = 3000;
+
+    /**
+     * Plays random inputs with the movement keys and the restart button on every stage, and compares the state of
+     * every player with its own Simulation after every tick until the player reaches the exit.
+     */
+    @Test
+    public void batchMatchesSimulation(){
+        ArrayList<Stage> stages = Stage.createStages();
+        for(int stageIndex = 0; stageIndex < stages.size(); stageIndex ++){
+            Random random = new Random(stageIndex);
+            // Two lanes, so the players of the second lane use their own grids and buffers
+            BatchSimulation batch = new BatchSimulation(stages.get(stageIndex), PLAYERS, 2);
+            Simulation[] simulations = new Simulation[PLAYERS];
+            boolean[] isFinished = new boolean[PLAYERS];
+            for(int i = 0; i < PLAYERS; i ++){
+                simulations[i] = new Simulation(stages, stageIndex);
+            }
+            byte[] inputs = new byte[PLAYERS];
+            for(int tick = 0; tick < TICKS; tick ++){
+                for(int i = 0; i < PLAYERS; i ++){
+                    inputs[i] = (byte) (random.nextInt(100) == 0 ? Simulation.INPUT_RESTART : random.nextInt(8));
+                }
+                batch.tick(inputs);
+                for(int i = 0; i < PLAYERS; i ++){
+                    if(isFinished[i]){
+                        continue;
+                    }
+                    String where = "stage " + (stageIndex + 1) + ", player " + i + ", tick " + tick;
+                    int events = simulations[i].tick(inputs[i]);
+                    if((events & Simulation.EVENT_STAGE_PASSED) != 0){
+                        isFinished[i] = true;
+                        assertEquals(tick + 1, batch.getFinishTick()[i], where);
+                        continue;
+                    }
+                    Map map = simulations[i].getMap();
+                    Player player = map.getPlayer();
+                    assertEquals(player.getX(), batch.getX()[i], where);
+                    assertEquals(player.getY(), batch.getY()[i], where);
+                    assertEquals(player.getVelocityY(), batch.getVelocityY()[i], where);
+                    assertEquals(map.getButtonPressNum(), batch.getButtonPressNum()[i], where);
+                    assertEquals(simulations[i].getDeathNumber(), batch.getDeathNumber()[i], where);
+                }
+            }
+        }
+    }
+}
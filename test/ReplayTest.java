@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a replay written to a file plays the recorded run again exactly.
+ */
+public class ReplayTest {
+
+    // Number of recorded ticks, several keyframes of the replay
+    private static final int TICKS = 5000;
+
+    /**
+     * Records a run with random held keys and restarts, writes it to a file and reads it back. Playing the inputs of
+     * the file again must reach the result stored in it, and seeking to a tick must give the state of the recorded
+     * run at that tick.
+     * @param directory Temporary directory of the replay file.
+     * @throws IOException If the replay file cannot be written or read.
+     */
+    @Test
+    public void writtenReplayPlaysTheSameRun(@TempDir Path directory) throws IOException{
+        Level level = Level.load(Level.DEFAULT_FILE);
+        Simulation simulation = new Simulation(level.getStages());
+        Replay recording = new Replay(level, Game.DEFAULT_TICK_RATE);
+        // State of the recorded run after every tick, index 0 is the state before the first tick
+        double[][] states = new double[TICKS + 1][];
+        states[0] = state(simulation);
+        Random random = new Random(2024);
+        int input = 0;
+        for(int tick = 0; tick < TICKS; tick ++){
+            // The keys are held for a few ticks like a player does, and the restart button is clicked now and then
+            if(tick % 12 == 0){
+                input = random.nextInt(8);
+            }
+            int tickInput = random.nextInt(300) == 0 ? input | Simulation.INPUT_RESTART : input;
+            recording.record(simulation, tickInput);
+            simulation.tick(tickInput);
+            recording.recordResult(simulation);
+            states[tick + 1] = state(simulation);
+        }
+        String file = directory.resolve("run.rep").toString();
+        recording.write(file);
+
+        Replay replay = Replay.read(file);
+        replay.verify(level);
+        assertEquals(TICKS, replay.getTickCount());
+        assertEquals(Game.DEFAULT_TICK_RATE, replay.getTickRate());
+        Simulation replayed = new Simulation(level.getStages());
+        for(int tick = 0; tick < TICKS; tick ++){
+            assertEquals(recording.getInput(tick), replay.getInput(tick), "input of tick " + tick);
+            replayed.tick(replay.getInput(tick));
+        }
+        assertEquals(replay.getFinalStageIndex(), replayed.getStageIndex());
+        assertEquals(replay.getFinalDeathNumber(), replayed.getDeathNumber());
+        assertEquals(replay.getFinalTimerTicks(), replayed.getTimerTicks());
+
+        int[] seekTicks = {0, 1, Replay.KEYFRAME_INTERVAL - 1, Replay.KEYFRAME_INTERVAL,
+                3 * Replay.KEYFRAME_INTERVAL + 17, TICKS};
+        for(int tick : seekTicks){
+            Simulation seeked = new Simulation(level.getStages());
+            replay.seek(seeked, tick);
+            double[] expected = states[tick];
+            double[] actual = state(seeked);
+            for(int i = 0; i < expected.length; i ++){
+                assertEquals(expected[i], actual[i], "value " + i + " of the state after seeking to tick " + tick);
+            }
+        }
+    }
+
+    /**
+     * Copies the values of a run that a replay must reproduce.
+     * @param simulation The simulation of the run.
+     * @return The stage, the player, the door, the button and the counters of the run.
+     */
+    private static double[] state(Simulation simulation){
+        Map map = simulation.getMap();
+        Player player = map.getPlayer();
+        return new double[]{simulation.getStageIndex(), player.getX(), player.getY(), player.getVelocityY(),
+                player.getFacingDirection(), map.getDoorTop(), map.getButtonPressNum(),
+                map.getIsButtonPressing() ? 1 : 0, simulation.getDeathNumber(), simulation.getTimerTicks()};
+    }
+}